@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the per record conversions done by the Kudu sink and source.
+ *
+ * <p>
+ *   Run with the GC profiler to get the allocation rate as well, see benchmarks/README.md.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordConversionBenchmark {
+  private static final int ROWS = 1024;
+  private static final String TABLE = "benchmark";
+
+  @Param({"NARROW", "WIDE", "NULLABLE", "BINARY_HEAVY", "ALL_TYPES"})
+  public RowShape shape;
+
+  @Param({"false", "true"})
+  public boolean zeroCopyBinary;
+
+  private Schema writeSchema;
+  private org.apache.kudu.Schema tableSchema;
+  private StructuredRecord[] records;
+  private RowResult[] rows;
+  private KuduRowDecoder decoder;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    org.apache.kudu.Schema readSchema = shape.kuduSchema();
+    Schema schema = KuduMetadataCache.toCdapSchema(readSchema);
+    List<Object[]> values = shape.values(ROWS);
+
+    // The sink writes to a table created from the write schema, so int8 and int16 become int32.
+    writeSchema = schema;
+    List<ColumnSchema> columns = KuduUtils.toKuduSchema(schema, Collections.singleton("id"),
+                                                        ColumnSchema.CompressionAlgorithm.DEFAULT_COMPRESSION,
+                                                        ColumnSchema.Encoding.AUTO_ENCODING);
+    tableSchema = new org.apache.kudu.Schema(columns);
+    records = RowShape.records(schema, values);
+
+    rows = RowShape.rowResults(readSchema, values);
+    decoder = new KuduRowDecoder(schema, zeroCopyBinary);
+  }
+
+  /**
+   * Conversion done by the sink for every record written.
+   */
+  @Benchmark
+  public PartialRow recordToRow() {
+    PartialRow row = tableSchema.newPartialRow();
+    KuduUtils.addToRow(row, writeSchema, records[nextIndex()]);
+    return row;
+  }
+
+  /**
+   * Conversion done by the source record reader for every row read.
+   */
+  @Benchmark
+  public StructuredRecord rowResultToRecord() {
+    return decoder.decode(rows[nextIndex()], TABLE);
+  }
+
+  private int nextIndex() {
+    next = (next + 1) % ROWS;
+    return next;
+  }
+}
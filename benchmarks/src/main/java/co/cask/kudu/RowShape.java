@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResults;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Table layouts exercised by the benchmarks, along with generated rows for them.
+ */
+public enum RowShape {
+  /** A key and a couple of small columns. */
+  NARROW {
+    @Override
+    List<ColumnSchema> columns() {
+      return Arrays.asList(column("name", Type.STRING, false), column("count", Type.INT32, false));
+    }
+  },
+  /** A hundred columns of mixed numeric and string types. */
+  WIDE {
+    @Override
+    List<ColumnSchema> columns() {
+      Type[] types = { Type.INT32, Type.INT64, Type.DOUBLE, Type.STRING };
+      List<ColumnSchema> columns = new ArrayList<>();
+      for (int i = 0; i < 99; i++) {
+        columns.add(column("c" + i, types[i % types.length], false));
+      }
+      return columns;
+    }
+  },
+  /** Nullable columns of every type, about half of the values being null. */
+  NULLABLE {
+    @Override
+    List<ColumnSchema> columns() {
+      List<ColumnSchema> columns = new ArrayList<>();
+      for (Type type : SINK_TYPES) {
+        for (int i = 0; i < 3; i++) {
+          columns.add(column(type.getName() + i, type, true));
+        }
+      }
+      return columns;
+    }
+  },
+  /** Kilobyte sized string and binary columns. */
+  BINARY_HEAVY {
+    @Override
+    List<ColumnSchema> columns() {
+      List<ColumnSchema> columns = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        columns.add(column("s" + i, Type.STRING, false));
+        columns.add(column("b" + i, Type.BINARY, false));
+      }
+      return columns;
+    }
+
+    @Override
+    int valueLength() {
+      return 1024;
+    }
+  },
+  /** One column of every Kudu type read by the source. */
+  ALL_TYPES {
+    @Override
+    List<ColumnSchema> columns() {
+      List<ColumnSchema> columns = new ArrayList<>();
+      for (Type type : SOURCE_TYPES) {
+        columns.add(column(type.getName(), type, false));
+      }
+      return columns;
+    }
+  };
+
+  private static final Type[] SINK_TYPES = {
+    Type.BOOL, Type.INT32, Type.INT64, Type.FLOAT, Type.DOUBLE, Type.STRING, Type.BINARY
+  };
+  private static final Type[] SOURCE_TYPES = {
+    Type.BOOL, Type.INT8, Type.INT16, Type.INT32, Type.INT64, Type.FLOAT, Type.DOUBLE, Type.STRING, Type.BINARY
+  };
+
+  /**
+   * @return Non key columns of the table.
+   */
+  abstract List<ColumnSchema> columns();
+
+  /**
+   * @return Length of the generated strings and binaries.
+   */
+  int valueLength() {
+    return 16;
+  }
+
+  /**
+   * @return Kudu schema of the table, keyed by a long 'id' column.
+   */
+  org.apache.kudu.Schema kuduSchema() {
+    List<ColumnSchema> columns = new ArrayList<>();
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build());
+    columns.addAll(columns());
+    return new org.apache.kudu.Schema(columns);
+  }
+
+  /**
+   * Generates rows for the table, returning the values of each row in column order.
+   */
+  List<Object[]> values(int count) {
+    org.apache.kudu.Schema schema = kuduSchema();
+    Random random = new Random(42);
+    List<Object[]> rows = new ArrayList<>();
+    for (int r = 0; r < count; r++) {
+      Object[] values = new Object[schema.getColumnCount()];
+      for (int i = 0; i < values.length; i++) {
+        ColumnSchema column = schema.getColumnByIndex(i);
+        if (i == 0) {
+          values[i] = (long) r;
+        } else if (column.isNullable() && random.nextBoolean()) {
+          values[i] = null;
+        } else {
+          values[i] = value(column.getType(), random);
+        }
+      }
+      rows.add(values);
+    }
+    return rows;
+  }
+
+  /**
+   * Builds the records written by the sink from the generated values.
+   */
+  static StructuredRecord[] records(Schema schema, List<Object[]> values) {
+    StructuredRecord[] records = new StructuredRecord[values.size()];
+    for (int r = 0; r < records.length; r++) {
+      StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+      List<Schema.Field> fields = schema.getFields();
+      for (int i = 0; i < fields.size(); i++) {
+        Object value = values.get(r)[i];
+        // Int8 and int16 columns are read into int fields.
+        if (value instanceof Byte || value instanceof Short) {
+          value = ((Number) value).intValue();
+        }
+        builder.set(fields.get(i).getName(), value);
+      }
+      records[r] = builder.build();
+    }
+    return records;
+  }
+
+  /**
+   * Builds the rows read by the source from the generated values.
+   */
+  static RowResult[] rowResults(org.apache.kudu.Schema schema, List<Object[]> values) {
+    RowResult[] rows = new RowResult[values.size()];
+    for (int r = 0; r < rows.length; r++) {
+      rows[r] = RowResults.create(schema, values.get(r));
+    }
+    return rows;
+  }
+
+  private Object value(Type type, Random random) {
+    switch (type) {
+      case BOOL:
+        return random.nextBoolean();
+      case INT8:
+        return (byte) random.nextInt();
+      case INT16:
+        return (short) random.nextInt();
+      case INT32:
+        return random.nextInt();
+      case INT64:
+        return random.nextLong();
+      case FLOAT:
+        return random.nextFloat();
+      case DOUBLE:
+        return random.nextDouble();
+      case STRING:
+        char[] chars = new char[valueLength()];
+        for (int i = 0; i < chars.length; i++) {
+          chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+      default:
+        byte[] bytes = new byte[valueLength()];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+  }
+
+  private static ColumnSchema column(String name, Type type, boolean nullable) {
+    return new ColumnSchema.ColumnSchemaBuilder(name, type).nullable(nullable).build();
+  }
+}
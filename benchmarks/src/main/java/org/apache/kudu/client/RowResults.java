@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.apache.kudu.client;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.util.Slices;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds {@link RowResult}s without a tablet server, by laying out the row the way it's returned by a scan.
+ *
+ * <p>
+ *   This lives in the Kudu client package, as the {@link RowResult} constructor is package private.
+ *   Fixed size values are stored little endian, one after the other in column order, strings and binaries
+ *   as an offset and a length into the indirect data, followed by the null bitmap when the schema has
+ *   nullable columns.
+ * </p>
+ */
+public final class RowResults {
+
+  private RowResults() {
+  }
+
+  /**
+   * Creates a {@link RowResult} positioned on a single row.
+   *
+   * @param schema of the row.
+   * @param values of the columns, in column order, null for null values.
+   * @return {@link RowResult} holding the values.
+   */
+  public static RowResult create(Schema schema, Object[] values) {
+    int columns = schema.getColumnCount();
+    ByteBuffer row = ByteBuffer.allocate(schema.getRowSize()).order(ByteOrder.LITTLE_ENDIAN);
+    ByteArrayOutputStream indirect = new ByteArrayOutputStream();
+    int offset = 0;
+    for (int i = 0; i < columns; i++) {
+      ColumnSchema column = schema.getColumnByIndex(i);
+      Object value = values[i];
+      row.position(offset);
+      offset += column.getType().getSize();
+      if (value == null) {
+        // The null bitmap follows the fixed size part of the row.
+        int bitmap = schema.getRowSize() - (columns + 7) / 8;
+        row.put(bitmap + i / 8, (byte) (row.get(bitmap + i / 8) | (1 << (i % 8))));
+        continue;
+      }
+      switch (column.getType()) {
+        case BOOL:
+          row.put((byte) ((Boolean) value ? 1 : 0));
+          break;
+        case INT8:
+          row.put(((Number) value).byteValue());
+          break;
+        case INT16:
+          row.putShort(((Number) value).shortValue());
+          break;
+        case INT32:
+          row.putInt(((Number) value).intValue());
+          break;
+        case INT64:
+        case UNIXTIME_MICROS:
+          row.putLong(((Number) value).longValue());
+          break;
+        case FLOAT:
+          row.putFloat((Float) value);
+          break;
+        case DOUBLE:
+          row.putDouble((Double) value);
+          break;
+        case STRING:
+        case BINARY:
+          byte[] bytes = value instanceof String ? ((String) value).getBytes(StandardCharsets.UTF_8) : (byte[]) value;
+          row.putLong(indirect.size());
+          row.putLong(bytes.length);
+          indirect.write(bytes, 0, bytes.length);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported type " + column.getType());
+      }
+    }
+    RowResult result = new RowResult(schema, Slices.wrappedBuffer(row.array()),
+                                     Slices.wrappedBuffer(indirect.toByteArray()));
+    result.advancePointer();
+    return result;
+  }
+}
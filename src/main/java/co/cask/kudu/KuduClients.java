@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process wide registry of long-lived {@link KuduClient}s and opened {@link KuduTable}s.
+ *
+ * <p>
+ *   Kudu clients are thread-safe and expensive to set up, as they have to connect to the masters
+ *   and discover the tablet locations. Plugins that are invoked repeatedly within the same JVM, like the
+ *   record writers of the tasks of an executor or the streaming sink across micro-batches, share the clients
+ *   from here, which are closed on JVM shutdown. Code running in the CDAP master or in the driver of a run, whose
+ *   JVM outlives the run, opens its own client with {@link #newClient} and closes it with {@link #close}.
+ * </p>
+ */
+final class KuduClients {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduClients.class);
+
+  // Master addresses starting with this prefix are served by the in-process Kudu stand-in of the
+  // throughput harness, which is only available when the test classes are packaged with the plugins.
+  static final String STAND_IN_PREFIX = "standin:";
+  private static final String STAND_IN_CLASS = "co.cask.kudu.KuduStandIn";
+
+  private static final String FOLLOWERS_PREFIX = "followers|";
+  private static final ConcurrentMap<String, KuduClient> CLIENTS = new ConcurrentHashMap<>();
+  // Keyed by the client itself, which compares by identity, so that a table is only returned to its own client.
+  private static final ConcurrentMap<KuduClient, ConcurrentMap<String, KuduTable>> TABLES =
+    new ConcurrentHashMap<>();
+  private static boolean shutdownHookAdded;
+
+  private KuduClients() {
+  }
+
+  /**
+   * Returns the shared client for the given master addresses and client settings, creating it if needed.
+   *
+   * @param master comma separated list of Kudu masters.
+   * @param operationTimeout timeout for user operations in milliseconds.
+   * @param adminTimeout timeout for admin operations in milliseconds.
+   * @param bossThreads number of boss threads used by the client.
+   * @return shared {@link KuduClient}.
+   */
+  static KuduClient getClient(String master, int operationTimeout, int adminTimeout, int bossThreads) {
+    return getClient(clientKey(master, operationTimeout, adminTimeout, bossThreads),
+                     master, operationTimeout, adminTimeout, bossThreads);
+  }
+
+  /**
+   * Returns the shared client reading the followers of the tablets, through
+   * {@link org.apache.kudu.client.FollowerScanners}. It is kept apart from the client returned by
+   * {@link #getClient}, as it forgets the leaders of the tablets it reads.
+   */
+  static KuduClient getFollowerClient(String master, int operationTimeout, int adminTimeout, int bossThreads) {
+    return getClient(FOLLOWERS_PREFIX + clientKey(master, operationTimeout, adminTimeout, bossThreads),
+                     master, operationTimeout, adminTimeout, bossThreads);
+  }
+
+  private static KuduClient getClient(String key, String master, int operationTimeout, int adminTimeout,
+                                      int bossThreads) {
+    KuduClient client = CLIENTS.get(key);
+    if (client != null) {
+      return client;
+    }
+    synchronized (CLIENTS) {
+      client = CLIENTS.get(key);
+      if (client == null) {
+        if (!shutdownHookAdded) {
+          // Only added once a shared client exists, so that JVMs only opening their own clients don't keep
+          // the class loader of the plugin alive.
+          Runtime.getRuntime().addShutdownHook(new Thread("kudu-clients-shutdown") {
+            @Override
+            public void run() {
+              closeAll();
+            }
+          });
+          shutdownHookAdded = true;
+        }
+        client = newClient(master, operationTimeout, adminTimeout, bossThreads);
+        CLIENTS.put(key, client);
+      }
+      return client;
+    }
+  }
+
+  /**
+   * Returns the shared client configured from the sink configuration.
+   */
+  static KuduClient getClient(KuduSinkConfig config) {
+    return getClient(config.getMasterAddress(), config.getOperationTimeout(),
+                     config.getAdministrationTimeout(), config.getThreads());
+  }
+
+  /**
+   * Creates a client that is not shared, to be closed by the caller with {@link #close}.
+   *
+   * @param master comma separated list of Kudu masters.
+   * @param operationTimeout timeout for user operations in milliseconds.
+   * @param adminTimeout timeout for admin operations in milliseconds.
+   * @param bossThreads number of boss threads used by the client.
+   * @return new {@link KuduClient}.
+   */
+  static KuduClient newClient(String master, int operationTimeout, int adminTimeout, int bossThreads) {
+    if (master.startsWith(STAND_IN_PREFIX)) {
+      return newStandIn(master);
+    }
+    return new KuduClient.KuduClientBuilder(master)
+      .defaultOperationTimeoutMs(operationTimeout)
+      .defaultAdminOperationTimeoutMs(adminTimeout)
+      .disableStatistics()
+      .bossCount(bossThreads)
+      .build();
+  }
+
+  /**
+   * Creates a client configured from the sink configuration that is not shared, to be closed by the caller.
+   */
+  static KuduClient newClient(KuduSinkConfig config) {
+    return newClient(config.getMasterAddress(), config.getOperationTimeout(),
+                     config.getAdministrationTimeout(), config.getThreads());
+  }
+
+  /**
+   * Closes a client returned by {@link #newClient}, along with the tables opened through it.
+   */
+  static void close(KuduClient client) {
+    TABLES.remove(client);
+    try {
+      client.close();
+    } catch (KuduException e) {
+      LOG.warn("There was a problem closing kudu client. Reason : {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the table opened through the given client, opening it if needed.
+   *
+   * @param client returned by {@link #getClient}.
+   * @param name of the table.
+   * @return opened {@link KuduTable}.
+   * @throws KuduException thrown when the table cannot be opened.
+   */
+  static KuduTable getTable(KuduClient client, String name) throws KuduException {
+    ConcurrentMap<String, KuduTable> tables = TABLES.get(client);
+    if (tables == null) {
+      tables = new ConcurrentHashMap<>();
+      ConcurrentMap<String, KuduTable> existing = TABLES.putIfAbsent(client, tables);
+      if (existing != null) {
+        tables = existing;
+      }
+    }
+    KuduTable table = tables.get(name);
+    if (table == null) {
+      table = client.openTable(name);
+      KuduTable existing = tables.putIfAbsent(name, table);
+      if (existing != null) {
+        table = existing;
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Forgets the opened table, so that the next call to {@link #getTable} re-opens it.
+   */
+  static void invalidateTable(KuduClient client, String name) {
+    Map<String, KuduTable> tables = TABLES.get(client);
+    if (tables != null) {
+      tables.remove(name);
+    }
+  }
+
+  private static KuduClient newStandIn(String master) {
+    try {
+      return (KuduClient) Class.forName(STAND_IN_CLASS).getConstructor(String.class).newInstance(master);
+    } catch (Exception e) {
+      throw new IllegalArgumentException(
+        String.format("Kudu stand-in '%s' is only available to the throughput harness.", master), e
+      );
+    }
+  }
+
+  private static String clientKey(String master, int operationTimeout, int adminTimeout, int bossThreads) {
+    return master + "|" + operationTimeout + "|" + adminTimeout + "|" + bossThreads;
+  }
+
+  private static void closeAll() {
+    TABLES.clear();
+    for (Map.Entry<String, KuduClient> entry : CLIENTS.entrySet()) {
+      try {
+        entry.getValue().close();
+      } catch (KuduException e) {
+        LOG.warn("There was a problem closing kudu client. Reason : {}", e.getMessage());
+      }
+    }
+    CLIENTS.clear();
+  }
+}
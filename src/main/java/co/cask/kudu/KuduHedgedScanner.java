@@ -0,0 +1,605 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.RowResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Scanner hedging the batches of a scan on the leader of a tablet with a scan of the same snapshot on a follower.
+ *
+ * <p>
+ *   When a batch takes longer than the hedge delay, the scan is opened on the other replica too, and the scanner
+ *   returning the batch first is used for the rest of the scan. The other one is closed as soon as it returns,
+ *   whichever way the batch ends. The first batch of the other replica is the first batch of the scan when it
+ *   opens the scanner.
+ * </p>
+ *
+ * <p>
+ *   A Kudu 1.2 scanner cannot be resumed from where it is on another replica, and the replicas of a tablet return
+ *   its rows in different orders. Once rows are returned, the scan is instead read again from the other replica,
+ *   skipping the rows already returned by their primary key, either as a hedge of a slow batch or when a batch
+ *   fails. This only happens once per scan, so the keys are only kept until then, and only for the batches that
+ *   are followed by other batches. Keys are kept for up to {@link #MAX_FAILOVER_ROWS} rows of a scan, beyond which
+ *   the scan is no longer hedged and a failing batch fails the scan as before.
+ * </p>
+ *
+ * <p>
+ *   The hedge delay is either configured, or the given percentile of the batch latencies seen in this JVM.
+ *   Hedges are bounded to a fraction of the batches requested in this JVM.
+ * </p>
+ */
+final class KuduHedgedScanner implements KuduScans.Scanner {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduHedgedScanner.class);
+
+  // Delay used until enough latencies have been seen to compute the percentile.
+  static final long DEFAULT_DELAY_MS = 1000;
+  private static final int MIN_SAMPLES = 20;
+  private static final int MAX_SAMPLES = 1024;
+
+  // Rows of a scan whose keys are kept to read it again from the other replica.
+  static final int MAX_FAILOVER_ROWS = 250000;
+
+  private static final long[] LATENCIES = new long[MAX_SAMPLES];
+  private static final AtomicLong BATCHES = new AtomicLong();
+  private static final AtomicLong HEDGES = new AtomicLong();
+  private static int samples;
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "kudu-hedged-scan-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final KuduScans scans;
+  private final KuduClient client;
+  private final KuduClient followerClient;
+  private final byte[] token;
+  private final byte[] hedgeToken;
+  private final long delayMs;
+  private final int percentile;
+  private final double maxFraction;
+  private final Counter hedgeCounter;
+  private final Counter winCounter;
+  private final Counter failoverCounter;
+
+  private KuduScans.Scanner scanner;
+  // Whether the scanner reads the follower.
+  private boolean onFollower;
+  private boolean opened;
+  // Whether the scan was read again from the other replica after rows were returned, which only happens once.
+  private boolean moved;
+  // Keys of the rows returned so far, null once there are too many of them for the scan to be read again. They are
+  // also looked up by the calls reading the scan again, which may still be running once they lost a race.
+  private Set<List<Object>> returned = Collections.newSetFromMap(new ConcurrentHashMap<List<Object>, Boolean>());
+  private final KeyReader keys = new KeyReader();
+
+  /**
+   * @param followerClient client only used to read followers.
+   * @param token scan of the leader of the tablet.
+   * @param hedgeToken scan of the same snapshot of the tablet, opened on a follower.
+   * @param delayMs hedge delay in milliseconds, 0 to use the percentile of the batch latencies.
+   * @param percentile of the batch latencies used as the hedge delay.
+   * @param maxFraction maximum fraction of the batches that are hedged.
+   * @param hedgeCounter counts the hedged batches.
+   * @param winCounter counts the hedged batches for which the hedge returned first.
+   * @param failoverCounter counts the scans failed over to the other replica.
+   */
+  KuduHedgedScanner(KuduScans scans, KuduClient client, KuduClient followerClient, byte[] token, byte[] hedgeToken,
+                    long delayMs, int percentile, double maxFraction, Counter hedgeCounter, Counter winCounter,
+                    Counter failoverCounter) {
+    this.scans = scans;
+    this.client = client;
+    this.followerClient = followerClient;
+    this.token = token;
+    this.hedgeToken = hedgeToken;
+    this.delayMs = delayMs;
+    this.percentile = percentile;
+    this.maxFraction = maxFraction;
+    this.hedgeCounter = hedgeCounter;
+    this.winCounter = winCounter;
+    this.failoverCounter = failoverCounter;
+  }
+
+  @Override
+  public boolean hasMoreRows() {
+    return !opened || (scanner != null && scanner.hasMoreRows());
+  }
+
+  @Override
+  public Iterator<RowResult> nextRows() throws IOException {
+    long start = System.nanoTime();
+    BATCHES.incrementAndGet();
+    Iterator<RowResult> rows;
+    try {
+      if (!opened) {
+        opened = true;
+        rows = race(new OpenCall(false), new OpenCall(true));
+      } else if (!moved && returned != null && hedgeAvailable()) {
+        rows = race(new NextCall(scanner, onFollower), new ReadAgainCall(!onFollower, returned));
+      } else {
+        rows = scanner.nextRows();
+      }
+      recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (IOException e) {
+      rows = failOver(e);
+    }
+    // Keys are only needed while the scan can still be read again from the other replica, after this batch.
+    return new TrackedRows(rows, !moved && returned != null && scanner.hasMoreRows());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (scanner != null) {
+      scanner.close();
+      scanner = null;
+    }
+  }
+
+  /**
+   * Reads the next batch through the primary call, and through the hedge call too if the primary one takes longer
+   * than the hedge delay. The scanner of the batch returned first is used for the rest of the scan.
+   *
+   * @return Rows of the batch returned first.
+   */
+  private Iterator<RowResult> race(BatchCall primaryCall, BatchCall hedgeCall) throws IOException {
+    KuduScans.Scanner previous = scanner;
+    ExecutorCompletionService<Batch> completion = new ExecutorCompletionService<>(EXECUTOR);
+    Future<Batch> primary = completion.submit(primaryCall);
+    Future<Batch> hedge = null;
+    Batch first = null;
+    try {
+      Future<Batch> done = completion.poll(getDelayMs(), TimeUnit.MILLISECONDS);
+      if (done == null && acquireHedge()) {
+        hedgeCounter.increment(1);
+        hedge = completion.submit(hedgeCall);
+      }
+      if (done == null) {
+        done = completion.take();
+      }
+
+      try {
+        first = done.get();
+      } catch (ExecutionException e) {
+        // The other call may still succeed.
+        if (hedge == null) {
+          throw e;
+        }
+        LOG.debug("One of the hedged Kudu scan batches failed, waiting for the other one.", e.getCause());
+        done = completion.take();
+        first = done.get();
+      }
+      if (done == hedge) {
+        winCounter.increment(1);
+      }
+      use(first);
+      return first.rows;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading the Kudu scan.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      // Scanners other than the one used are closed once their call returns, as the calls cannot be interrupted.
+      hedgeCall.cancelled = true;
+      closeUnused(primary, first, previous);
+      if (hedge != null) {
+        closeUnused(hedge, first, previous);
+      }
+      if (previous != null && first != null && first.scanner != previous) {
+        closeWhenDone(primary, previous);
+      }
+    }
+  }
+
+  /**
+   * Continues the scan with the scanner of the batch.
+   */
+  private void use(Batch batch) {
+    if (batch.scanner == scanner) {
+      return;
+    }
+    scanner = batch.scanner;
+    onFollower = batch.follower;
+    if (batch.skipped != null) {
+      LOG.debug("Kudu scan read again from another replica after {} rows.", returned.size());
+      moved = true;
+      for (List<Object> key : batch.skipped) {
+        returned.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Reads the scan again from the other replica, once, after it failed on one of them.
+   *
+   * @return Next batch of rows of the scan, without the rows already returned.
+   */
+  private Iterator<RowResult> failOver(IOException failure) throws IOException {
+    if (moved || returned == null || Thread.currentThread().isInterrupted()) {
+      throw failure;
+    }
+    LOG.warn("Kudu scan failed after {} rows, reading it again from another replica.", returned.size(), failure);
+    moved = true;
+    failoverCounter.increment(1);
+    if (scanner != null) {
+      try {
+        scanner.close();
+      } catch (IOException e) {
+        LOG.debug("Failed to close the failed Kudu scanner.", e);
+      }
+      scanner = null;
+    }
+    onFollower = !onFollower;
+    scanner = open(onFollower);
+    return scanner.nextRows();
+  }
+
+  private KuduScans.Scanner open(boolean follower) throws IOException {
+    return follower ? scans.openFollower(followerClient, hedgeToken) : scans.open(client, token);
+  }
+
+  private long getDelayMs() {
+    if (delayMs > 0) {
+      return delayMs;
+    }
+    synchronized (LATENCIES) {
+      if (samples < MIN_SAMPLES) {
+        return DEFAULT_DELAY_MS;
+      }
+      long[] sorted = Arrays.copyOf(LATENCIES, Math.min(samples, MAX_SAMPLES));
+      Arrays.sort(sorted);
+      return Math.max(1, sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)]);
+    }
+  }
+
+  private boolean hedgeAvailable() {
+    return HEDGES.get() < Math.max(1, (long) (BATCHES.get() * maxFraction));
+  }
+
+  private boolean acquireHedge() {
+    while (true) {
+      long hedges = HEDGES.get();
+      if (hedges >= Math.max(1, (long) (BATCHES.get() * maxFraction))) {
+        return false;
+      }
+      if (HEDGES.compareAndSet(hedges, hedges + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private static void recordLatency(long latencyMs) {
+    synchronized (LATENCIES) {
+      LATENCIES[samples % MAX_SAMPLES] = latencyMs;
+      samples++;
+    }
+  }
+
+  /**
+   * Closes the scanner opened by the call of the future once it returns, unless it is the one used.
+   */
+  private static void closeUnused(final Future<Batch> future, @Nullable final Batch used,
+                                  @Nullable final KuduScans.Scanner previous) {
+    EXECUTOR.submit(new Runnable() {
+      @Override
+      public void run() {
+        Batch batch;
+        try {
+          batch = future.get();
+        } catch (Exception e) {
+          // The scanner opened by a failed call is closed by the call.
+          return;
+        }
+        // Cancelled calls close their own scanner, and the previous scanner is closed separately.
+        if (batch == null || batch.scanner == previous || (used != null && batch.scanner == used.scanner)) {
+          return;
+        }
+        try {
+          batch.scanner.close();
+        } catch (IOException e) {
+          LOG.debug("Failed to close the unused hedged scanner.", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Closes the scanner once the call of the future returns, whichever way it does.
+   */
+  private static void closeWhenDone(final Future<Batch> future, final KuduScans.Scanner scanner) {
+    EXECUTOR.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          future.get();
+        } catch (Exception e) {
+          LOG.trace("Batch of the replaced Kudu scanner failed.", e);
+        }
+        try {
+          scanner.close();
+        } catch (IOException e) {
+          LOG.debug("Failed to close the replaced Kudu scanner.", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Rows of a batch, keeping the keys of the rows returned while the scan can be read again, and skipping these
+   * rows once it is.
+   */
+  private final class TrackedRows implements Iterator<RowResult> {
+    private final Iterator<RowResult> rows;
+    private final boolean track;
+    private RowResult next;
+
+    TrackedRows(Iterator<RowResult> rows, boolean track) {
+      this.rows = rows;
+      this.track = track;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && rows.hasNext()) {
+        RowResult row = rows.next();
+        if (moved) {
+          // Every row is returned once, so its key can be dropped once it is seen again, and keys are no longer
+          // looked up once all of them are.
+          if (returned.isEmpty() || !returned.remove(keys.read(row))) {
+            next = row;
+          }
+        } else if (track && returned != null) {
+          if (returned.size() < MAX_FAILOVER_ROWS) {
+            returned.add(keys.read(row));
+          } else {
+            LOG.debug("Kudu scan returned more than {} rows, it can no longer be read again.", MAX_FAILOVER_ROWS);
+            returned = null;
+          }
+          next = row;
+        } else {
+          next = row;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public RowResult next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      RowResult row = next;
+      next = null;
+      return row;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Rows of a batch starting with a row already taken from it, which is still current as Kudu reuses the
+   * {@link RowResult} of a batch for its rows.
+   */
+  private static final class PeekedRows implements Iterator<RowResult> {
+    private final Iterator<RowResult> rows;
+    private RowResult first;
+
+    PeekedRows(RowResult first, Iterator<RowResult> rows) {
+      this.first = first;
+      this.rows = rows;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return first != null || rows.hasNext();
+    }
+
+    @Override
+    public RowResult next() {
+      if (first == null) {
+        return rows.next();
+      }
+      RowResult row = first;
+      first = null;
+      return row;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Reads a batch, which is raced against another one.
+   */
+  private abstract static class BatchCall implements Callable<Batch> {
+    // Set once the race is over, after which a call still running can stop.
+    volatile boolean cancelled;
+  }
+
+  /**
+   * Opens a scanner on one of the replicas and reads its first batch.
+   */
+  private final class OpenCall extends BatchCall {
+    private final boolean follower;
+
+    OpenCall(boolean follower) {
+      this.follower = follower;
+    }
+
+    @Override
+    public Batch call() throws Exception {
+      KuduScans.Scanner scanner = open(follower);
+      try {
+        return new Batch(scanner, scanner.nextRows(), follower, null);
+      } catch (IOException e) {
+        scanner.close();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Reads the next batch of the current scanner.
+   */
+  private static final class NextCall extends BatchCall {
+    private final KuduScans.Scanner scanner;
+    private final boolean follower;
+
+    NextCall(KuduScans.Scanner scanner, boolean follower) {
+      this.scanner = scanner;
+      this.follower = follower;
+    }
+
+    @Override
+    public Batch call() throws Exception {
+      return new Batch(scanner, scanner.nextRows(), follower, null);
+    }
+  }
+
+  /**
+   * Reads the scan again from the start on the other replica, up to the first batch holding a row not returned yet.
+   * The rows already returned are only looked up, as the scan is only moved to this replica if it wins the race.
+   */
+  private final class ReadAgainCall extends BatchCall {
+    private final boolean follower;
+    private final Set<List<Object>> returned;
+
+    ReadAgainCall(boolean follower, Set<List<Object>> returned) {
+      this.follower = follower;
+      this.returned = returned;
+    }
+
+    @Override
+    public Batch call() throws Exception {
+      KuduScans.Scanner scanner = open(follower);
+      KeyReader keys = new KeyReader();
+      try {
+        List<List<Object>> skipped = new ArrayList<>();
+        while (scanner.hasMoreRows()) {
+          if (cancelled) {
+            scanner.close();
+            return null;
+          }
+          Iterator<RowResult> rows = scanner.nextRows();
+          while (rows.hasNext()) {
+            RowResult row = rows.next();
+            List<Object> key = keys.read(row);
+            if (!returned.contains(key)) {
+              return new Batch(scanner, new PeekedRows(row, rows), follower, skipped);
+            }
+            skipped.add(key);
+          }
+        }
+        return new Batch(scanner, Collections.<RowResult>emptyIterator(), follower, skipped);
+      } catch (IOException e) {
+        scanner.close();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Reads the primary key of rows, resolving the indexes of the key columns once per scan projection.
+   */
+  private static final class KeyReader {
+    private Schema schema;
+    private int[] indexes;
+
+    /**
+     * @return Values of the primary key of the row, copied out of its batch.
+     */
+    List<Object> read(RowResult row) {
+      if (row.getSchema() != schema) {
+        List<Integer> keyIndexes = new ArrayList<>();
+        for (int i = 0; i < row.getSchema().getColumnCount(); i++) {
+          if (row.getSchema().getColumnByIndex(i).isKey()) {
+            keyIndexes.add(i);
+          }
+        }
+        indexes = new int[keyIndexes.size()];
+        for (int i = 0; i < indexes.length; i++) {
+          indexes[i] = keyIndexes.get(i);
+        }
+        schema = row.getSchema();
+      }
+      Object[] key = new Object[indexes.length];
+      for (int i = 0; i < key.length; i++) {
+        key[i] = KuduUtils.getValue(row, indexes[i]);
+      }
+      return Arrays.asList(key);
+    }
+  }
+
+  /**
+   * Batch of rows along with the scanner it was read from.
+   */
+  private static final class Batch {
+    private final KuduScans.Scanner scanner;
+    private final Iterator<RowResult> rows;
+    private final boolean follower;
+    // Keys of the rows read again before the batch, null when the scan was not read again.
+    @Nullable
+    private final List<List<Object>> skipped;
+
+    Batch(KuduScans.Scanner scanner, Iterator<RowResult> rows, boolean follower,
+          @Nullable List<List<Object>> skipped) {
+      this.scanner = scanner;
+      this.rows = rows;
+      this.follower = follower;
+      this.skipped = skipped;
+    }
+  }
+}
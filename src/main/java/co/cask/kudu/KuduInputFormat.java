@@ -0,0 +1,667 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Input format reading Kudu tables through scan tokens, one scan per tablet.
+ *
+ * <p>
+ *   On top of what {@link org.apache.kudu.mapreduce.KuduTableInputFormat} does, this supports limiting
+ *   the number of rows read and sampling them, for previews and profiling. A row limit is planned as a few
+ *   splits, each reading its tablets one after the other until its share of the limit is read, so that tablets
+ *   holding fewer rows leave their quota to the next ones. The scanners of a split are closed as soon as its
+ *   share of the rows has been read.
+ * </p>
+ *
+ * <p>
+ *   Several tables, listed or matching a pattern, can be read by the same job as long as they all have the
+ *   projected columns with the same types. The scans of all the tables are planned together and, when there
+ *   are more of them than the maximum number of splits, packed into splits of scans of the same hosts. The key
+ *   of every row is the name of its table.
+ * </p>
+ *
+ * <p>
+ *   Kudu doesn't expose the size of tablets to clients. When asked for, the rows of the tablets are counted by
+ *   scans projecting no columns, within a bounded number of rows spent mostly on the largest tablets, and splits
+ *   are ordered largest first so that the largest tablets don't start last and hold the stage back. Packed splits
+ *   are then balanced by size rather than by tablets.
+ * </p>
+ *
+ * <p>
+ *   Rows are returned decoded into records of the output schema, with the name of their table set in the table name
+ *   field when there is one.
+ * </p>
+ *
+ * <p>
+ *   In ordered mode, every split reads a single tablet and returns its rows in primary key order. Kudu 1.2 has no
+ *   ordered scans, so the rows of the tablet are sorted by the record reader, in memory up to a bound and through
+ *   sorted runs spilled to local disk beyond it.
+ * </p>
+ */
+public class KuduInputFormat extends InputFormat<Text, StructuredRecord> {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduInputFormat.class);
+
+  // Same keys as the ones used by KuduTableInputFormat.
+  public static final String INPUT_TABLE = "kudu.mapreduce.input.table";
+  public static final String MASTER_ADDRESS = "kudu.mapreduce.master.address";
+  public static final String OPERATION_TIMEOUT_MS = "kudu.mapreduce.operation.timeout.ms";
+  public static final String COLUMN_PROJECTION = "kudu.mapreduce.column.projection";
+
+  public static final String TABLE_PATTERN = "kudu.plugin.input.table.pattern";
+  public static final String MAX_SPLITS = "kudu.plugin.input.max.splits";
+  public static final String COUNT_ROWS = "kudu.plugin.input.count.rows";
+  public static final String ORDERED = "kudu.plugin.input.ordered";
+  public static final String ORDERED_MAX_ROWS = "kudu.plugin.input.ordered.max.rows";
+
+  public static final String OUTPUT_SCHEMA = "kudu.plugin.input.output.schema";
+  public static final String ZERO_COPY_BINARY = "kudu.plugin.input.zero.copy.binary";
+  public static final String TABLE_NAME_FIELD = "kudu.plugin.input.table.name.field";
+
+  public static final String LIMIT = "kudu.plugin.input.limit";
+  public static final String SAMPLE_ROWS = "kudu.plugin.input.sample.rows";
+  public static final String SAMPLE_FRACTION = "kudu.plugin.input.sample.fraction";
+
+  public static final String HEDGE = "kudu.plugin.input.hedge";
+  public static final String HEDGE_DELAY_MS = "kudu.plugin.input.hedge.delay.ms";
+  public static final String HEDGE_PERCENTILE = "kudu.plugin.input.hedge.percentile";
+  public static final String HEDGE_MAX_FRACTION = "kudu.plugin.input.hedge.max.fraction";
+
+  // Counters reported by the record readers.
+  static final String COUNTER_GROUP = "Kudu Source";
+  static final String HEDGED_SCANS = "Hedged scan batches";
+  static final String HEDGE_WINS = "Hedged scan batches won by the hedge";
+  static final String FAILOVERS = "Scans failed over to another replica";
+
+  // Number of hosts a packed split is placed on.
+  private static final int MAX_LOCATIONS = 3;
+  // Number of tablets counted at the same time when estimating the sizes of the splits.
+  private static final int MAX_COUNT_THREADS = 8;
+  // Every tablet is first counted up to the rows counted per tablet on average divided by this.
+  private static final int FIRST_COUNT_FRACTION = 4;
+
+  // Rows of the limit read per split, so that small limits are read by a single task.
+  private static final long LIMIT_ROWS_PER_SPLIT = 100000;
+  // Rows counted per tablet on average to bound the scans of a sample fraction, when no count is configured.
+  private static final long SAMPLE_COUNT_ROWS = 1000000;
+
+  @Nullable
+  private final KuduScans scans;
+
+  public KuduInputFormat() {
+    this(null);
+  }
+
+  /**
+   * @param scans plans and opens the scans of the tables, null to get them from the client.
+   */
+  KuduInputFormat(@Nullable KuduScans scans) {
+    this.scans = scans;
+  }
+
+  @Override
+  public List<InputSplit> getSplits(JobContext context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    // Splits are planned by the driver, which doesn't share the clients of the tasks.
+    int timeout = conf.getInt(OPERATION_TIMEOUT_MS, 10000);
+    KuduClient client = KuduClients.newClient(conf.get(MASTER_ADDRESS), timeout, timeout, 1);
+    try {
+      return getSplits(client, conf);
+    } finally {
+      KuduClients.close(client);
+    }
+  }
+
+  private List<InputSplit> getSplits(KuduClient client, Configuration conf) throws IOException {
+    KuduScans scans = this.scans == null ? getScans(client) : this.scans;
+    List<String> columns = getProjection(conf);
+    List<String> tables = getTables(client, conf);
+    if (tables.isEmpty()) {
+      throw new IOException(String.format("No Kudu table matches table pattern '%s'.", conf.get(TABLE_PATTERN)));
+    }
+
+    // Scans of all the tables, with the name of the table of every scan.
+    List<String> scanTables = new ArrayList<>();
+    List<KuduScans.Scan> planned = new ArrayList<>();
+    List<byte[]> countTokens = new ArrayList<>();
+    long timeout = conf.getLong(OPERATION_TIMEOUT_MS, 10000);
+    long countRows = conf.getLong(COUNT_ROWS, 0);
+    double fraction = getSampleFraction(conf);
+    if (fraction < 1.0 && countRows == 0) {
+      // The scans of a sample are bounded by the counted rows of their tablets.
+      countRows = SAMPLE_COUNT_ROWS;
+    }
+    boolean ordered = conf.getBoolean(ORDERED, false);
+    List<String> keyColumns = null;
+    List<ColumnSchema> expected = null;
+    for (String name : tables) {
+      KuduTable table = client.openTable(name);
+      List<ColumnSchema> projected = getProjectedColumns(table, columns);
+      if (expected == null) {
+        expected = projected;
+      } else {
+        checkCompatible(tables.get(0), expected, name, projected);
+      }
+      if (ordered) {
+        keyColumns = checkKeyColumns(tables.get(0), keyColumns, table, columns);
+      }
+      boolean hedged = conf.getBoolean(HEDGE, false);
+      if (hedged && !projectsKey(table, columns)) {
+        // A hedged scan failing mid-scan is read again on another replica, skipping the rows already returned
+        // by their primary key.
+        LOG.warn("Scans of Kudu table '{}' are not hedged, as its primary key is not projected.", name);
+        hedged = false;
+      }
+      for (KuduScans.Scan scan : scans.plan(client, table, columns, timeout, hedged)) {
+        scanTables.add(name);
+        planned.add(scan);
+      }
+      if (countRows > 0) {
+        countTokens.addAll(scans.countTokens(client, table, timeout));
+      }
+    }
+    long[] rows = count(scans, client, countTokens, countRows);
+    if (rows.length > 0 && rows.length != planned.size()) {
+      // Tablets were added or dropped between planning the scans and the counts.
+      LOG.warn("Tablets of Kudu tables {} changed while planning the splits, which are not ordered by size.", tables);
+      rows = new long[0];
+    }
+    // Width of the projected rows, with strings and binaries counted as pointers as their length is not known.
+    int rowSize = expected.isEmpty() ? 1 : new Schema(expected).getRowSize();
+
+    // Each tablet is read up to the number of sampled rows per tablet, the row limit is shared by the splits.
+    long limit = conf.getLong(LIMIT, 0);
+    long sampleRows = conf.getLong(SAMPLE_ROWS, 0);
+    long scanLimit = sampleRows > 0 ? sampleRows : Long.MAX_VALUE;
+    if (fraction < 1.0 && rows.length == 0) {
+      LOG.warn("Tablets of Kudu tables {} are not counted, so every tablet is scanned in full for the sample.",
+               tables);
+    }
+    List<KuduInputSplit.Entry> entries = new ArrayList<>();
+    List<String[]> locations = new ArrayList<>();
+    for (int i = 0; i < planned.size(); i++) {
+      KuduScans.Scan scan = planned.get(i);
+      long tabletLimit = scanLimit;
+      double tabletFraction = fraction;
+      if (fraction < 1.0 && rows.length > 0) {
+        // Reads the share of the rows of the tablet and keeps all of them, rather than scanning the whole tablet
+        // to drop the other rows.
+        tabletLimit = Math.min(scanLimit, (long) Math.ceil(rows[i] * fraction));
+        tabletFraction = 1.0;
+      }
+      long size = rows.length == 0 ? 0 : Math.min(rows[i], tabletLimit) * rowSize;
+      entries.add(new KuduInputSplit.Entry(scanTables.get(i), scan.token, tabletLimit, tabletFraction,
+                                           scan.hedgeToken, size));
+      locations.add(scan.locations);
+    }
+
+    int maxSplits = conf.getInt(MAX_SPLITS, 0);
+    if (limit > 0 && !ordered) {
+      // Tablets are packed into as few splits as the limit needs, within which unused quota carries over.
+      int limitSplits = (int) Math.min(entries.size(), (limit + LIMIT_ROWS_PER_SPLIT - 1) / LIMIT_ROWS_PER_SPLIT);
+      maxSplits = maxSplits <= 0 ? limitSplits : Math.min(maxSplits, limitSplits);
+    }
+    List<InputSplit> splits = new ArrayList<>();
+    if (ordered) {
+      // Tablets are not packed, so that every split is a single run of rows in key order.
+      String[] keys = keyColumns.toArray(new String[keyColumns.size()]);
+      for (int i = 0; i < entries.size(); i++) {
+        splits.add(new KuduInputSplit(Collections.singletonList(entries.get(i)), keys, locations.get(i)));
+      }
+    } else if (maxSplits <= 0 || entries.size() <= maxSplits) {
+      for (int i = 0; i < entries.size(); i++) {
+        splits.add(new KuduInputSplit(Collections.singletonList(entries.get(i)), locations.get(i)));
+      }
+    } else if (rows.length == 0) {
+      splits = pack(entries, locations, maxSplits);
+    } else {
+      splits = packBySize(entries, locations, maxSplits);
+    }
+
+    if (limit > 0) {
+      // In ordered mode, every tablet returns its share of the limit, as its first rows in key order. Splits whose
+      // share is empty are not read.
+      List<InputSplit> limited = new ArrayList<>();
+      for (int i = 0; i < splits.size(); i++) {
+        long quota = limit / splits.size() + (i < limit % splits.size() ? 1 : 0);
+        if (quota > 0) {
+          ((KuduInputSplit) splits.get(i)).setQuota(quota);
+          limited.add(splits.get(i));
+        }
+      }
+      splits = limited;
+    }
+
+    if (rows.length > 0) {
+      // Largest first, so that the tasks reading the largest tablets are scheduled first.
+      Collections.sort(splits, new Comparator<InputSplit>() {
+        @Override
+        public int compare(InputSplit o1, InputSplit o2) {
+          return Long.compare(getLength(o2), getLength(o1));
+        }
+      });
+      LOG.info("Planned {} splits of Kudu tables {}, with an estimated {} bytes in the largest split.",
+               splits.size(), tables, splits.isEmpty() ? 0 : getLength(splits.get(0)));
+    }
+    return splits;
+  }
+
+  @Override
+  public RecordReader<Text, StructuredRecord> createRecordReader(InputSplit split, TaskAttemptContext context)
+    throws IOException, InterruptedException {
+    return new KuduRecordReader(scans);
+  }
+
+  /**
+   * Looks up the order of the rows of every split in ordered mode.
+   *
+   * @param properties configuration of the input format, as given by {@link KuduInputFormatProvider}.
+   * @return Primary key columns shared by the tables, in key order.
+   * @throws IOException thrown when a key column is not projected, or when the tables have different primary keys.
+   */
+  static List<String> getOrdering(Map<String, String> properties) throws IOException {
+    Configuration conf = new Configuration(false);
+    for (Map.Entry<String, String> property : properties.entrySet()) {
+      conf.set(property.getKey(), property.getValue());
+    }
+    int timeout = conf.getInt(OPERATION_TIMEOUT_MS, 10000);
+    KuduClient client = KuduClients.newClient(conf.get(MASTER_ADDRESS), timeout, timeout, 1);
+    try {
+      List<String> columns = getProjection(conf);
+      List<String> tables = getTables(client, conf);
+      if (tables.isEmpty()) {
+        throw new IOException(String.format("No Kudu table matches table pattern '%s'.", conf.get(TABLE_PATTERN)));
+      }
+      List<String> keyColumns = null;
+      for (String name : tables) {
+        keyColumns = checkKeyColumns(tables.get(0), keyColumns, client.openTable(name), columns);
+      }
+      return keyColumns;
+    } finally {
+      KuduClients.close(client);
+    }
+  }
+
+  /**
+   * @return Projected columns, null when all the columns are projected.
+   */
+  @Nullable
+  private static List<String> getProjection(Configuration conf) {
+    String projection = conf.get(COLUMN_PROJECTION, "*");
+    if ("*".equals(projection.trim())) {
+      return null;
+    }
+    List<String> columns = new ArrayList<>();
+    for (String column : projection.split(",")) {
+      if (!column.trim().isEmpty()) {
+        columns.add(column.trim());
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * @param first name of the first table, whose primary key is the expected one.
+   * @param expected primary key columns of the first table, null if the table is the first one.
+   * @return Primary key columns of the table.
+   * @throws IOException thrown when a key column is not projected, or when the primary key doesn't match.
+   */
+  private static List<String> checkKeyColumns(String first, @Nullable List<String> expected, KuduTable table,
+                                              @Nullable List<String> columns) throws IOException {
+    List<String> keys = getKeyColumns(table, columns);
+    if (expected != null && !expected.equals(keys)) {
+      throw new IOException(
+        String.format("Primary key %s of Kudu table '%s' doesn't match the primary key %s of table '%s'.",
+                      keys, table.getName(), expected, first)
+      );
+    }
+    return keys;
+  }
+
+  /**
+   * @return Listed tables followed by the tables matching the pattern, each of them once.
+   */
+  static List<String> getTables(KuduClient client, Configuration conf) throws IOException {
+    Set<String> tables = new LinkedHashSet<>();
+    for (String table : conf.get(INPUT_TABLE, "").split(",")) {
+      if (!table.trim().isEmpty()) {
+        tables.add(table.trim());
+      }
+    }
+    String regex = conf.get(TABLE_PATTERN, "");
+    if (!regex.trim().isEmpty()) {
+      Pattern pattern = Pattern.compile(regex.trim());
+      List<String> matching = new ArrayList<>();
+      for (String table : client.getTablesList().getTablesList()) {
+        if (pattern.matcher(table).matches()) {
+          matching.add(table);
+        }
+      }
+      Collections.sort(matching);
+      tables.addAll(matching);
+    }
+    return new ArrayList<>(tables);
+  }
+
+  private static List<ColumnSchema> getProjectedColumns(KuduTable table, List<String> columns) throws IOException {
+    Schema schema = table.getSchema();
+    if (columns == null) {
+      return schema.getColumns();
+    }
+    List<ColumnSchema> projected = new ArrayList<>();
+    for (String column : columns) {
+      try {
+        projected.add(schema.getColumn(column));
+      } catch (IllegalArgumentException e) {
+        throw new IOException(
+          String.format("Kudu table '%s' has no column '%s' to be projected.", table.getName(), column), e
+        );
+      }
+    }
+    return projected;
+  }
+
+  /**
+   * @return Primary key columns of the table, in key order.
+   * @throws IOException thrown when a key column is not projected, as the rows then cannot be sorted.
+   */
+  private static List<String> getKeyColumns(KuduTable table, List<String> columns) throws IOException {
+    List<String> keys = new ArrayList<>();
+    for (ColumnSchema column : table.getSchema().getPrimaryKeyColumns()) {
+      if (columns != null && !columns.contains(column.getName())) {
+        throw new IOException(
+          String.format("Primary key column '%s' of Kudu table '%s' must be projected to read rows in key order.",
+                        column.getName(), table.getName())
+        );
+      }
+      keys.add(column.getName());
+    }
+    return keys;
+  }
+
+  /**
+   * @return true if all the primary key columns of the table are projected.
+   */
+  private static boolean projectsKey(KuduTable table, List<String> columns) {
+    if (columns == null) {
+      return true;
+    }
+    for (ColumnSchema column : table.getSchema().getPrimaryKeyColumns()) {
+      if (!columns.contains(column.getName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks that a table returns the same columns as the first one, so that their rows can be decoded alike. The
+   * schema is generated from the first table, so a column that is nullable in only some of the tables would either
+   * return nulls for a non-nullable field or be declared nullable for no reason.
+   */
+  private static void checkCompatible(String first, List<ColumnSchema> expected, String table,
+                                      List<ColumnSchema> projected) throws IOException {
+    boolean compatible = expected.size() == projected.size();
+    for (int i = 0; compatible && i < expected.size(); i++) {
+      compatible = expected.get(i).getName().equals(projected.get(i).getName())
+        && expected.get(i).getType() == projected.get(i).getType()
+        && expected.get(i).isNullable() == projected.get(i).isNullable();
+    }
+    if (!compatible) {
+      throw new IOException(
+        String.format("Projected columns of Kudu table '%s' don't match the ones of table '%s'.", table, first)
+      );
+    }
+  }
+
+  /**
+   * Packs the scans into at most the given number of splits. Scans are grouped by the first host of their
+   * tablet, and every split gets a contiguous run of them, so that the scans of a split mostly share hosts.
+   */
+  private static List<InputSplit> pack(List<KuduInputSplit.Entry> entries, final List<String[]> locations,
+                                       int maxSplits) {
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < entries.size(); i++) {
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return getHost(locations.get(o1)).compareTo(getHost(locations.get(o2)));
+      }
+    });
+
+    List<InputSplit> splits = new ArrayList<>();
+    int from = 0;
+    for (int i = 0; i < maxSplits; i++) {
+      // Runs differ in length by at most one scan.
+      int to = from + entries.size() / maxSplits + (i < entries.size() % maxSplits ? 1 : 0);
+      splits.add(newSplit(entries, locations, order.subList(from, to)));
+      from = to;
+    }
+    return splits;
+  }
+
+  /**
+   * Packs the scans into the given number of splits, balanced by size. Scans are taken largest first and each of
+   * them goes to the split with the fewest bytes so far, so that a tablet larger than the average split is read
+   * alone and the other splits are of similar sizes.
+   */
+  private static List<InputSplit> packBySize(final List<KuduInputSplit.Entry> entries, List<String[]> locations,
+                                             int maxSplits) {
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < entries.size(); i++) {
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return Long.compare(entries.get(o2).getSize(), entries.get(o1).getSize());
+      }
+    });
+
+    List<List<Integer>> packed = new ArrayList<>();
+    long[] bytes = new long[maxSplits];
+    for (int i = 0; i < maxSplits; i++) {
+      packed.add(new ArrayList<Integer>());
+    }
+    for (int index : order) {
+      int smallest = 0;
+      for (int i = 1; i < maxSplits; i++) {
+        if (bytes[i] < bytes[smallest]
+          || (bytes[i] == bytes[smallest] && packed.get(i).size() < packed.get(smallest).size())) {
+          smallest = i;
+        }
+      }
+      packed.get(smallest).add(index);
+      bytes[smallest] += entries.get(index).getSize();
+    }
+
+    List<InputSplit> splits = new ArrayList<>();
+    for (List<Integer> indexes : packed) {
+      if (!indexes.isEmpty()) {
+        splits.add(newSplit(entries, locations, indexes));
+      }
+    }
+    return splits;
+  }
+
+  /**
+   * @return Split of the given scans, placed on the hosts holding most of their tablets.
+   */
+  private static KuduInputSplit newSplit(List<KuduInputSplit.Entry> entries, List<String[]> locations,
+                                         List<Integer> indexes) {
+    List<KuduInputSplit.Entry> packed = new ArrayList<>();
+    final Map<String, Integer> hosts = new HashMap<>();
+    for (int index : indexes) {
+      packed.add(entries.get(index));
+      for (String host : locations.get(index)) {
+        Integer count = hosts.get(host);
+        hosts.put(host, count == null ? 1 : count + 1);
+      }
+    }
+    List<String> byCount = new ArrayList<>(hosts.keySet());
+    Collections.sort(byCount, new Comparator<String>() {
+      @Override
+      public int compare(String o1, String o2) {
+        return hosts.get(o2) - hosts.get(o1);
+      }
+    });
+    List<String> splitLocations = byCount.subList(0, Math.min(MAX_LOCATIONS, byCount.size()));
+    return new KuduInputSplit(packed, splitLocations.toArray(new String[splitLocations.size()]));
+  }
+
+  /**
+   * Estimates the rows of the tablets, counting {@code countRows} rows per tablet on average. Every tablet is first
+   * counted up to a fraction of that, and the tablets reaching the bound are counted again with what is left of the
+   * rows shared between them, for as long as that at least doubles their bound. Small tablets are counted exactly,
+   * while the rest of the rows go to telling the large ones apart.
+   *
+   * @return Estimated number of rows of each tablet, a lower bound for the largest ones, empty if there are no
+   *         counts.
+   */
+  private static long[] count(final KuduScans scans, final KuduClient client, final List<byte[]> tokens,
+                              long countRows) throws IOException {
+    long[] rows = new long[tokens.size()];
+    if (tokens.isEmpty()) {
+      return rows;
+    }
+    long remaining = countRows > Long.MAX_VALUE / tokens.size() ? Long.MAX_VALUE : countRows * tokens.size();
+    long bound = Math.max(1, countRows / FIRST_COUNT_FRACTION);
+    List<Integer> counted = new ArrayList<>();
+    for (int i = 0; i < tokens.size(); i++) {
+      counted.add(i);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_COUNT_THREADS, tokens.size()));
+    try {
+      while (true) {
+        List<Callable<Long>> counts = new ArrayList<>();
+        for (final int index : counted) {
+          final long maxRows = bound;
+          counts.add(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+              return scans.count(client, tokens.get(index), maxRows);
+            }
+          });
+        }
+        List<Future<Long>> futures = executor.invokeAll(counts);
+        List<Integer> reached = new ArrayList<>();
+        for (int i = 0; i < counted.size(); i++) {
+          long count = futures.get(i).get();
+          rows[counted.get(i)] = count;
+          remaining -= count;
+          if (count >= bound) {
+            reached.add(counted.get(i));
+          }
+        }
+        // Counting again starts from the first row of the tablet, so it is only worth it for a much higher bound.
+        long next = reached.isEmpty() ? 0 : remaining / reached.size();
+        if (next < bound * 2) {
+          return rows;
+        }
+        counted = reached;
+        bound = next;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while counting the rows of Kudu tablets.", e);
+    } catch (ExecutionException e) {
+      throw new IOException(
+        String.format("Failed to count the rows of Kudu tablets. Reason : %s", e.getCause().getMessage()),
+        e.getCause()
+      );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static long getLength(InputSplit split) {
+    try {
+      return split.getLength();
+    } catch (IOException | InterruptedException e) {
+      // Lengths of Kudu splits are computed at planning time.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String getHost(String[] locations) {
+    return locations.length == 0 ? "" : locations[0];
+  }
+
+  /**
+   * @return Shared client, which is not closed by the callers.
+   */
+  static KuduClient getClient(Configuration conf) {
+    int timeout = conf.getInt(OPERATION_TIMEOUT_MS, 10000);
+    return KuduClients.getClient(conf.get(MASTER_ADDRESS), timeout, timeout, 1);
+  }
+
+  /**
+   * Returns the shared client reading the followers of the tablets, to open the hedges of the scans.
+   */
+  static KuduClient getFollowerClient(Configuration conf) {
+    int timeout = conf.getInt(OPERATION_TIMEOUT_MS, 10000);
+    return KuduClients.getFollowerClient(conf.get(MASTER_ADDRESS), timeout, timeout, 1);
+  }
+
+  /**
+   * @return How the scans of tables are planned and opened through the client, which is through scan tokens
+   *         unless the client serves its own scans, like the in-process Kudu stand-in of the throughput harness.
+   */
+  static KuduScans getScans(KuduClient client) {
+    return client instanceof KuduScans ? (KuduScans) client : KuduScans.TOKENS;
+  }
+
+  /**
+   * @return Fraction of the rows to be sampled, 1 when all the rows are read.
+   */
+  static double getSampleFraction(Configuration conf) {
+    return conf.getDouble(SAMPLE_FRACTION, 1.0);
+  }
+}
@@ -17,7 +17,7 @@
 package co.cask.kudu;
 
 import co.cask.cdap.api.data.batch.InputFormatProvider;
-import org.apache.kudu.mapreduce.KuduTableInputFormat;
+import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,7 +26,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Input Format provider for Kudu Table Input Format.
+ * Input Format provider for {@link KuduInputFormat}.
  */
 public class KuduInputFormatProvider implements InputFormatProvider {
   private static final Logger LOG = LoggerFactory.getLogger(KuduInputFormatProvider.class);
@@ -34,19 +34,47 @@ public class KuduInputFormatProvider implements InputFormatProvider {
   private final Map<String, String> conf = new HashMap<>();
 
   public KuduInputFormatProvider(KuduSourceConfig kuduSourceConfig) throws IOException {
-    // Specifies the input table
-    conf.put("kudu.mapreduce.input.table", kuduSourceConfig.optTableName);
+    // Specifies the input tables, listed and matching a pattern.
+    conf.put(KuduInputFormat.INPUT_TABLE, Strings.nullToEmpty(kuduSourceConfig.optTableName));
+    conf.put(KuduInputFormat.TABLE_PATTERN, Strings.nullToEmpty(kuduSourceConfig.optTablePattern));
+    conf.put(KuduInputFormat.MAX_SPLITS, String.valueOf(kuduSourceConfig.getMaxSplits()));
+
+    // Decoding of the rows into records of the output schema.
+    conf.put(KuduInputFormat.OUTPUT_SCHEMA, kuduSourceConfig.getSchema().toString());
+    conf.put(KuduInputFormat.ZERO_COPY_BINARY, String.valueOf(kuduSourceConfig.isZeroCopyBinary()));
+    if (kuduSourceConfig.getTableNameField() != null) {
+      conf.put(KuduInputFormat.TABLE_NAME_FIELD, kuduSourceConfig.getTableNameField());
+    }
+
+    // Reading of every tablet in primary key order.
+    conf.put(KuduInputFormat.ORDERED, String.valueOf(kuduSourceConfig.isOrdered()));
+    conf.put(KuduInputFormat.ORDERED_MAX_ROWS, String.valueOf(kuduSourceConfig.getOrderedMaxRows()));
+
+    // Counting of the rows of the tablets, to read the largest splits first.
+    conf.put(KuduInputFormat.COUNT_ROWS, String.valueOf(kuduSourceConfig.getCountRows()));
 
     // Specifies where the kudu masters are.
-    conf.put("kudu.mapreduce.master.address", kuduSourceConfig.optMasterAddresses);
+    conf.put(KuduInputFormat.MASTER_ADDRESS, kuduSourceConfig.optMasterAddresses);
 
     // Specifies how long we wait for operations to complete (default: 10s)
-    conf.put("kudu.mapreduce.operation.timeout.ms", kuduSourceConfig.optOperationTimeout);
+    conf.put(KuduInputFormat.OPERATION_TIMEOUT_MS, String.valueOf(kuduSourceConfig.getOperationTimeout()));
 
     // Specifies the column projection as a comma-separated list of column names.
     // '*' means to project all columns
     // 'empty string' means to project no columns
-    conf.put("kudu.mapreduce.column.projection", kuduSourceConfig.optColumnProjection);
+    conf.put(KuduInputFormat.COLUMN_PROJECTION,
+             kuduSourceConfig.optColumnProjection == null ? "*" : kuduSourceConfig.optColumnProjection);
+
+    // Limits and sampling used by previews and data profiling.
+    conf.put(KuduInputFormat.LIMIT, String.valueOf(kuduSourceConfig.getLimit()));
+    conf.put(KuduInputFormat.SAMPLE_ROWS, String.valueOf(kuduSourceConfig.getSampleRows()));
+    conf.put(KuduInputFormat.SAMPLE_FRACTION, String.valueOf(kuduSourceConfig.getSampleFraction()));
+
+    // Hedging of the scans of slow tablet servers.
+    conf.put(KuduInputFormat.HEDGE, String.valueOf(kuduSourceConfig.isHedgedScans()));
+    conf.put(KuduInputFormat.HEDGE_DELAY_MS, String.valueOf(kuduSourceConfig.getHedgeDelayMs()));
+    conf.put(KuduInputFormat.HEDGE_PERCENTILE, String.valueOf(kuduSourceConfig.getHedgePercentile()));
+    conf.put(KuduInputFormat.HEDGE_MAX_FRACTION, String.valueOf(kuduSourceConfig.getHedgeMaxFraction()));
   }
 
   /**
@@ -54,7 +82,7 @@ public class KuduInputFormatProvider implements InputFormatProvider {
    */
   @Override
   public String getInputFormatClassName() {
-    return KuduTableInputFormat.class.getName();
+    return KuduInputFormat.class.getName();
   }
 
   /**
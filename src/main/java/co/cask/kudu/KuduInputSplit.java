@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Split covering one or more Kudu scan tokens, each of which is the part of a table stored in one tablet.
+ *
+ * <p>
+ *   Splits of small tablets, usually of different tables, are packed together so that a task reads several of
+ *   them one after the other rather than every tablet paying for the scheduling of its own task.
+ * </p>
+ */
+public class KuduInputSplit extends InputSplit implements Writable {
+  private String[] tables;
+  private byte[][] tokens;
+  // Empty when the scan is not hedged.
+  private byte[][] hedgeTokens;
+  private long[] limits;
+  // Fraction of the rows read from each scan that are kept.
+  private double[] fractions;
+  // Rows read by all the scans of the split, after which the remaining scans are skipped.
+  private long quota = Long.MAX_VALUE;
+  // Estimated bytes of each scan, 0 when sizes are not estimated.
+  private long[] sizes;
+  // Primary key columns the rows of each scan are sorted by, empty when rows are read in scan order.
+  private String[] keyColumns;
+  private String[] locations;
+
+  // Required for deserialization.
+  public KuduInputSplit() {
+  }
+
+  KuduInputSplit(List<Entry> entries, String[] locations) {
+    this(entries, new String[0], locations);
+  }
+
+  KuduInputSplit(List<Entry> entries, String[] keyColumns, String[] locations) {
+    int size = entries.size();
+    this.tables = new String[size];
+    this.tokens = new byte[size][];
+    this.hedgeTokens = new byte[size][];
+    this.limits = new long[size];
+    this.fractions = new double[size];
+    this.sizes = new long[size];
+    for (int i = 0; i < size; i++) {
+      Entry entry = entries.get(i);
+      tables[i] = entry.table;
+      tokens[i] = entry.token;
+      hedgeTokens[i] = entry.hedgeToken == null ? new byte[0] : entry.hedgeToken;
+      limits[i] = entry.limit;
+      fractions[i] = entry.fraction;
+      sizes[i] = entry.size;
+    }
+    this.keyColumns = keyColumns;
+    this.locations = locations;
+  }
+
+  /**
+   * @return Number of scans of this split.
+   */
+  int getScanCount() {
+    return tokens.length;
+  }
+
+  /**
+   * @return Name of the table of the given scan.
+   */
+  String getTable(int scan) {
+    return tables[scan];
+  }
+
+  /**
+   * @return Serialized scan token of the given scan.
+   */
+  byte[] getToken(int scan) {
+    return tokens[scan];
+  }
+
+  /**
+   * @return Serialized scan token of the same snapshot to be read on a follower, null if the scan is not hedged.
+   */
+  @Nullable
+  byte[] getHedgeToken(int scan) {
+    return hedgeTokens[scan].length == 0 ? null : hedgeTokens[scan];
+  }
+
+  /**
+   * @return Maximum number of rows to be read from the given scan.
+   */
+  long getLimit(int scan) {
+    return limits[scan];
+  }
+
+  /**
+   * @return Fraction of the rows read from the given scan that are randomly kept, 1 to keep all of them.
+   */
+  double getFraction(int scan) {
+    return fractions[scan];
+  }
+
+  /**
+   * @return Maximum number of rows to be read by all the scans of the split together.
+   */
+  long getQuota() {
+    return quota;
+  }
+
+  void setQuota(long quota) {
+    this.quota = quota;
+  }
+
+  /**
+   * @return Primary key columns the rows of each scan are sorted by, empty when rows are read in scan order.
+   */
+  String[] getKeyColumns() {
+    return keyColumns;
+  }
+
+  /**
+   * @return Estimated bytes read by the split, 0 when sizes are not estimated.
+   */
+  @Override
+  public long getLength() throws IOException {
+    long length = 0;
+    for (long size : sizes) {
+      length += size;
+    }
+    return length;
+  }
+
+  @Override
+  public String[] getLocations() throws IOException {
+    return locations;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, tokens.length);
+    for (int i = 0; i < tokens.length; i++) {
+      WritableUtils.writeString(out, tables[i]);
+      WritableUtils.writeVInt(out, tokens[i].length);
+      out.write(tokens[i]);
+      WritableUtils.writeVInt(out, hedgeTokens[i].length);
+      out.write(hedgeTokens[i]);
+      WritableUtils.writeVLong(out, limits[i]);
+      out.writeDouble(fractions[i]);
+      WritableUtils.writeVLong(out, sizes[i]);
+    }
+    WritableUtils.writeVLong(out, quota);
+    WritableUtils.writeStringArray(out, keyColumns);
+    WritableUtils.writeStringArray(out, locations);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int size = WritableUtils.readVInt(in);
+    tables = new String[size];
+    tokens = new byte[size][];
+    hedgeTokens = new byte[size][];
+    limits = new long[size];
+    fractions = new double[size];
+    sizes = new long[size];
+    for (int i = 0; i < size; i++) {
+      tables[i] = WritableUtils.readString(in);
+      tokens[i] = new byte[WritableUtils.readVInt(in)];
+      in.readFully(tokens[i]);
+      hedgeTokens[i] = new byte[WritableUtils.readVInt(in)];
+      in.readFully(hedgeTokens[i]);
+      limits[i] = WritableUtils.readVLong(in);
+      fractions[i] = in.readDouble();
+      sizes[i] = WritableUtils.readVLong(in);
+    }
+    quota = WritableUtils.readVLong(in);
+    keyColumns = WritableUtils.readStringArray(in);
+    locations = WritableUtils.readStringArray(in);
+  }
+
+  /**
+   * Scan of a tablet within a split.
+   */
+  static final class Entry {
+    private final String table;
+    private final byte[] token;
+    private final long limit;
+    private final double fraction;
+    @Nullable
+    private final byte[] hedgeToken;
+    private final long size;
+
+    Entry(String table, byte[] token, long limit, long size) {
+      this(table, token, limit, 1.0, null, size);
+    }
+
+    Entry(String table, byte[] token, long limit, double fraction, @Nullable byte[] hedgeToken, long size) {
+      this.table = table;
+      this.token = token;
+      this.limit = limit;
+      this.fraction = fraction;
+      this.hedgeToken = hedgeToken;
+      this.size = size;
+    }
+
+    /**
+     * @return Estimated bytes read by the scan, 0 when sizes are not estimated.
+     */
+    long getSize() {
+      return size;
+    }
+  }
+}
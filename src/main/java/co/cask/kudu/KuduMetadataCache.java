@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartitionSchema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Process wide cache of Kudu table metadata, keyed by master addresses and table name.
+ *
+ * <p>
+ *   The deploy and prepare time validation of the source and sink only need the table schema, which rarely
+ *   changes. Entries expire after {@link #TTL_SECONDS}, and are invalidated as soon as a schema mismatch is
+ *   detected, so that a changed table is re-read from the masters.
+ * </p>
+ */
+final class KuduMetadataCache {
+  static final long TTL_SECONDS = 300;
+
+  private static final Cache<String, TableMetadata> CACHE = CacheBuilder.newBuilder()
+    .expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS)
+    .maximumSize(1000)
+    .build();
+
+  private KuduMetadataCache() {
+  }
+
+  /**
+   * Returns the metadata of the table, reading it from the masters if it's not cached.
+   *
+   * @param client used to read the metadata.
+   * @param master addresses the client is connected to.
+   * @param name of the table.
+   * @return {@link TableMetadata} or null if the table doesn't exist.
+   * @throws KuduException thrown when the masters cannot be reached.
+   */
+  @Nullable
+  static TableMetadata get(KuduClient client, String master, String name) throws KuduException {
+    String key = master + "/" + name;
+    TableMetadata metadata = CACHE.getIfPresent(key);
+    if (metadata != null) {
+      return metadata;
+    }
+    // Tables that don't exist are not cached, as they are about to be created by the sink.
+    if (!client.tableExists(name)) {
+      return null;
+    }
+    metadata = new TableMetadata(client.openTable(name));
+    CACHE.put(key, metadata);
+    return metadata;
+  }
+
+  /**
+   * @return Cached metadata of the table, null if it's not cached.
+   */
+  @Nullable
+  static TableMetadata getIfPresent(String master, String name) {
+    return CACHE.getIfPresent(master + "/" + name);
+  }
+
+  /**
+   * Removes the metadata of the table from the cache.
+   */
+  static void invalidate(String master, String name) {
+    CACHE.invalidate(master + "/" + name);
+  }
+
+  /**
+   * Converts a Kudu table schema to a CDAP record schema.
+   */
+  static Schema toCdapSchema(org.apache.kudu.Schema schema) {
+    List<Schema.Field> fields = new ArrayList<>();
+    for (ColumnSchema column : schema.getColumns()) {
+      Schema fieldType = Schema.of(toCdapType(column.getType()));
+      fields.add(Schema.Field.of(column.getName(), column.isNullable() ? Schema.nullableOf(fieldType) : fieldType));
+    }
+    return Schema.recordOf("output", fields);
+  }
+
+  private static Schema.Type toCdapType(Type type) {
+    switch (type) {
+      case DOUBLE:
+        return Schema.Type.DOUBLE;
+      case FLOAT:
+        return Schema.Type.FLOAT;
+      case BINARY:
+        return Schema.Type.BYTES;
+      case BOOL:
+        return Schema.Type.BOOLEAN;
+      case INT8:
+      case INT16:
+      case INT32:
+        return Schema.Type.INT;
+      case INT64:
+        return Schema.Type.LONG;
+      default:
+        return Schema.Type.STRING;
+    }
+  }
+
+  /**
+   * Metadata of a Kudu table along with its precomputed CDAP schema.
+   */
+  static final class TableMetadata {
+    private final String tableId;
+    private final org.apache.kudu.Schema schema;
+    private final PartitionSchema partitionSchema;
+    private final Schema cdapSchema;
+    private final Set<Schema> compatibleSchemas =
+      Collections.newSetFromMap(new ConcurrentHashMap<Schema, Boolean>());
+
+    TableMetadata(KuduTable table) {
+      this.tableId = table.getTableId();
+      this.schema = table.getSchema();
+      this.partitionSchema = table.getPartitionSchema();
+      this.cdapSchema = toCdapSchema(schema);
+    }
+
+    String getTableId() {
+      return tableId;
+    }
+
+    org.apache.kudu.Schema getSchema() {
+      return schema;
+    }
+
+    PartitionSchema getPartitionSchema() {
+      return partitionSchema;
+    }
+
+    /**
+     * @return CDAP schema with all the columns of the table.
+     */
+    Schema getCdapSchema() {
+      return cdapSchema;
+    }
+
+    /**
+     * Checks that the write schema matches the table, remembering the schemas that passed the check.
+     *
+     * @throws RuntimeException thrown when the schemas don't match.
+     */
+    void checkCompatibility(String tableName, Schema writeSchema) {
+      if (compatibleSchemas.contains(writeSchema)) {
+        return;
+      }
+      KuduUtils.checkSchemaCompatibility(tableName, schema, writeSchema);
+      compatibleSchemas.add(writeSchema);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+
+/**
+ * Output format that converts {@link StructuredRecord}s to Kudu operations and writes them to a Kudu table.
+ *
+ * <p>
+ *   Unlike {@link org.apache.kudu.mapreduce.KuduTableOutputFormat}, the rows are converted in the
+ *   {@link KuduRecordWriter}, so that rows rejected while Kudu is unavailable can be spilled and replayed.
+ * </p>
+ */
+public class KuduOutputFormat extends OutputFormat<NullWritable, StructuredRecord> {
+  // Same keys as the ones used by KuduTableOutputFormat.
+  public static final String MASTER_ADDRESSES = "kudu.mapreduce.master.addresses";
+  public static final String OUTPUT_TABLE = "kudu.mapreduce.output.table";
+  public static final String OPERATION_TIMEOUT_MS = "kudu.mapreduce.operation.timeout.ms";
+  public static final String BUFFER_ROW_COUNT = "kudu.mapreduce.buffer.row.count";
+
+  public static final String ADMIN_TIMEOUT_MS = "kudu.plugin.admin.timeout.ms";
+  public static final String BOSS_THREADS = "kudu.plugin.boss.threads";
+  public static final String OUTPUT_SCHEMA = "kudu.plugin.output.schema";
+  public static final String OUTPUT_OPERATION = "kudu.plugin.output.operation";
+  public static final String SPILL_DIR = "kudu.plugin.spill.dir";
+  public static final String SPILL_THRESHOLD = "kudu.plugin.spill.threshold";
+  public static final String SPILL_MAX_BYTES = "kudu.plugin.spill.max.bytes";
+  public static final String SPILL_MAX_MS = "kudu.plugin.spill.max.ms";
+  public static final String SALT_BUCKETS = "kudu.plugin.salt.buckets";
+  public static final String SKEW_THRESHOLD = "kudu.plugin.skew.threshold";
+  public static final String SKEW_FAIL = "kudu.plugin.skew.fail";
+  public static final String DYNAMIC_SCHEMA = "kudu.plugin.dynamic.schema";
+  public static final String ADD_COLUMNS = "kudu.plugin.add.columns";
+  public static final String WRITE_BUDGET_BYTES = "kudu.plugin.write.budget.bytes";
+
+  // Counters reported by the record writers.
+  static final String COUNTER_GROUP = "Kudu Sink";
+  static final String BUDGET_EARLY_FLUSHES = "Flushes forced by the write budget";
+  static final String BUDGET_WAIT_MS = "Time waited for the write budget (ms)";
+  static final String BUDGET_USED_BYTES = "Write budget held (bytes)";
+  static final String BUDGET_PEAK_BYTES = "Peak write budget held (bytes)";
+
+  @Override
+  public RecordWriter<NullWritable, StructuredRecord> getRecordWriter(TaskAttemptContext context)
+    throws IOException {
+    return new KuduRecordWriter(context);
+  }
+
+  @Override
+  public void checkOutputSpecs(JobContext context) throws IOException {
+    // Table is created and validated by the sink during prepare.
+  }
+
+  @Override
+  public OutputCommitter getOutputCommitter(TaskAttemptContext context) throws IOException {
+    return new KuduOutputCommitter();
+  }
+
+  /**
+   * Kudu writes are applied as they are flushed, so there is nothing to commit.
+   */
+  private static final class KuduOutputCommitter extends OutputCommitter {
+    @Override
+    public void setupJob(JobContext jobContext) throws IOException {
+      // no-op
+    }
+
+    @Override
+    public void setupTask(TaskAttemptContext taskContext) throws IOException {
+      // no-op
+    }
+
+    @Override
+    public boolean needsTaskCommit(TaskAttemptContext taskContext) throws IOException {
+      return false;
+    }
+
+    @Override
+    public void commitTask(TaskAttemptContext taskContext) throws IOException {
+      // no-op
+    }
+
+    @Override
+    public void abortTask(TaskAttemptContext taskContext) throws IOException {
+      // no-op
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.KuduPredicate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses simple predicates, such as {@code event_time < 1483228800000 AND region = 'eu'}, into
+ * {@link KuduPredicate}s that are evaluated by the tablet servers.
+ *
+ * <p>
+ *   A predicate is a conjunction of comparisons of a column with a constant, using one of
+ *   {@code =, <, <=, >, >=}. String and binary constants may be enclosed in single quotes, in which case
+ *   they may contain {@code AND}.
+ * </p>
+ */
+final class KuduPredicates {
+  private static final Pattern CONJUNCTION = Pattern.compile("\\s+(?i:and)\\s+");
+  private static final Pattern COMPARISON = Pattern.compile("^\\s*([\\w.-]+)\\s*(<=|>=|=|<|>)\\s*(.+?)\\s*$");
+
+  private KuduPredicates() {
+  }
+
+  /**
+   * Parses the predicate against the table schema.
+   *
+   * @param schema of the Kudu table.
+   * @param predicate conjunction of comparisons, empty for none.
+   * @return {@link KuduPredicate}s to be added to a scan.
+   * @throws IllegalArgumentException thrown when the predicate is malformed or refers to unknown columns.
+   */
+  static List<KuduPredicate> parse(Schema schema, String predicate) {
+    List<KuduPredicate> predicates = new ArrayList<>();
+    if (predicate.trim().isEmpty()) {
+      return predicates;
+    }
+    for (String comparison : splitConjunction(predicate.trim())) {
+      Matcher matcher = COMPARISON.matcher(comparison);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException(
+          String.format("Invalid comparison '%s', expected '<column> <operator> <value>'.", comparison.trim())
+        );
+      }
+      ColumnSchema column;
+      try {
+        column = schema.getColumn(matcher.group(1));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+          String.format("Column '%s' of the predicate does not exist in the table.", matcher.group(1)), e
+        );
+      }
+      predicates.add(comparison(column, toOp(matcher.group(2)), matcher.group(3)));
+    }
+    return predicates;
+  }
+
+  /**
+   * Splits a conjunction into its comparisons, ignoring the conjunctions within quoted constants.
+   */
+  private static List<String> splitConjunction(String predicate) {
+    List<String> comparisons = new ArrayList<>();
+    Matcher matcher = CONJUNCTION.matcher(predicate);
+    int start = 0;
+    int scanned = 0;
+    boolean quoted = false;
+    while (matcher.find()) {
+      for (; scanned < matcher.start(); scanned++) {
+        if (predicate.charAt(scanned) == '\'') {
+          quoted = !quoted;
+        }
+      }
+      if (!quoted) {
+        comparisons.add(predicate.substring(start, matcher.start()));
+        start = matcher.end();
+      }
+    }
+    comparisons.add(predicate.substring(start));
+    return comparisons;
+  }
+
+  /**
+   * Creates the comparison of the column with a value given as a string.
+   */
+  static KuduPredicate comparison(ColumnSchema column, KuduPredicate.ComparisonOp op, String value) {
+    try {
+      switch (column.getType()) {
+        case BOOL:
+          return KuduPredicate.newComparisonPredicate(column, op, Boolean.parseBoolean(value));
+        case INT8:
+        case INT16:
+        case INT32:
+        case INT64:
+        case UNIXTIME_MICROS:
+          return KuduPredicate.newComparisonPredicate(column, op, Long.parseLong(value));
+        case FLOAT:
+          return KuduPredicate.newComparisonPredicate(column, op, Float.parseFloat(value));
+        case DOUBLE:
+          return KuduPredicate.newComparisonPredicate(column, op, Double.parseDouble(value));
+        case STRING:
+          return KuduPredicate.newComparisonPredicate(column, op, unquote(value));
+        case BINARY:
+          return KuduPredicate.newComparisonPredicate(column, op, unquote(value).getBytes(StandardCharsets.UTF_8));
+        default:
+          throw new IllegalArgumentException(
+            String.format("Column '%s' is of unsupported type '%s' for predicates.",
+                          column.getName(), column.getType())
+          );
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+        String.format("Value '%s' is not valid for column '%s' of type '%s'.",
+                      value, column.getName(), column.getType()), e
+      );
+    }
+  }
+
+  private static KuduPredicate.ComparisonOp toOp(String op) {
+    switch (op) {
+      case "=":
+        return KuduPredicate.ComparisonOp.EQUAL;
+      case "<":
+        return KuduPredicate.ComparisonOp.LESS;
+      case "<=":
+        return KuduPredicate.ComparisonOp.LESS_EQUAL;
+      case ">":
+        return KuduPredicate.ComparisonOp.GREATER;
+      default:
+        return KuduPredicate.ComparisonOp.GREATER_EQUAL;
+    }
+  }
+
+  private static String unquote(String value) {
+    if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+}
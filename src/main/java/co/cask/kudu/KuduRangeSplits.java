@@ -0,0 +1,296 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.PartialRow;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes range partition split points from a histogram of key values, such that each range
+ * partition receives roughly the same number of rows, and decodes the range bounds of existing partitions.
+ */
+final class KuduRangeSplits {
+
+  private KuduRangeSplits() {
+  }
+
+  /**
+   * Computes the split points at the weighted quantiles of the histogram.
+   *
+   * @param histogram key values, as specified by the user, mapped to their weights.
+   * @param type Kudu type of the range partition column.
+   * @param partitions number of range partitions to be created.
+   * @return ordered and distinct split points, at most {@code partitions - 1} of them.
+   */
+  static List<Object> compute(Map<String, Long> histogram, Type type, int partitions) {
+    List<Bucket> buckets = new ArrayList<>();
+    long total = 0;
+    for (Map.Entry<String, Long> entry : histogram.entrySet()) {
+      buckets.add(new Bucket(parse(entry.getKey(), type), entry.getValue()));
+      total += entry.getValue();
+    }
+    Collections.sort(buckets, new Comparator<Bucket>() {
+      @Override
+      public int compare(Bucket o1, Bucket o2) {
+        return compareValues(o1.value, o2.value);
+      }
+    });
+    // Keys spelled differently, such as '7' and '07', parse to the same value and are merged into one bucket.
+    List<Bucket> merged = new ArrayList<>();
+    for (Bucket bucket : buckets) {
+      Bucket last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      if (last != null && compareValues(last.value, bucket.value) == 0) {
+        merged.set(merged.size() - 1, new Bucket(last.value, last.weight + bucket.weight));
+      } else {
+        merged.add(bucket);
+      }
+    }
+
+    List<Object> splits = new ArrayList<>();
+    long cumulative = 0;
+    int next = 1;
+    for (Bucket bucket : merged) {
+      if (next >= partitions) {
+        break;
+      }
+      // A split point starts a new partition, so it is placed at the first key past the quantile.
+      if (cumulative >= total * next / partitions && cumulative > 0) {
+        splits.add(bucket.value);
+        while (next < partitions && cumulative >= total * next / partitions) {
+          next++;
+        }
+      }
+      cumulative += bucket.weight;
+    }
+    return splits;
+  }
+
+  /**
+   * Parses split points given explicitly by the user.
+   *
+   * @return ordered and distinct split points.
+   */
+  static List<Object> parse(List<String> values, Type type) {
+    List<Object> splits = new ArrayList<>();
+    for (String value : values) {
+      splits.add(parse(value, type));
+    }
+    Collections.sort(splits, new Comparator<Object>() {
+      @Override
+      public int compare(Object o1, Object o2) {
+        return compareValues(o1, o2);
+      }
+    });
+    List<Object> distinct = new ArrayList<>();
+    for (Object split : splits) {
+      if (distinct.isEmpty() || compareValues(distinct.get(distinct.size() - 1), split) != 0) {
+        distinct.add(split);
+      }
+    }
+    return distinct;
+  }
+
+  /**
+   * Adds the range partitioning on the column with the given split points to the table options.
+   *
+   * @throws IllegalArgumentException if the split points are not strictly increasing or don't fit the column type,
+   * as Kudu rejects the table creation otherwise.
+   */
+  static void addSplits(CreateTableOptions options, org.apache.kudu.Schema schema, String column,
+                        List<Object> splits) {
+    options.setRangePartitionColumns(Collections.singletonList(column));
+    Type type = schema.getColumn(column).getType();
+    for (int i = 0; i < splits.size(); i++) {
+      checkRange(column, type, splits.get(i));
+      if (i > 0 && compareValues(splits.get(i - 1), splits.get(i)) >= 0) {
+        throw new IllegalArgumentException(
+          String.format("Range partition split points of column '%s' must be distinct and in increasing order.",
+                        column)
+        );
+      }
+    }
+    ColumnSchema columnSchema = schema.getColumn(column);
+    for (Object split : splits) {
+      PartialRow row = schema.newPartialRow();
+      addBound(row, columnSchema, split);
+      options.addSplitRow(row);
+    }
+  }
+
+  /**
+   * Decodes a range bound from the range key of a partition on a single column. Kudu encodes integers big endian
+   * with the sign bit flipped, and strings and binaries, being the last column of the key, as is.
+   *
+   * @return the bound, as a {@link Long} for integers and timestamps, as bytes for strings and binaries.
+   */
+  static Object decodeBound(byte[] key, Type type) {
+    ByteBuffer buf = ByteBuffer.wrap(key);
+    switch (type) {
+      case INT8:
+        return (long) (byte) (buf.get() ^ Byte.MIN_VALUE);
+      case INT16:
+        return (long) (short) (buf.getShort() ^ Short.MIN_VALUE);
+      case INT32:
+        return (long) (buf.getInt() ^ Integer.MIN_VALUE);
+      case INT64:
+      case UNIXTIME_MICROS:
+        return buf.getLong() ^ Long.MIN_VALUE;
+      case STRING:
+      case BINARY:
+        return Arrays.copyOf(key, key.length);
+      default:
+        throw new IllegalArgumentException(String.format("Range partition column of unsupported type '%s'.", type));
+    }
+  }
+
+  /**
+   * Sets a range bound, as returned by {@link #decodeBound} or parsed from a split point, on the column of a row.
+   */
+  static void addBound(PartialRow row, ColumnSchema column, Object bound) {
+    String name = column.getName();
+    switch (column.getType()) {
+      case INT8:
+        row.addByte(name, ((Long) bound).byteValue());
+        break;
+      case INT16:
+        row.addShort(name, ((Long) bound).shortValue());
+        break;
+      case INT32:
+        row.addInt(name, ((Long) bound).intValue());
+        break;
+      case INT64:
+      case UNIXTIME_MICROS:
+        row.addLong(name, (Long) bound);
+        break;
+      case STRING:
+        row.addStringUtf8(name, (byte[]) bound);
+        break;
+      case BINARY:
+        row.addBinary(name, (byte[]) bound);
+        break;
+      default:
+        throw new IllegalArgumentException(
+          String.format("Range partition column '%s' is of unsupported type '%s'.", name, column.getType())
+        );
+    }
+  }
+
+  /**
+   * Checks that the column can be used for range partitioning.
+   */
+  static void validate(ColumnSchema column) {
+    if (!column.isKey()) {
+      throw new IllegalArgumentException(
+        String.format("Range partition column '%s' must be one of the key columns.", column.getName())
+      );
+    }
+    switch (column.getType()) {
+      case INT8:
+      case INT16:
+      case INT32:
+      case INT64:
+      case STRING:
+      case BINARY:
+        return;
+      default:
+        throw new IllegalArgumentException(
+          String.format("Range partition column '%s' is of unsupported type '%s'.",
+                        column.getName(), column.getType())
+        );
+    }
+  }
+
+  private static void checkRange(String column, Type type, Object split) {
+    long min;
+    long max;
+    switch (type) {
+      case INT8:
+        min = Byte.MIN_VALUE;
+        max = Byte.MAX_VALUE;
+        break;
+      case INT16:
+        min = Short.MIN_VALUE;
+        max = Short.MAX_VALUE;
+        break;
+      case INT32:
+        min = Integer.MIN_VALUE;
+        max = Integer.MAX_VALUE;
+        break;
+      default:
+        return;
+    }
+    long value = (Long) split;
+    if (value < min || value > max) {
+      throw new IllegalArgumentException(
+        String.format("Range partition split point %d is out of range for column '%s' of type '%s'.",
+                      value, column, type)
+      );
+    }
+  }
+
+  private static Object parse(String value, Type type) {
+    switch (type) {
+      case INT8:
+      case INT16:
+      case INT32:
+      case INT64:
+        return Long.parseLong(value.trim());
+      default:
+        // Kudu orders strings and binaries by their bytes.
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Compares values in the representation of split points, longs by value and bytes unsigned, as Kudu orders keys.
+   */
+  static int compareValues(Object v1, Object v2) {
+    if (v1 instanceof Long) {
+      return ((Long) v1).compareTo((Long) v2);
+    }
+    byte[] b1 = (byte[]) v1;
+    byte[] b2 = (byte[]) v2;
+    for (int i = 0; i < Math.min(b1.length, b2.length); i++) {
+      int diff = (b1[i] & 0xff) - (b2[i] & 0xff);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return b1.length - b2.length;
+  }
+
+  private static final class Bucket {
+    private final Object value;
+    private final long weight;
+
+    Bucket(Object value, long weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.RowResult;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the rows of the scans of a {@link KuduInputSplit} one after the other, stopping each of them at
+ * its limit and all of them at the quota of the split, and optionally keeping only a random fraction of the
+ * rows of a scan. Kudu 1.2 can't sample rows on the tablet servers, so scans are only sampled here when their
+ * tablet couldn't be counted, the planner bounding the scans of counted tablets instead. Rows are decoded into
+ * records of the output schema as they are returned. In ordered mode, the records of each scan are sorted by
+ * primary key before being returned, spilling sorted runs to local disk for tablets too large to be sorted in memory.
+ */
+final class KuduRecordReader extends RecordReader<Text, StructuredRecord> {
+  private final Text table = new Text();
+  private TaskAttemptContext context;
+  private KuduClient client;
+  private KuduScans scans;
+  private KuduInputSplit split;
+  private int scan = -1;
+  private KuduScans.Scanner scanner;
+  private Iterator<RowResult> iterator;
+  private RowResult current;
+  private KuduRowDecoder decoder;
+  // Whether the records of the current scan are returned by the sorter, in primary key order.
+  private boolean sorted;
+  private StructuredRecord currentRecord;
+  private long limit;
+  private long count;
+  private long splitCount;
+  private double fraction;
+  private Random random;
+  // Sorts the rows of each scan by primary key in ordered mode, null otherwise.
+  private KuduRowSorter sorter;
+
+  /**
+   * @param scans opens the scans of the split, null to get them from the client.
+   */
+  KuduRecordReader(@Nullable KuduScans scans) {
+    this.scans = scans;
+  }
+
+  @Override
+  public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+    this.context = context;
+    this.split = (KuduInputSplit) split;
+    Configuration conf = context.getConfiguration();
+    client = KuduInputFormat.getClient(conf);
+    if (scans == null) {
+      scans = KuduInputFormat.getScans(client);
+    }
+    decoder = new KuduRowDecoder(Schema.parseJson(conf.get(KuduInputFormat.OUTPUT_SCHEMA)),
+                                 conf.getBoolean(KuduInputFormat.ZERO_COPY_BINARY, false),
+                                 conf.get(KuduInputFormat.TABLE_NAME_FIELD));
+    if (this.split.getKeyColumns().length > 0) {
+      sorter = new KuduRowSorter(this.split.getKeyColumns(),
+                                 conf.getLong(KuduInputFormat.ORDERED_MAX_ROWS, 1000000));
+    }
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException, InterruptedException {
+    while (true) {
+      if (count < limit && splitCount < split.getQuota()) {
+        if (sorted) {
+          currentRecord = sorter.next();
+          if (currentRecord != null) {
+            count++;
+            splitCount++;
+            return true;
+          }
+          sorted = false;
+        }
+        if (iterator != null && iterator.hasNext()) {
+          RowResult row = iterator.next();
+          if (fraction < 1.0 && random.nextDouble() >= fraction) {
+            continue;
+          }
+          current = row;
+          currentRecord = null;
+          count++;
+          splitCount++;
+          return true;
+        }
+        if (scanner != null && scanner.hasMoreRows()) {
+          iterator = scanner.nextRows();
+          continue;
+        }
+      }
+      // Scan done or limit reached, release the scanner on the tablet server rather than waiting for it to expire.
+      closeScanner();
+      if (scan + 1 >= split.getScanCount() || splitCount >= split.getQuota()) {
+        return false;
+      }
+      openScanner(++scan);
+    }
+  }
+
+  private void openScanner(int index) throws IOException {
+    Configuration conf = context.getConfiguration();
+    byte[] token = split.getToken(index);
+    byte[] hedgeToken = split.getHedgeToken(index);
+    if (hedgeToken == null) {
+      scanner = scans.open(client, token);
+    } else {
+      scanner = new KuduHedgedScanner(
+        scans, client, KuduInputFormat.getFollowerClient(conf), token, hedgeToken,
+        conf.getLong(KuduInputFormat.HEDGE_DELAY_MS, 0), conf.getInt(KuduInputFormat.HEDGE_PERCENTILE, 95),
+        conf.getDouble(KuduInputFormat.HEDGE_MAX_FRACTION, 0.05),
+        context.getCounter(KuduInputFormat.COUNTER_GROUP, KuduInputFormat.HEDGED_SCANS),
+        context.getCounter(KuduInputFormat.COUNTER_GROUP, KuduInputFormat.HEDGE_WINS),
+        context.getCounter(KuduInputFormat.COUNTER_GROUP, KuduInputFormat.FAILOVERS));
+    }
+    table.set(split.getTable(index));
+    iterator = null;
+    sorted = false;
+    limit = split.getLimit(index);
+    fraction = split.getFraction(index);
+    count = 0;
+    // Seeded by the token, so that previewing the same table twice returns the same sample.
+    random = new Random(Arrays.hashCode(token));
+    if (sorter != null) {
+      sortScanner();
+    }
+  }
+
+  /**
+   * Reads and decodes all the rows of the scan and sorts them, so that they are then returned in key order. The
+   * limit is applied to the sorted records, which returns the first rows of the tablet in key order.
+   */
+  private void sortScanner() throws IOException {
+    // Drops what is left of the previous scan, whose records may not all have been returned.
+    sorter.close();
+    while (scanner.hasMoreRows()) {
+      Iterator<RowResult> rows = scanner.nextRows();
+      while (rows.hasNext()) {
+        RowResult row = rows.next();
+        if (fraction >= 1.0 || random.nextDouble() < fraction) {
+          sorter.add(row, decoder.decode(row, table.toString()));
+        }
+      }
+    }
+    closeScanner();
+    sorter.sort();
+    sorted = true;
+  }
+
+  @Override
+  public Text getCurrentKey() throws IOException, InterruptedException {
+    return table;
+  }
+
+  @Override
+  public StructuredRecord getCurrentValue() throws IOException, InterruptedException {
+    // Decoded once per row, before the RowResult moves on to the next row.
+    if (currentRecord == null) {
+      currentRecord = decoder.decode(current, table.toString());
+    }
+    return currentRecord;
+  }
+
+  @Override
+  public float getProgress() throws IOException, InterruptedException {
+    // The number of rows of a tablet is not known up front, so only limited scans report progress within them.
+    float done = Math.max(0, scan);
+    if (scan >= 0 && limit != Long.MAX_VALUE && limit > 0) {
+      done += (float) count / limit;
+    }
+    return done / split.getScanCount();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      closeScanner();
+    } finally {
+      if (sorter != null) {
+        sorter.close();
+      }
+    }
+  }
+
+  private void closeScanner() throws IOException {
+    if (scanner != null) {
+      scanner.close();
+      scanner = null;
+    }
+  }
+}
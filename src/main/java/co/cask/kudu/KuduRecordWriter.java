@@ -0,0 +1,547 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.primitives.UnsignedBytes;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.OperationResponse;
+import org.apache.kudu.client.RowError;
+import org.apache.kudu.client.SessionConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes {@link StructuredRecord}s to a Kudu table, spilling them to a file while Kudu is unavailable.
+ *
+ * <p>
+ *   When salting is enabled, every row is given a salt computed from its primary key, so that writing a key
+ *   again replaces the same row. The writes per tablet are tracked, to warn or fail when most of them go
+ *   to a few tablets.
+ * </p>
+ *
+ * <p>
+ *   Buffered rows are accounted by their estimated size against the {@link KuduWriteBudget} shared by the
+ *   writers of the JVM. When the budget is used up, the writer flushes early and then waits for the budget.
+ *   When the wait times out, the writer buffers its rows over the budget without flushing early or waiting again
+ *   until its next regular flush, which releases its share of the budget.
+ * </p>
+ *
+ * <p>
+ *   Rows are buffered in a manually flushed session. When spilling is enabled and Kudu keeps rejecting
+ *   flushes because it is unreachable, the rejected rows and all the rows that follow are appended to
+ *   spill files instead. The spill files are replayed in order once Kudu is reachable again. Spilling
+ *   is bounded in size and time, beyond which the task fails.
+ * </p>
+ *
+ * <p>
+ *   Spill files are written in a directory of the task attempt. When Kudu is still unavailable as the task
+ *   completes, they are committed to the spill directory of the table, to be replayed by the
+ *   {@link KuduSpillReplay} action. Files of attempts that fail are discarded, as their rows are written
+ *   again by the next attempt.
+ * </p>
+ */
+final class KuduRecordWriter extends RecordWriter<NullWritable, StructuredRecord> {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduRecordWriter.class);
+
+  // How often Kudu is probed for recovery while spilling.
+  private static final long PROBE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+  // Minimum number of rows written before the skew is checked.
+  private static final long SKEW_MIN_ROWS = 10000;
+
+  private final KuduClient client;
+  private KuduTable table;
+  private final KuduSession session;
+  private final Schema schema;
+  private final String operation;
+  private final int bufferRows;
+
+  // Plans per record schema in dynamic schema mode, null when records are written with the configured schema.
+  private final KuduWritePlans plans;
+
+  // Salter is null when salting is disabled. Rows are written and spilled with the row schema, which has
+  // the salt column when salting is enabled.
+  private final KuduUtils.Salter salter;
+  private final Schema rowSchema;
+
+  // Writes per tablet, keyed by the start of their partition key, threshold is 0 when skew is not tracked.
+  private final NavigableMap<byte[], long[]> tabletWrites = new TreeMap<>(UnsignedBytes.lexicographicalComparator());
+  private final long timeoutMs;
+  private final double skewThreshold;
+  private final boolean failOnSkew;
+  private long totalWrites;
+  private boolean skewReported;
+
+  // Budget shared by the writers of the JVM, null when disabled.
+  private final KuduWriteBudget budget;
+  private final int rowSize;
+  private final long budgetWaitMs;
+  private final Counter earlyFlushes;
+  private final Counter budgetWaits;
+  private final Counter budgetUsed;
+  private final Counter budgetPeak;
+  // Highest use of the budget by all the writers of the JVM seen by this writer, logged when it closes.
+  private long peakBudgetBytes;
+  private int reservedUnits;
+  private long bufferedBytes;
+  // Bytes buffered over the budget since the wait for it timed out, until the next regular flush.
+  private boolean overdraft;
+  private long overdrawnBytes;
+  private boolean overBudgetReported;
+
+  // Rows applied to the session since the last flush, so that they can be spilled if the flush fails.
+  private final Map<Operation, StructuredRecord> pending = new LinkedHashMap<>();
+
+  // Spill settings, directory is null when spilling is disabled.
+  private final Path spillDir;
+  private final Path attemptDir;
+  private final String spillPrefix;
+  private final int spillThreshold;
+  private final long spillMaxBytes;
+  private final long spillMaxMs;
+  private final FileSystem fs;
+
+  private int failedFlushes;
+  private KuduSpillFile.Writer spill;
+  private int spillSegments;
+  private long spillBytes;
+  private long spillStartTime;
+  private long lastProbeTime;
+
+  KuduRecordWriter(TaskAttemptContext context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    String master = conf.get(KuduOutputFormat.MASTER_ADDRESSES);
+    String tableName = conf.get(KuduOutputFormat.OUTPUT_TABLE);
+    long timeout = conf.getLong(KuduOutputFormat.OPERATION_TIMEOUT_MS, 30000);
+
+    String schemaJson = conf.get(KuduOutputFormat.OUTPUT_SCHEMA);
+    this.schema = schemaJson == null ? null : Schema.parseJson(schemaJson);
+    this.operation = conf.get(KuduOutputFormat.OUTPUT_OPERATION, "upsert");
+    this.bufferRows = conf.getInt(KuduOutputFormat.BUFFER_ROW_COUNT, 1000);
+
+    int saltBuckets = conf.getInt(KuduOutputFormat.SALT_BUCKETS, 0);
+    this.rowSchema = saltBuckets > 0 ? KuduUtils.withSaltColumn(schema) : schema;
+    this.timeoutMs = timeout;
+    this.skewThreshold = conf.getDouble(KuduOutputFormat.SKEW_THRESHOLD, 0);
+    this.failOnSkew = conf.getBoolean(KuduOutputFormat.SKEW_FAIL, false);
+
+    String dir = conf.get(KuduOutputFormat.SPILL_DIR);
+    this.spillDir = dir == null ? null : new Path(dir, tableName);
+    this.fs = spillDir == null ? null : spillDir.getFileSystem(conf);
+    this.spillPrefix = context.getTaskAttemptID().toString();
+    this.attemptDir = spillDir == null ? null : KuduSpillFile.getAttemptDir(spillDir, spillPrefix);
+    this.spillThreshold = conf.getInt(KuduOutputFormat.SPILL_THRESHOLD, 1);
+    this.spillMaxBytes = conf.getLong(KuduOutputFormat.SPILL_MAX_BYTES, 1024L * 1024 * 1024);
+    this.spillMaxMs = conf.getLong(KuduOutputFormat.SPILL_MAX_MS, TimeUnit.MINUTES.toMillis(30));
+
+    // Shared with the other tasks running in the same JVM, so it is not closed by the writer.
+    this.client = KuduClients.getClient(master, (int) timeout,
+                                        conf.getInt(KuduOutputFormat.ADMIN_TIMEOUT_MS, (int) timeout),
+                                        conf.getInt(KuduOutputFormat.BOSS_THREADS, 1));
+    this.table = client.openTable(tableName);
+    this.salter = saltBuckets > 0 ? new KuduUtils.Salter(saltBuckets, table.getSchema()) : null;
+    this.plans = conf.getBoolean(KuduOutputFormat.DYNAMIC_SCHEMA, false)
+      ? new KuduWritePlans(client, master, table, conf.getBoolean(KuduOutputFormat.ADD_COLUMNS, false)) : null;
+    this.session = client.newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+    session.setMutationBufferSpace(bufferRows);
+
+    long budgetBytes = conf.getLong(KuduOutputFormat.WRITE_BUDGET_BYTES, -1);
+    if (budgetBytes < 0) {
+      budgetBytes = Runtime.getRuntime().maxMemory() / 4;
+    }
+    this.budget = budgetBytes == 0 ? null : KuduWriteBudget.get(budgetBytes);
+    this.rowSize = table.getSchema().getRowSize();
+    this.budgetWaitMs = timeout;
+    this.earlyFlushes = context.getCounter(KuduOutputFormat.COUNTER_GROUP, KuduOutputFormat.BUDGET_EARLY_FLUSHES);
+    this.budgetWaits = context.getCounter(KuduOutputFormat.COUNTER_GROUP, KuduOutputFormat.BUDGET_WAIT_MS);
+    this.budgetUsed = context.getCounter(KuduOutputFormat.COUNTER_GROUP, KuduOutputFormat.BUDGET_USED_BYTES);
+    this.budgetPeak = context.getCounter(KuduOutputFormat.COUNTER_GROUP, KuduOutputFormat.BUDGET_PEAK_BYTES);
+  }
+
+  @Override
+  public void write(NullWritable key, StructuredRecord record) throws IOException {
+    if (salter != null) {
+      // Salted before being buffered, so that a row retried or spilled keeps its salt.
+      record = KuduUtils.withSalt(record, rowSchema, salter.salt(record));
+    }
+    if (spill == null && budget != null) {
+      // May flush the buffered rows early, which can start spilling them, so this is done before the
+      // row is applied to the session.
+      reserve(KuduWriteBudget.estimateSize(rowSize, record));
+    }
+    if (spill != null) {
+      // Rows keep going to the spill once it started, so that they are replayed in the order they were written.
+      appendToSpill(record);
+      maybeRecover();
+      return;
+    }
+
+    Operation op = newOperation(record);
+    trackTablet(op);
+    pending.put(op, record);
+    session.apply(op);
+    if (pending.size() >= bufferRows) {
+      flush();
+    }
+  }
+
+  @Override
+  public void close(TaskAttemptContext context) throws IOException {
+    boolean committed = false;
+    try {
+      flush();
+      if (spill != null) {
+        spill.close();
+        spill = null;
+        if (!replay()) {
+          KuduSpillFile.commit(fs, attemptDir, spillDir, spillPrefix);
+          LOG.warn("Kudu table '{}' is still unavailable, spilled rows are left in '{}' to be replayed later.",
+                   table.getName(), spillDir);
+        }
+      }
+      committed = true;
+      if (budget != null) {
+        LOG.info("Peak write budget used while writing to Kudu table '{}' was {} bytes.", table.getName(),
+                 peakBudgetBytes);
+      }
+    } finally {
+      if (attemptDir != null && !committed) {
+        discardSpill();
+      }
+      try {
+        session.close();
+      } catch (KuduException e) {
+        LOG.warn("Failed to close kudu session. {}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Deletes the spill files of a failed attempt, whose rows are written again by the next attempt.
+   */
+  private void discardSpill() {
+    try {
+      if (spill != null) {
+        spill.close();
+        spill = null;
+      }
+      fs.delete(attemptDir, true);
+    } catch (IOException e) {
+      LOG.warn("Failed to delete spill files in '{}'. Reason : {}", attemptDir, e.getMessage());
+    }
+  }
+
+  /**
+   * Reserves the budget for a row about to be buffered, flushing the buffered rows first when the budget is
+   * used up, and then waiting for the other writers to release theirs. Once a wait timed out, rows are buffered
+   * over the budget until the next regular flush, rather than flushing early and waiting again for every row.
+   */
+  private void reserve(long bytes) throws IOException {
+    bufferedBytes += bytes;
+    while (bufferedBytes > (long) reservedUnits * KuduWriteBudget.UNIT_BYTES + overdrawnBytes) {
+      int chunk = budget.getChunkUnits();
+      if (budget.tryReserve(chunk)) {
+        reservedUnits += chunk;
+        continue;
+      }
+      if (overdraft) {
+        long over = bufferedBytes - (long) reservedUnits * KuduWriteBudget.UNIT_BYTES - overdrawnBytes;
+        budget.overdraw(over);
+        overdrawnBytes += over;
+        break;
+      }
+      if (!pending.isEmpty()) {
+        earlyFlushes.increment(1);
+        flush();
+        bufferedBytes = bytes;
+        continue;
+      }
+      long start = System.currentTimeMillis();
+      boolean reserved;
+      try {
+        reserved = budget.reserve(chunk, budgetWaitMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the Kudu write budget.", e);
+      } finally {
+        budgetWaits.increment(System.currentTimeMillis() - start);
+      }
+      if (!reserved) {
+        // Writing over the budget is better than failing the task.
+        if (!overBudgetReported) {
+          overBudgetReported = true;
+          LOG.warn("Waited {} ms for the Kudu write budget, writing to table '{}' over the budget.",
+                   budgetWaitMs, table.getName());
+        }
+        overdraft = true;
+        continue;
+      }
+      reservedUnits += chunk;
+    }
+    peakBudgetBytes = Math.max(peakBudgetBytes, budget.getUsedBytes());
+    reportBudget();
+  }
+
+  /**
+   * Reports the bytes of the budget held by this writer, and the most it held.
+   */
+  private void reportBudget() {
+    long held = (long) reservedUnits * KuduWriteBudget.UNIT_BYTES + overdrawnBytes;
+    budgetUsed.setValue(held);
+    if (held > budgetPeak.getValue()) {
+      budgetPeak.setValue(held);
+    }
+  }
+
+  /**
+   * Flushes the pending rows and releases the budget they held.
+   */
+  private void flush() throws IOException {
+    try {
+      flushPending();
+    } finally {
+      if (budget != null) {
+        budget.release(reservedUnits);
+        budget.repay(overdrawnBytes);
+        reservedUnits = 0;
+        overdrawnBytes = 0;
+        bufferedBytes = 0;
+        overdraft = false;
+        reportBudget();
+      }
+    }
+  }
+
+  /**
+   * Flushes the pending rows. Rows rejected because Kudu is unavailable are re-applied until
+   * the spill threshold is reached, after which they are spilled.
+   */
+  private void flushPending() throws IOException {
+    while (!pending.isEmpty()) {
+      List<StructuredRecord> rejected = new ArrayList<>();
+      try {
+        for (OperationResponse response : session.flush()) {
+          if (!response.hasRowError()) {
+            continue;
+          }
+          RowError error = response.getRowError();
+          if (spillDir == null || !KuduUtils.isUnavailable(error.getErrorStatus())) {
+            throw new IOException(
+              String.format("Failed to write to Kudu table '%s'. Reason : %s", table.getName(), error.toString())
+            );
+          }
+          rejected.add(pending.get(error.getOperation()));
+        }
+      } catch (KuduException e) {
+        if (spillDir == null) {
+          throw e;
+        }
+        // Unable to tell which rows made it, so all of them are retried. Upserts are idempotent
+        // and inserts already present are ignored during replay.
+        rejected.addAll(pending.values());
+      }
+      pending.clear();
+
+      if (rejected.isEmpty()) {
+        failedFlushes = 0;
+        checkSkew();
+        return;
+      }
+
+      if (++failedFlushes >= spillThreshold) {
+        LOG.warn("Kudu table '{}' rejected {} consecutive flushes, spilling rows to '{}'.",
+                 table.getName(), failedFlushes, spillDir);
+        for (StructuredRecord record : rejected) {
+          appendToSpill(record);
+        }
+        return;
+      }
+
+      for (StructuredRecord record : rejected) {
+        Operation op = newOperation(record);
+        pending.put(op, record);
+        session.apply(op);
+      }
+    }
+  }
+
+  private Operation newOperation(StructuredRecord record) throws IOException {
+    if (plans != null) {
+      KuduWritePlans.WritePlan plan = plans.get(record.getSchema());
+      table = plans.getTable();
+      Operation op = KuduUtils.newOperation(table, operation);
+      plan.apply(op.getRow(), record);
+      return op;
+    }
+    Operation op = KuduUtils.newOperation(table, operation);
+    KuduUtils.addToRow(op.getRow(), rowSchema, record);
+    return op;
+  }
+
+  /**
+   * Counts the write against the tablet of the row, which is the one with the greatest partition key start
+   * not after the partition key of the row.
+   */
+  private void trackTablet(Operation op) throws IOException {
+    if (skewThreshold <= 0) {
+      return;
+    }
+    if (tabletWrites.isEmpty()) {
+      loadTablets();
+    }
+    byte[] partitionKey = table.getPartitionSchema().encodePartitionKey(op.getRow());
+    Map.Entry<byte[], long[]> tablet = tabletWrites.floorEntry(partitionKey);
+    if (tablet == null) {
+      // Not covered by any range partition, which Kudu rejects when flushing.
+      return;
+    }
+    tablet.getValue()[0]++;
+    totalWrites++;
+  }
+
+  private void loadTablets() throws IOException {
+    List<LocatedTablet> tablets;
+    try {
+      tablets = table.getTabletsLocations(timeoutMs);
+    } catch (Exception e) {
+      throw new IOException(
+        String.format("Unable to list the tablets of Kudu table '%s'. Reason : %s", table.getName(), e.getMessage()), e
+      );
+    }
+    for (LocatedTablet tablet : tablets) {
+      tabletWrites.put(tablet.getPartition().getPartitionKeyStart(), new long[1]);
+    }
+  }
+
+  /**
+   * Checks the ratio of the writes to the busiest tablet to the average writes per tablet.
+   */
+  private void checkSkew() throws IOException {
+    if (skewReported || skewThreshold <= 0 || totalWrites < SKEW_MIN_ROWS) {
+      return;
+    }
+    long max = 0;
+    int written = 0;
+    for (long[] writes : tabletWrites.values()) {
+      max = Math.max(max, writes[0]);
+      written += writes[0] > 0 ? 1 : 0;
+    }
+    double ratio = (double) max * tabletWrites.size() / totalWrites;
+    if (ratio <= skewThreshold) {
+      return;
+    }
+    skewReported = true;
+    String msg = String.format("Writes to Kudu table '%s' are skewed, the busiest of the %d tablets received " +
+                                 "%.1f times the average writes per tablet (%d of %d rows went to %d tablets). " +
+                                 "Consider partitioning on higher cardinality columns or enabling salting.",
+                               table.getName(), tabletWrites.size(), ratio, max, totalWrites, written);
+    if (failOnSkew) {
+      throw new IOException(msg);
+    }
+    LOG.warn(msg);
+  }
+
+  private void appendToSpill(StructuredRecord record) throws IOException {
+    long now = System.currentTimeMillis();
+    if (spill == null) {
+      spill = new KuduSpillFile.Writer(fs, nextSpillPath(), operation, rowSchema);
+      if (spillStartTime == 0) {
+        spillStartTime = now;
+        lastProbeTime = now;
+      }
+    }
+    spillBytes += spill.append(record);
+    if (spillBytes > spillMaxBytes) {
+      throw new IOException(
+        String.format("Spilled %d bytes while Kudu table '%s' was unavailable, which exceeds the limit of %d bytes.",
+                      spillBytes, table.getName(), spillMaxBytes)
+      );
+    }
+    if (now - spillStartTime > spillMaxMs) {
+      throw new IOException(
+        String.format("Kudu table '%s' has been unavailable for more than %d seconds.",
+                      table.getName(), TimeUnit.MILLISECONDS.toSeconds(spillMaxMs))
+      );
+    }
+  }
+
+  /**
+   * Periodically checks if Kudu has recovered by replaying the spilled rows.
+   */
+  private void maybeRecover() throws IOException {
+    long now = System.currentTimeMillis();
+    if (now - lastProbeTime < PROBE_INTERVAL_MS) {
+      return;
+    }
+    lastProbeTime = now;
+    spill.close();
+    spill = null;
+    if (replay()) {
+      LOG.info("Kudu table '{}' is available again after {} ms.", table.getName(), now - spillStartTime);
+      spillStartTime = 0;
+      spillBytes = 0;
+      failedFlushes = 0;
+    } else {
+      // Rows keep going to a new segment, after the ones that are yet to be replayed.
+      spill = new KuduSpillFile.Writer(fs, nextSpillPath(), operation, rowSchema);
+    }
+  }
+
+  /**
+   * Replays the spill files of this attempt in order, deleting the ones that were fully replayed.
+   *
+   * @return true if all the spilled rows have been written to Kudu.
+   */
+  private boolean replay() throws IOException {
+    for (Path path : KuduSpillFile.list(fs, attemptDir)) {
+      if (!KuduSpillFile.replay(client, table, fs, path, bufferRows)) {
+        return false;
+      }
+      fs.delete(path, false);
+    }
+    return true;
+  }
+
+  private Path nextSpillPath() {
+    // Zero padded so that segments sort in the order they were written.
+    return new Path(attemptDir, String.format("%06d%s", spillSegments++, KuduSpillFile.EXTENSION));
+  }
+}
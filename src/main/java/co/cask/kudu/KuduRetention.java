@@ -0,0 +1,304 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.etl.api.PipelineConfigurer;
+import co.cask.cdap.etl.api.action.Action;
+import co.cask.cdap.etl.api.action.ActionContext;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.AlterTableOptions;
+import org.apache.kudu.client.Delete;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.OperationResponse;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowError;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResultIterator;
+import org.apache.kudu.client.SessionConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Action} that purges old rows from a Kudu table.
+ *
+ * <p>
+ *   Range partitions that only hold rows older than the retention are dropped, which is a metadata only
+ *   operation on the master. Rows that are not aligned with partitions, such as older rows in the partition
+ *   holding the retention boundary, are found by scanning the key columns of the tablets in parallel with the
+ *   predicates pushed down to the tablet servers, and deleted in batches.
+ * </p>
+ * <p>
+ *   When both a retention and a predicate are given, only the rows that are older than the retention and match
+ *   the predicate are deleted, and no partitions are dropped.
+ * </p>
+ */
+@Plugin(type = Action.PLUGIN_TYPE)
+@Name("KuduRetention")
+@Description("Drops expired range partitions and deletes rows matching a predicate from an Apache Kudu table.")
+public class KuduRetention extends Action {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduRetention.class);
+
+  private final KuduRetentionConfig config;
+
+  public KuduRetention(KuduRetentionConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer configurer) {
+    config.validate();
+  }
+
+  @Override
+  public void run(ActionContext context) throws Exception {
+    config.validate();
+    String tableName = config.optTableName.trim();
+    KuduClient client = new KuduClient.KuduClientBuilder(config.optMasterAddresses.trim())
+      .defaultOperationTimeoutMs(config.getOperationTimeout())
+      .disableStatistics()
+      .build();
+    try {
+      KuduTable table = client.openTable(tableName);
+      Schema schema = table.getSchema();
+      List<KuduPredicate> predicates = KuduPredicates.parse(schema, config.getPredicate());
+
+      String rangeColumn = config.getRangeColumn();
+      if (rangeColumn != null) {
+        ColumnSchema column = schema.getColumn(rangeColumn);
+        long cutoff = getCutoff(column);
+        if (config.getPredicate().isEmpty()) {
+          // Partitions only hold expired rows when the retention is the sole condition.
+          if (dropExpiredPartitions(client, table, column, cutoff) > 0) {
+            table = client.openTable(tableName);
+          }
+        }
+        predicates.add(KuduPredicates.comparison(column, KuduPredicate.ComparisonOp.LESS, String.valueOf(cutoff)));
+      }
+
+      long deleted = deleteRows(client, table, predicates);
+      LOG.info("Deleted {} rows from Kudu table '{}'.", deleted, tableName);
+    } finally {
+      client.close();
+    }
+  }
+
+  /**
+   * @return Value of the range column before which rows are expired.
+   */
+  private long getCutoff(ColumnSchema column) {
+    if (column.getType() != Type.INT32 && column.getType() != Type.INT64 && column.getType() != Type.UNIXTIME_MICROS) {
+      throw new IllegalArgumentException(
+        String.format("Range column '%s' is of type '%s', expected 'int32', 'int64' or 'unixtime_micros'.",
+                      column.getName(), column.getType())
+      );
+    }
+    TimeUnit unit = column.getType() == Type.UNIXTIME_MICROS ? TimeUnit.MICROSECONDS : config.getTimeUnit();
+    return unit.convert(System.currentTimeMillis() - config.getRetentionMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Drops the range partitions whose upper bound is at or before the cutoff.
+   *
+   * @return number of range partitions dropped.
+   */
+  private int dropExpiredPartitions(KuduClient client, KuduTable table, ColumnSchema column,
+                                    long cutoff) throws Exception {
+    Schema schema = table.getSchema();
+    List<Integer> rangeColumns = table.getPartitionSchema().getRangeSchema().getColumns();
+    if (rangeColumns.size() != 1 || schema.getColumnIndex(rangeColumns.get(0)) != schema.getColumnIndex(
+      column.getName())) {
+      LOG.info("Kudu table '{}' is not range partitioned on '{}' alone, expired rows will be deleted instead.",
+               table.getName(), column.getName());
+      return 0;
+    }
+
+    // Each range partition is split into one tablet per hash bucket.
+    Map<ByteBuffer, byte[]> ranges = new LinkedHashMap<>();
+    for (LocatedTablet tablet : table.getTabletsLocations(config.getOperationTimeout())) {
+      ranges.put(ByteBuffer.wrap(tablet.getPartition().getRangeKeyStart()),
+                 tablet.getPartition().getRangeKeyEnd());
+    }
+
+    AlterTableOptions options = new AlterTableOptions();
+    int dropped = 0;
+    for (Map.Entry<ByteBuffer, byte[]> range : ranges.entrySet()) {
+      byte[] lower = range.getKey().array();
+      byte[] upper = range.getValue();
+      // An unbounded upper range can always receive new rows.
+      if (upper.length == 0 || (Long) KuduRangeSplits.decodeBound(upper, column.getType()) > cutoff) {
+        continue;
+      }
+      PartialRow lowerRow = schema.newPartialRow();
+      if (lower.length > 0) {
+        KuduRangeSplits.addBound(lowerRow, column, KuduRangeSplits.decodeBound(lower, column.getType()));
+      }
+      PartialRow upperRow = schema.newPartialRow();
+      KuduRangeSplits.addBound(upperRow, column, KuduRangeSplits.decodeBound(upper, column.getType()));
+      options.dropRangePartition(lowerRow, upperRow);
+      dropped++;
+    }
+    if (dropped > 0) {
+      client.alterTable(table.getName(), options);
+      LOG.info("Dropped {} expired range partitions of Kudu table '{}'.", dropped, table.getName());
+    }
+    return dropped;
+  }
+
+  /**
+   * Deletes the rows matching the predicates, scanning the tablets in parallel.
+   *
+   * @return number of rows deleted.
+   */
+  private long deleteRows(final KuduClient client, final KuduTable table,
+                          List<KuduPredicate> predicates) throws Exception {
+    List<String> keyColumns = new ArrayList<>();
+    for (ColumnSchema column : table.getSchema().getPrimaryKeyColumns()) {
+      keyColumns.add(column.getName());
+    }
+    KuduScanToken.KuduScanTokenBuilder builder = client.newScanTokenBuilder(table)
+      .setProjectedColumnNames(keyColumns)
+      .setTimeout(config.getOperationTimeout());
+    for (KuduPredicate predicate : predicates) {
+      builder.addPredicate(predicate);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(config.getThreads());
+    try {
+      List<Future<Long>> futures = new ArrayList<>();
+      for (final KuduScanToken token : builder.build()) {
+        futures.add(executor.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            return deleteRows(client, table, token.intoScanner(client));
+          }
+        }));
+      }
+      long deleted = 0;
+      for (Future<Long> future : futures) {
+        try {
+          deleted += future.get();
+        } catch (ExecutionException e) {
+          throw new IOException(
+            String.format("Failed to delete rows from Kudu table '%s'. Reason : %s",
+                          table.getName(), e.getCause().getMessage()), e.getCause()
+          );
+        }
+      }
+      return deleted;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private long deleteRows(KuduClient client, KuduTable table, KuduScanner scanner) throws Exception {
+    int flushRows = config.getFlushRows();
+    List<ColumnSchema> keys = table.getSchema().getPrimaryKeyColumns();
+    KuduSession session = client.newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+    session.setMutationBufferSpace(flushRows);
+    long rows = 0;
+    try {
+      while (scanner.hasMoreRows()) {
+        RowResultIterator results = scanner.nextRows();
+        while (results.hasNext()) {
+          RowResult result = results.next();
+          Delete delete = table.newDelete();
+          for (ColumnSchema key : keys) {
+            addKey(delete.getRow(), result, key);
+          }
+          session.apply(delete);
+          if (++rows % flushRows == 0) {
+            flush(session, table.getName());
+          }
+        }
+      }
+      flush(session, table.getName());
+    } finally {
+      scanner.close();
+      session.close();
+    }
+    return rows;
+  }
+
+  private static void flush(KuduSession session, String table) throws IOException {
+    for (OperationResponse response : session.flush()) {
+      if (!response.hasRowError()) {
+        continue;
+      }
+      RowError error = response.getRowError();
+      // Rows deleted concurrently, or by an earlier run, are already gone.
+      if (!error.getErrorStatus().isNotFound()) {
+        throw new IOException(
+          String.format("Kudu table '%s' rejected a delete. Reason : %s", table, error.toString())
+        );
+      }
+    }
+  }
+
+  private static void addKey(PartialRow row, RowResult result, ColumnSchema column) {
+    String name = column.getName();
+    switch (column.getType()) {
+      case INT8:
+        row.addByte(name, result.getByte(name));
+        break;
+      case INT16:
+        row.addShort(name, result.getShort(name));
+        break;
+      case INT32:
+        row.addInt(name, result.getInt(name));
+        break;
+      case INT64:
+      case UNIXTIME_MICROS:
+        row.addLong(name, result.getLong(name));
+        break;
+      case STRING:
+        row.addString(name, result.getString(name));
+        break;
+      case BINARY:
+        row.addBinary(name, result.getBinaryCopy(name));
+        break;
+      default:
+        throw new IllegalArgumentException(
+          String.format("Key column '%s' is of unsupported type '%s'.", name, column.getType())
+        );
+    }
+  }
+}
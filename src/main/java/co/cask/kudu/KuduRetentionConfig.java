@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Macro;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.plugin.PluginConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Configuration for the {@link KuduRetention} action.
+ */
+public final class KuduRetentionConfig extends PluginConfig {
+  private static final Pattern DURATION = Pattern.compile("^\\s*(\\d+)\\s*([smhd])\\s*$");
+
+  @Name("master")
+  @Description("Comma separated list of <hostname>:<port>[,<hostanme>:<port>]* of Apache Kudu Masters.")
+  @Macro
+  public String optMasterAddresses;
+
+  @Name("name")
+  @Description("Name of the Kudu table to purge.")
+  @Macro
+  public String optTableName;
+
+  @Name("range-column")
+  @Description("Time column the table is range partitioned on. Range partitions entirely older than the retention " +
+    "are dropped, and older rows in the remaining partitions are deleted.")
+  @Nullable
+  @Macro
+  public String optRangeColumn;
+
+  @Name("retention")
+  @Description("How long rows are kept, as a number followed by 's', 'm', 'h' or 'd', for example '90d'.")
+  @Nullable
+  @Macro
+  public String optRetention;
+
+  @Name("time-unit")
+  @Description("Unit of the values of the range column, one of 'seconds', 'milliseconds' or 'microseconds'. " +
+    "Ignored for 'unixtime_micros' columns. Default is 'milliseconds'.")
+  @Nullable
+  public String optTimeUnit;
+
+  @Name("predicate")
+  @Description("Rows matching this predicate are deleted, for example \"region = 'eu' AND id < 1000\". " +
+    "Combined with the retention when both are given.")
+  @Nullable
+  @Macro
+  public String optPredicate;
+
+  @Name("opt-timeout")
+  @Description("Timeout for Kudu operations in milliseconds. Defaults is '30000 ms'.")
+  @Nullable
+  public String optOperationTimeoutMs;
+
+  @Name("row-flush")
+  @Description("Number of deletes that are buffered before flushing to the tablet server")
+  @Nullable
+  public String optFlushRows;
+
+  @Name("threads")
+  @Description("Number of tablets scanned for rows to delete in parallel. Default is 4.")
+  @Nullable
+  public String optThreads;
+
+  /**
+   * Validates the configuration fields.
+   *
+   * @throws IllegalArgumentException throw when there is issue with the configuration.
+   */
+  public void validate() throws IllegalArgumentException {
+    if (!containsMacro("master")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optMasterAddresses),
+                                  "Kudu Master Server address list is empty.");
+    }
+    if (!containsMacro("name")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optTableName), "Kudu Table is not specified.");
+    }
+    if (containsMacro("range-column") || containsMacro("retention") || containsMacro("predicate")) {
+      return;
+    }
+    Preconditions.checkArgument((getRangeColumn() == null) == (optRetention == null || optRetention.isEmpty()),
+                                "Range column and retention must be specified together.");
+    Preconditions.checkArgument(getRangeColumn() != null || !getPredicate().isEmpty(),
+                                "Either a retention or a predicate must be specified.");
+    if (getRangeColumn() != null) {
+      getRetentionMillis();
+      getTimeUnit();
+    }
+    Preconditions.checkArgument(getThreads() > 0, "Number of threads must be positive.");
+  }
+
+  /**
+   * @return Time column the table is range partitioned on, null if not specified.
+   */
+  @Nullable
+  public String getRangeColumn() {
+    return (optRangeColumn == null || optRangeColumn.trim().isEmpty()) ? null : optRangeColumn.trim();
+  }
+
+  /**
+   * @return Retention in milliseconds.
+   */
+  public long getRetentionMillis() {
+    Matcher matcher = DURATION.matcher(Strings.nullToEmpty(optRetention));
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException(
+        String.format("Invalid retention '%s', expected a number followed by 's', 'm', 'h' or 'd'.", optRetention)
+      );
+    }
+    long value = Long.parseLong(matcher.group(1));
+    switch (matcher.group(2)) {
+      case "s":
+        return TimeUnit.SECONDS.toMillis(value);
+      case "m":
+        return TimeUnit.MINUTES.toMillis(value);
+      case "h":
+        return TimeUnit.HOURS.toMillis(value);
+      default:
+        return TimeUnit.DAYS.toMillis(value);
+    }
+  }
+
+  /**
+   * @return Unit of the values of the range column.
+   */
+  public TimeUnit getTimeUnit() {
+    if (optTimeUnit == null || optTimeUnit.trim().isEmpty()) {
+      return TimeUnit.MILLISECONDS;
+    }
+    switch (optTimeUnit.trim().toLowerCase()) {
+      case "seconds":
+        return TimeUnit.SECONDS;
+      case "milliseconds":
+        return TimeUnit.MILLISECONDS;
+      case "microseconds":
+        return TimeUnit.MICROSECONDS;
+      default:
+        throw new IllegalArgumentException(
+          String.format("Invalid time unit '%s', expected 'seconds', 'milliseconds' or 'microseconds'.", optTimeUnit)
+        );
+    }
+  }
+
+  /**
+   * @return Predicate of the rows to delete, empty if not specified.
+   */
+  public String getPredicate() {
+    return optPredicate == null ? "" : optPredicate.trim();
+  }
+
+  /**
+   * @return Timeout for user operations.
+   */
+  public int getOperationTimeout() {
+    return (optOperationTimeoutMs != null) ? Integer.parseInt(optOperationTimeoutMs) : 30000;
+  }
+
+  /**
+   * @return Number of deletes to be buffered before being flushed.
+   */
+  public int getFlushRows() {
+    return (optFlushRows != null) ? Integer.parseInt(optFlushRows) : 1000;
+  }
+
+  /**
+   * @return Number of tablets scanned in parallel.
+   */
+  public int getThreads() {
+    return (optThreads != null) ? Integer.parseInt(optThreads) : 4;
+  }
+}
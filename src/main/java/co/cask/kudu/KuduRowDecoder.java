@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.RowResult;
+
+import javax.annotation.Nullable;
+
+/**
+ * Converts the {@link RowResult}s of Kudu scans to {@link StructuredRecord}s.
+ *
+ * <p>
+ *   The rows of a scan share the schema of its projection, so the columns are resolved once per projection
+ *   and the values are read by column index. A decoder is meant to be reused for all the rows read by a task.
+ * </p>
+ */
+final class KuduRowDecoder {
+  private static final int MASK = 0xff;
+
+  private final Schema schema;
+  private final boolean zeroCopy;
+  @Nullable
+  private final String tableField;
+
+  // Columns of the rows being read, resolved once per scan projection.
+  private org.apache.kudu.Schema readSchema;
+  private String[] names;
+  private Type[] types;
+
+  /**
+   * @param schema of the records.
+   * @param zeroCopy true to return binary values as read-only views over the rows returned by the tablet server.
+   */
+  KuduRowDecoder(Schema schema, boolean zeroCopy) {
+    this(schema, zeroCopy, null);
+  }
+
+  /**
+   * @param schema of the records.
+   * @param zeroCopy true to return binary values as read-only views over the rows returned by the tablet server.
+   * @param tableField field set to the name of the table the row was read from, null if there is none.
+   */
+  KuduRowDecoder(Schema schema, boolean zeroCopy, @Nullable String tableField) {
+    this.schema = schema;
+    this.zeroCopy = zeroCopy;
+    this.tableField = tableField;
+  }
+
+  /**
+   * @return Record holding the columns of the row.
+   * @throws IllegalArgumentException thrown when a column is of a type that cannot be converted.
+   */
+  StructuredRecord decode(RowResult result) {
+    return decode(result, null);
+  }
+
+  /**
+   * @param table name of the table the row was read from.
+   * @return Record holding the columns of the row, and the name of its table if there is a table field.
+   * @throws IllegalArgumentException thrown when a column is of a type that cannot be converted.
+   */
+  StructuredRecord decode(RowResult result, @Nullable String table) {
+    org.apache.kudu.Schema kSchema = result.getSchema();
+    if (kSchema != readSchema) {
+      resolveColumns(kSchema);
+    }
+    StructuredRecord.Builder record = StructuredRecord.builder(schema);
+
+    // Iterate through each column in the result and convert it to CDAP type.
+    for (int i = 0; i < names.length; i++) {
+      String name = names[i];
+      if (result.isNull(i)) {
+        record.set(name, null);
+        continue;
+      }
+      switch (types[i]) {
+        case BINARY:
+          // A read-only view over the rows returned by the tablet server, rather than a copy per value.
+          record.set(name, zeroCopy ? result.getBinary(i).asReadOnlyBuffer() : result.getBinaryCopy(i));
+          break;
+        case BOOL:
+          record.set(name, result.getBoolean(i));
+          break;
+        case DOUBLE:
+          record.set(name, result.getDouble(i));
+          break;
+        case FLOAT:
+          record.set(name, result.getFloat(i));
+          break;
+        case INT32:
+          record.set(name, result.getInt(i));
+          break;
+        case INT64:
+          record.set(name, result.getLong(i));
+          break;
+        case INT16:
+          record.set(name, (int) result.getShort(i));
+          break;
+        case INT8:
+          record.set(name, (int) (result.getByte(i) & MASK));
+          break;
+        default:
+          record.set(name, result.getString(i));
+      }
+    }
+    if (tableField != null) {
+      record.set(tableField, table);
+    }
+    return record.build();
+  }
+
+  private void resolveColumns(org.apache.kudu.Schema kSchema) {
+    names = new String[kSchema.getColumnCount()];
+    types = new Type[names.length];
+    for (int i = 0; i < names.length; i++) {
+      ColumnSchema column = kSchema.getColumnByIndex(i);
+      switch (column.getType()) {
+        case BINARY:
+        case BOOL:
+        case DOUBLE:
+        case FLOAT:
+        case INT32:
+        case INT64:
+        case INT16:
+        case INT8:
+        case STRING:
+          break;
+        default:
+          throw new IllegalArgumentException(
+            String.format("Unsupported type '%s', field '%s'", column.getType().toString(), column.getName())
+          );
+      }
+      names[i] = column.getName();
+      types[i] = column.getType();
+    }
+    readSchema = kSchema;
+  }
+}
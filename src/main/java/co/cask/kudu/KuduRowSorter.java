@@ -0,0 +1,502 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.client.RowResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import javax.annotation.Nullable;
+
+/**
+ * Sorts the records of a tablet scan by primary key, spilling sorted runs to local disk.
+ *
+ * <p>
+ *   Kudu 1.2 scans return the rows of a tablet in no particular order. Records are held decoded, along with the
+ *   values of the primary key of their row copied out of its batch, the way {@link KuduRangeSplits} holds them:
+ *   integers and timestamps as longs, strings as their UTF-8 bytes and binaries as their bytes. Keys are compared
+ *   column by column, bytes unsigned, which is the order of the table.
+ * </p>
+ *
+ * <p>
+ *   At most the given number of records are held in memory. Beyond that, the records held are sorted and written
+ *   to a run file in the local temporary directory, and the runs are merged once the scan is done, at most
+ *   {@link #MERGE_FACTOR} of them at a time. The values of the records are written by the type of their field,
+ *   with binary values read back the way they were decoded, as arrays or as read-only buffers.
+ * </p>
+ */
+final class KuduRowSorter implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduRowSorter.class);
+
+  // Runs merged at a time, which bounds the files open while merging.
+  static final int MERGE_FACTOR = 64;
+
+  private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry e1, Entry e2) {
+      return compareKeys(e1.key, e2.key);
+    }
+  };
+
+  private final String[] keyColumns;
+  private final int maxRows;
+  private final List<Entry> entries = new ArrayList<>();
+  private final List<File> runs = new ArrayList<>();
+  private final List<Run> merging = new ArrayList<>();
+  private final PriorityQueue<Run> heads = new PriorityQueue<>(MERGE_FACTOR, new Comparator<Run>() {
+    @Override
+    public int compare(Run r1, Run r2) {
+      return ORDER.compare(r1.head, r2.head);
+    }
+  });
+  // Position in the sorted entries when nothing was spilled.
+  private int next;
+
+  // Indexes of the key columns in the rows being sorted, resolved once per scan projection.
+  private org.apache.kudu.Schema readSchema;
+  private int[] keyIndexes;
+
+  /**
+   * @param keyColumns primary key columns of the table, in key order.
+   * @param maxRows maximum number of records held in memory, beyond which sorted runs are spilled to local disk.
+   */
+  KuduRowSorter(String[] keyColumns, long maxRows) {
+    this.keyColumns = keyColumns;
+    this.maxRows = (int) Math.min(Integer.MAX_VALUE, maxRows);
+  }
+
+  /**
+   * Adds the record decoded from the row the {@link RowResult} is positioned on, keyed by the primary key of the row.
+   */
+  void add(RowResult row, StructuredRecord record) throws IOException {
+    if (row.getSchema() != readSchema) {
+      resolveKey(row.getSchema());
+    }
+    if (entries.size() >= maxRows) {
+      runs.add(spill(entries));
+      entries.clear();
+    }
+    entries.add(new Entry(copyKey(row), record));
+  }
+
+  /**
+   * Sorts the records added since the last call, which are then returned by {@link #next()}.
+   */
+  void sort() throws IOException {
+    closeMerge();
+    next = 0;
+    if (runs.isEmpty()) {
+      Collections.sort(entries, ORDER);
+      return;
+    }
+    if (!entries.isEmpty()) {
+      runs.add(spill(entries));
+      entries.clear();
+    }
+    LOG.debug("Merging {} sorted runs of at most {} rows.", runs.size(), maxRows);
+    while (runs.size() > MERGE_FACTOR) {
+      List<File> group = new ArrayList<>(runs.subList(0, MERGE_FACTOR));
+      runs.subList(0, MERGE_FACTOR).clear();
+      runs.add(merge(group));
+    }
+    openMerge(runs);
+    runs.clear();
+  }
+
+  /**
+   * @return Next record in primary key order, null once all the sorted records were returned.
+   */
+  @Nullable
+  StructuredRecord next() throws IOException {
+    if (merging.isEmpty()) {
+      if (next >= entries.size()) {
+        entries.clear();
+        return null;
+      }
+      // Released as returned, so that the records can be collected.
+      Entry entry = entries.set(next++, null);
+      return entry.record;
+    }
+    Entry entry = poll();
+    if (entry == null) {
+      closeMerge();
+    }
+    return entry == null ? null : entry.record;
+  }
+
+  /**
+   * Drops the records held and deletes the run files, so that the sorter can be used for another scan.
+   */
+  @Override
+  public void close() throws IOException {
+    entries.clear();
+    next = 0;
+    closeMerge();
+    for (File run : runs) {
+      delete(run);
+    }
+    runs.clear();
+  }
+
+  private File spill(List<Entry> sorted) throws IOException {
+    Collections.sort(sorted, ORDER);
+    File file = File.createTempFile("kudu-sort-", ".run");
+    boolean written = false;
+    try (RunWriter writer = new RunWriter(file)) {
+      for (Entry entry : sorted) {
+        writer.write(entry);
+      }
+      written = true;
+    } finally {
+      if (!written) {
+        delete(file);
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Merges the runs into a new run, deleting them.
+   */
+  private File merge(List<File> group) throws IOException {
+    openMerge(group);
+    File file = File.createTempFile("kudu-sort-", ".run");
+    boolean written = false;
+    try (RunWriter writer = new RunWriter(file)) {
+      for (Entry entry = poll(); entry != null; entry = poll()) {
+        writer.write(entry);
+      }
+      written = true;
+    } finally {
+      closeMerge();
+      if (!written) {
+        delete(file);
+      }
+    }
+    return file;
+  }
+
+  private void openMerge(List<File> files) throws IOException {
+    for (File file : files) {
+      Run run = new Run(file);
+      merging.add(run);
+      if (run.advance()) {
+        heads.add(run);
+      }
+    }
+  }
+
+  @Nullable
+  private Entry poll() throws IOException {
+    Run run = heads.poll();
+    if (run == null) {
+      return null;
+    }
+    Entry entry = run.head;
+    if (run.advance()) {
+      heads.add(run);
+    }
+    return entry;
+  }
+
+  private void closeMerge() throws IOException {
+    heads.clear();
+    for (Run run : merging) {
+      run.close();
+    }
+    merging.clear();
+  }
+
+  private static void delete(File file) {
+    if (!file.delete() && file.exists()) {
+      LOG.warn("Failed to delete sorted run '{}'.", file);
+    }
+  }
+
+  private void resolveKey(org.apache.kudu.Schema schema) throws IOException {
+    keyIndexes = new int[keyColumns.length];
+    for (int i = 0; i < keyColumns.length; i++) {
+      try {
+        keyIndexes[i] = schema.getColumnIndex(keyColumns[i]);
+      } catch (IllegalArgumentException e) {
+        throw new IOException(
+          String.format("Primary key column '%s' is not projected, rows cannot be sorted.", keyColumns[i]), e
+        );
+      }
+    }
+    readSchema = schema;
+  }
+
+  private Object[] copyKey(RowResult row) {
+    Object[] key = new Object[keyIndexes.length];
+    for (int i = 0; i < keyIndexes.length; i++) {
+      int index = keyIndexes[i];
+      ColumnSchema column = readSchema.getColumnByIndex(index);
+      switch (column.getType()) {
+        case INT8:
+          key[i] = (long) row.getByte(index);
+          break;
+        case INT16:
+          key[i] = (long) row.getShort(index);
+          break;
+        case INT32:
+          key[i] = (long) row.getInt(index);
+          break;
+        case INT64:
+        case UNIXTIME_MICROS:
+          key[i] = row.getLong(index);
+          break;
+        case STRING:
+          key[i] = row.getString(index).getBytes(StandardCharsets.UTF_8);
+          break;
+        case BINARY:
+          key[i] = row.getBinaryCopy(index);
+          break;
+        default:
+          throw new IllegalArgumentException(
+            String.format("Primary key column '%s' is of unsupported type '%s'.", column.getName(), column.getType())
+          );
+      }
+    }
+    return key;
+  }
+
+  private static int compareKeys(Object[] k1, Object[] k2) {
+    for (int i = 0; i < k1.length; i++) {
+      int diff = KuduRangeSplits.compareValues(k1[i], k2[i]);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Record with the primary key of its row.
+   */
+  private static final class Entry {
+    private final Object[] key;
+    private final StructuredRecord record;
+
+    Entry(Object[] key, StructuredRecord record) {
+      this.key = key;
+      this.record = record;
+    }
+  }
+
+  /**
+   * Writes sorted entries to a run file. Every entry is its key, as a long or as bytes per column, followed by the
+   * schema of its record the first time it is seen and the fields of the record, each preceded by a null marker.
+   */
+  private static final class RunWriter implements Closeable {
+    private final DataOutputStream out;
+    private final List<Schema> schemas = new ArrayList<>();
+
+    RunWriter(File file) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    void write(Entry entry) throws IOException {
+      out.writeBoolean(true);
+      for (Object value : entry.key) {
+        if (value instanceof Long) {
+          out.writeBoolean(true);
+          out.writeLong((Long) value);
+        } else {
+          out.writeBoolean(false);
+          writeBytes(out, (byte[]) value);
+        }
+      }
+      Schema schema = entry.record.getSchema();
+      int index = schemas.indexOf(schema);
+      out.writeInt(index);
+      if (index < 0) {
+        schemas.add(schema);
+        writeBytes(out, schema.toString().getBytes(StandardCharsets.UTF_8));
+      }
+      for (Schema.Field field : schema.getFields()) {
+        Object value = entry.record.get(field.getName());
+        out.writeBoolean(value != null);
+        if (value != null) {
+          encode(field.getName(), field.getSchema(), value);
+        }
+      }
+    }
+
+    private void encode(String name, Schema schema, Object value) throws IOException {
+      switch (schema.getType()) {
+        case BOOLEAN:
+          out.writeBoolean((Boolean) value);
+          break;
+        case INT:
+          out.writeInt((Integer) value);
+          break;
+        case LONG:
+          out.writeLong((Long) value);
+          break;
+        case FLOAT:
+          out.writeFloat((Float) value);
+          break;
+        case DOUBLE:
+          out.writeDouble((Double) value);
+          break;
+        case STRING:
+          writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+          break;
+        case BYTES:
+          if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.writeBoolean(true);
+            writeBytes(out, bytes);
+          } else {
+            out.writeBoolean(false);
+            writeBytes(out, (byte[]) value);
+          }
+          break;
+        case UNION:
+          encode(name, schema.getNonNullable(), value);
+          break;
+        default:
+          throw new IllegalArgumentException(
+            String.format("Field '%s' is of unsupported type '%s'.", name, schema.getType())
+          );
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Marks the end of the run.
+      out.writeBoolean(false);
+      out.close();
+    }
+  }
+
+  /**
+   * Reads back the entries of a run file, deleting it when closed.
+   */
+  private final class Run implements Closeable {
+    private final File file;
+    private final DataInputStream in;
+    private final List<Schema> schemas = new ArrayList<>();
+    private Entry head;
+
+    Run(File file) throws IOException {
+      this.file = file;
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /**
+     * Reads the next entry of the run as its head.
+     *
+     * @return false if there are no more entries.
+     */
+    boolean advance() throws IOException {
+      try {
+        if (!in.readBoolean()) {
+          head = null;
+          return false;
+        }
+        Object[] key = new Object[keyColumns.length];
+        for (int i = 0; i < key.length; i++) {
+          key[i] = in.readBoolean() ? (Object) in.readLong() : readBytes(in);
+        }
+        int index = in.readInt();
+        Schema schema;
+        if (index < 0) {
+          schema = Schema.parseJson(new String(readBytes(in), StandardCharsets.UTF_8));
+          schemas.add(schema);
+        } else {
+          schema = schemas.get(index);
+        }
+        StructuredRecord.Builder record = StructuredRecord.builder(schema);
+        for (Schema.Field field : schema.getFields()) {
+          record.set(field.getName(), in.readBoolean() ? decode(field.getSchema()) : null);
+        }
+        head = new Entry(key, record.build());
+        return true;
+      } catch (EOFException e) {
+        throw new IOException(String.format("Sorted run '%s' is truncated.", file), e);
+      }
+    }
+
+    private Object decode(Schema schema) throws IOException {
+      switch (schema.getType()) {
+        case BOOLEAN:
+          return in.readBoolean();
+        case INT:
+          return in.readInt();
+        case LONG:
+          return in.readLong();
+        case FLOAT:
+          return in.readFloat();
+        case DOUBLE:
+          return in.readDouble();
+        case STRING:
+          return new String(readBytes(in), StandardCharsets.UTF_8);
+        case BYTES:
+          return in.readBoolean() ? ByteBuffer.wrap(readBytes(in)).asReadOnlyBuffer() : readBytes(in);
+        case UNION:
+          return decode(schema.getNonNullable());
+        default:
+          throw new IOException(String.format("Sorted run '%s' holds values of unsupported type '%s'.",
+                                              file, schema.getType()));
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        in.close();
+      } finally {
+        delete(file);
+      }
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.kudu.client.AsyncKuduScanner;
+import org.apache.kudu.client.FollowerScanners;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.ReplicaSelection;
+import org.apache.kudu.client.RowResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Plans and opens the scans of a table read by {@link KuduInputFormat}.
+ *
+ * <p>
+ *   Scans go through Kudu scan tokens, unless the client implements this interface itself, which is how the
+ *   in-process Kudu stand-in of the throughput harness serves its rows. Unit tests hand other implementations
+ *   to the {@link KuduInputFormat} and {@link KuduRecordReader} constructors instead.
+ * </p>
+ */
+interface KuduScans {
+
+  /**
+   * Scans through Kudu scan tokens, one per tablet.
+   */
+  KuduScans TOKENS = new KuduScans() {
+    @Override
+    public List<Scan> plan(KuduClient client, KuduTable table, @Nullable List<String> columns,
+                           long timeout, boolean hedged) throws IOException {
+      if (!hedged) {
+        List<Scan> scans = new ArrayList<>();
+        for (KuduScanToken token : newBuilder(client, table, columns, timeout).build()) {
+          scans.add(new Scan(token.serialize(), getLocations(token)));
+        }
+        return scans;
+      }
+
+      // Both scans of a tablet read the same snapshot, so that either of them can be used. Kudu 1.2 tokens can't
+      // name a replica, so the hedge selects the closest replica, and is opened through a client that doesn't
+      // know the leaders of the tablets, which leaves the closest replica to be a follower.
+      long snapshot = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+      List<KuduScanToken> primaries = newBuilder(client, table, columns, timeout)
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+        .snapshotTimestampMicros(snapshot)
+        .replicaSelection(ReplicaSelection.LEADER_ONLY)
+        .build();
+      List<KuduScanToken> hedges = newBuilder(client, table, columns, timeout)
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+        .snapshotTimestampMicros(snapshot)
+        .replicaSelection(ReplicaSelection.CLOSEST_REPLICA)
+        .build();
+      List<Scan> scans = new ArrayList<>();
+      // Tokens are ordered by the partitions of the tablets.
+      for (int i = 0; i < primaries.size(); i++) {
+        KuduScanToken primary = primaries.get(i);
+        if (hasFollowers(primary)) {
+          scans.add(new Scan(primary.serialize(), getLocations(primary), hedges.get(i).serialize()));
+        } else {
+          scans.add(new Scan(primary.serialize(), getLocations(primary)));
+        }
+      }
+      return scans;
+    }
+
+    private KuduScanToken.KuduScanTokenBuilder newBuilder(KuduClient client, KuduTable table,
+                                                          @Nullable List<String> columns, long timeout) {
+      KuduScanToken.KuduScanTokenBuilder builder = client.newScanTokenBuilder(table).setTimeout(timeout);
+      if (columns != null) {
+        builder.setProjectedColumnNames(columns);
+      }
+      return builder;
+    }
+
+    private String[] getLocations(KuduScanToken token) {
+      List<String> locations = new ArrayList<>();
+      for (LocatedTablet.Replica replica : token.getTablet().getReplicas()) {
+        locations.add(replica.getRpcHost());
+      }
+      return locations.toArray(new String[locations.size()]);
+    }
+
+    private boolean hasFollowers(KuduScanToken token) {
+      // Without a known leader, there is no telling which replica the primary scan goes to.
+      return token.getTablet().getLeaderReplica() != null && token.getTablet().getReplicas().size() > 1;
+    }
+
+    @Override
+    public List<byte[]> countTokens(KuduClient client, KuduTable table, long timeout) throws IOException {
+      List<byte[]> tokens = new ArrayList<>();
+      // Projecting no columns, the tablet servers only return the number of rows of each batch.
+      for (KuduScanToken token : client.newScanTokenBuilder(table)
+        .setProjectedColumnIndexes(Collections.<Integer>emptyList())
+        .setTimeout(timeout)
+        .build()) {
+        tokens.add(token.serialize());
+      }
+      return tokens;
+    }
+
+    @Override
+    public long count(KuduClient client, byte[] countToken, long maxRows) throws IOException {
+      KuduScanner scanner = KuduScanToken.deserializeIntoScanner(countToken, client);
+      long rows = 0;
+      try {
+        while (scanner.hasMoreRows() && rows < maxRows) {
+          rows += scanner.nextRows().getNumRows();
+        }
+      } finally {
+        scanner.close();
+      }
+      return rows;
+    }
+
+    @Override
+    public Scanner open(KuduClient client, byte[] token) throws IOException {
+      return wrap(KuduScanToken.deserializeIntoScanner(token, client));
+    }
+
+    @Override
+    public Scanner openFollower(KuduClient followerClient, byte[] token) throws IOException {
+      return wrap(FollowerScanners.open(followerClient, token, followerClient.getDefaultOperationTimeoutMs()));
+    }
+
+    private Scanner wrap(final KuduScanner scanner) {
+      return new Scanner() {
+        @Override
+        public boolean hasMoreRows() {
+          return scanner.hasMoreRows();
+        }
+
+        @Override
+        public Iterator<RowResult> nextRows() throws IOException {
+          return scanner.nextRows();
+        }
+
+        @Override
+        public void close() throws IOException {
+          scanner.close();
+        }
+      };
+    }
+  };
+
+  /**
+   * Plans the scans of the table, one per tablet.
+   *
+   * @param client connected to the cluster.
+   * @param table to be scanned.
+   * @param columns to be projected, null for all the columns.
+   * @param timeout of the scan requests in milliseconds.
+   * @param hedged whether the scans can be hedged, in which case every scan of a tablet with followers has a hedge
+   *               token, to be opened with {@link #openFollower}.
+   * @return {@link Scan}s of the table.
+   */
+  List<Scan> plan(KuduClient client, KuduTable table, @Nullable List<String> columns, long timeout,
+                  boolean hedged) throws IOException;
+
+  /**
+   * Returns the scans counting the rows of the tablets of the table, to be run by {@link #count}, in the order of
+   * the scans returned by {@link #plan}.
+   */
+  List<byte[]> countTokens(KuduClient client, KuduTable table, long timeout) throws IOException;
+
+  /**
+   * Counts the rows of a tablet.
+   *
+   * @param countToken scan returned by {@link #countTokens}.
+   * @param maxRows number of rows after which the count stops, which makes it a lower bound.
+   */
+  long count(KuduClient client, byte[] countToken, long maxRows) throws IOException;
+
+  /**
+   * Opens a scanner for a scan returned by {@link #plan}.
+   */
+  Scanner open(KuduClient client, byte[] token) throws IOException;
+
+  /**
+   * Opens a scanner on a follower of the tablet, for the hedge token of a scan returned by {@link #plan}.
+   *
+   * @param followerClient client only used to read followers.
+   */
+  Scanner openFollower(KuduClient followerClient, byte[] token) throws IOException;
+
+  /**
+   * Serialized scan of a tablet along with the hosts of its replicas, and optionally a scan of the same
+   * snapshot of the tablet to be read on a follower.
+   */
+  final class Scan {
+    final byte[] token;
+    final String[] locations;
+    @Nullable
+    final byte[] hedgeToken;
+
+    Scan(byte[] token, String[] locations) {
+      this(token, locations, null);
+    }
+
+    Scan(byte[] token, String[] locations, @Nullable byte[] hedgeToken) {
+      this.token = token;
+      this.locations = locations;
+      this.hedgeToken = hedgeToken;
+    }
+  }
+
+  /**
+   * Returns the rows of a scan in batches.
+   */
+  interface Scanner {
+    boolean hasMoreRows();
+
+    Iterator<RowResult> nextRows() throws IOException;
+
+    void close() throws IOException;
+  }
+}
@@ -26,56 +26,42 @@ import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.api.dataset.lib.KeyValue;
 import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.PipelineConfigurer;
-import co.cask.cdap.etl.api.batch.BatchRuntimeContext;
 import co.cask.cdap.etl.api.batch.BatchSink;
 import co.cask.cdap.etl.api.batch.BatchSinkContext;
 import co.cask.hydrator.common.ReferenceBatchSink;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
-import org.apache.kudu.ColumnSchema;
-import org.apache.kudu.Type;
-import org.apache.kudu.client.CreateTableOptions;
 import org.apache.kudu.client.KuduClient;
 import org.apache.kudu.client.KuduException;
-import org.apache.kudu.client.KuduTable;
-import org.apache.kudu.client.Operation;
-import org.apache.kudu.client.PartialRow;
-import org.apache.kudu.client.Upsert;
-import org.apache.kudu.mapreduce.KuduTableOutputFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * {@link BatchSink} to write to Apache Kudu.
  *
  * <p>
  *   This does an upsert into Kudu tables giving the ability to modify the row if
- *   it already exists, else it will insert a new row.
+ *   it already exists, else it will insert a new row. Records are converted to Kudu
+ *   operations by the {@link KuduOutputFormat}.
  * </p>
  */
 @Plugin(type = BatchSink.PLUGIN_TYPE)
 @Name("Kudu")
 @Description("Writes to Apache Kudu tables.")
-public class KuduSink extends ReferenceBatchSink<StructuredRecord, NullWritable, Operation> {
+public class KuduSink extends ReferenceBatchSink<StructuredRecord, NullWritable, StructuredRecord> {
   private static final Logger LOG = LoggerFactory.getLogger(KuduSink.class);
 
   private final KuduSinkConfig kuduSinkConfig;
 
-  // Kudu client and table.
+  // Client of the driver, opened in prepareRun and closed when the run finishes.
   private KuduClient client;
-  private KuduTable table;
-
-  // Write schema associated with the pipeline.
-  private Schema outputSchema;
 
   public KuduSink(KuduSinkConfig kuduSinkConfig) {
     super(kuduSinkConfig);
@@ -94,12 +80,30 @@ public class KuduSink extends ReferenceBatchSink<StructuredRecord, NullWritable,
   @Override
   public void configurePipeline(PipelineConfigurer configurer) {
     super.configurePipeline(configurer);
-    Preconditions.checkArgument(!Strings.isNullOrEmpty(kuduSinkConfig.optSchema), "Write schema is not specified. Please add" +
-      "the write schema.");
+    if (kuduSinkConfig.isDynamicSchema()) {
+      // Spill files and salts are computed with the configured schema, not the schema of each record.
+      Preconditions.checkArgument(Strings.isNullOrEmpty(kuduSinkConfig.optSpillDir),
+                                  "Spilling is not supported in dynamic schema mode.");
+      Preconditions.checkArgument(kuduSinkConfig.getSaltBuckets() == 0,
+                                  "Salting is not supported in dynamic schema mode.");
+      if (kuduSinkConfig.hasSchema()) {
+        configurer.getStageConfigurer().setOutputSchema(kuduSinkConfig.getSchema());
+      }
+    } else {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(kuduSinkConfig.optSchema), "Write schema is not specified. Please add" +
+        "the write schema.");
 
-    // Checks if that we are writing with has been constructed correctly.
-    Schema writeSchema = kuduSinkConfig.getSchema();
-    configurer.getStageConfigurer().setOutputSchema(writeSchema);
+      // Checks if that we are writing with has been constructed correctly.
+      Schema writeSchema = kuduSinkConfig.getSchema();
+      configurer.getStageConfigurer().setOutputSchema(writeSchema);
+    }
+    if (kuduSinkConfig.isFullRefresh()) {
+      // Spilled rows are replayed later, after the staging table is gone.
+      Preconditions.checkArgument(Strings.isNullOrEmpty(kuduSinkConfig.optSpillDir),
+                                  "Spilling is not supported in full refresh mode.");
+      // The table is replaced at the end of the run, so it is not created at deploy time.
+      return;
+    }
 
     // If there is macro specified for 'master' address or table name, then
     // we defer the creation of table to initialize.
@@ -110,7 +114,7 @@ public class KuduSink extends ReferenceBatchSink<StructuredRecord, NullWritable,
   }
 
   /**
-   * Prepares for the run by specific the provider that encapusulates {@link KuduTableOutputFormat}.
+   * Prepares for the run by specific the provider that encapusulates {@link KuduOutputFormat}.
    * @param context of runtime for this plugin.
    */
   @Override
@@ -118,291 +122,99 @@ public class KuduSink extends ReferenceBatchSink<StructuredRecord, NullWritable,
     // If there was a macro specified, then we attempt to create the
     // table here during initialization. If it's not a macro, then we
     // just open the the table and proceed.
-    createKuduTable();
-    context.addOutput(Output.of(kuduSinkConfig.referenceName, new KuduOutputFormatProvider(kuduSinkConfig)));
-  }
-
-  /**
-   * Initializes the plugin by initiating connection to Kudu using the client.
-   *
-   * @param context of the plugin.
-   */
-  @Override
-  public void initialize(BatchRuntimeContext context) throws Exception {
-    super.initialize(context);
-    // Parsing the schema should never fail here, because configure has validated it.
-    outputSchema = kuduSinkConfig.getSchema();
-    client = new KuduClient.KuduClientBuilder(kuduSinkConfig.getMasterAddress())
-      .defaultOperationTimeoutMs(kuduSinkConfig.getOperationTimeout())
-      .defaultAdminOperationTimeoutMs(kuduSinkConfig.getAdministrationTimeout())
-      .disableStatistics()
-      .bossCount(kuduSinkConfig.getThreads())
-      .build();
-
-    table = client.openTable(kuduSinkConfig.getTableName());
-  }
-
-  /**
-   * Transform the {@link StructuredRecord} into the Kudu operations.
-   *
-   * @param input A single {@link StructuredRecord} instance
-   * @param emitter for emitting records to Kudu Output format.
-   */
-  @Override
-  public void transform(StructuredRecord input, Emitter<KeyValue<NullWritable, Operation>> emitter) throws Exception {
-    Upsert upsert = table.newUpsert();
-    PartialRow row = upsert.getRow();
-    List<Schema.Field> fields = outputSchema.getFields();
-    for (Schema.Field field : fields) {
-      Object val = input.get(field.getName());
-      Schema schema = field.getSchema();
-      if (val != null) {
-        createKuduRow(row, field.getName(), schema, val);
-      }
+    String table = kuduSinkConfig.getTableName();
+    client = KuduClients.newClient(kuduSinkConfig);
+    if (kuduSinkConfig.isFullRefresh()) {
+      table = KuduStagingTable.getName(table, context.getLogicalStartTime());
+      KuduStagingTable.create(client, kuduSinkConfig, table);
+      KuduUtils.createKuduTable(client, kuduSinkConfig, table);
+    } else {
+      KuduUtils.createKuduTable(client, kuduSinkConfig);
     }
-    emitter.emit(new KeyValue<NullWritable, Operation>(NullWritable.get(), upsert));
+    context.addOutput(Output.of(kuduSinkConfig.referenceName, new KuduOutputFormatProvider(kuduSinkConfig, table)));
   }
 
   /**
-   * Called when the run is completed, release all the resources acquired during initialize.
-   *
-   * @param succeeded provides the status of the run.
-   * @param context context to this plugin.
+   * Swaps the staging table of a full refresh in place of the table if the run succeeded, else drops it, and
+   * releases the client of the driver.
    */
   @Override
   public void onRunFinish(boolean succeeded, BatchSinkContext context) {
+    super.onRunFinish(succeeded, context);
     try {
+      finishRun(succeeded, context);
+    } finally {
       if (client != null) {
-        client.close();
+        KuduClients.close(client);
+        client = null;
       }
-    } catch (KuduException e) {
-      LOG.warn("There was a problem closing kudu client. Reason : {}", e.getMessage());
     }
   }
 
-  @Override
-  public void destroy() {
-    super.destroy();
-  }
-
-  /**
-   * Creates a Kudu table if it doesn't exist.
-   */
-  private void createKuduTable() {
-    // Create a Kudu connection. A connection is attempted during the
-    // deployment of the pipeline that contains this plugin.
-    // NOTE: I am not sure if this is the right place for this to happen, but
-    // not sure if it's the right place during initialization to create the
-    // table if it doesn't exit.
-    KuduClient localClient = new KuduClient.KuduClientBuilder(kuduSinkConfig.getMasterAddress())
-      .defaultOperationTimeoutMs(kuduSinkConfig.getOperationTimeout())
-      .defaultAdminOperationTimeoutMs(kuduSinkConfig.getAdministrationTimeout())
-      .disableStatistics()
-      .bossCount(kuduSinkConfig.getThreads())
-      .build();
-
-    Schema writeSchema = kuduSinkConfig.getSchema();
-    // Check if the table exists, if table does not exist, then create one
-    // with schema defined in the write schema.
+  private void finishRun(boolean succeeded, BatchSinkContext context) {
+    if (!Strings.isNullOrEmpty(kuduSinkConfig.optSpillDir)) {
+      cleanupSpill();
+    }
+    if (!kuduSinkConfig.isFullRefresh()) {
+      return;
+    }
+    if (client == null) {
+      client = KuduClients.newClient(kuduSinkConfig);
+    }
+    String table = kuduSinkConfig.getTableName();
+    String staging = KuduStagingTable.getName(table, context.getLogicalStartTime());
+    if (!succeeded) {
+      KuduStagingTable.drop(client, staging);
+      return;
+    }
     try {
-      if (!localClient.tableExists(this.kuduSinkConfig.getTableName())) {
-        // Convert the writeSchema into Kudu schema.
-        List<ColumnSchema> columnSchemas = toKuduSchema(writeSchema, kuduSinkConfig.getColumns(),
-                                                        kuduSinkConfig.getCompression(), kuduSinkConfig.getEncoding());
-        org.apache.kudu.Schema kuduSchema = new org.apache.kudu.Schema(columnSchemas);
-        CreateTableOptions options = new CreateTableOptions();
-        options.setNumReplicas(kuduSinkConfig.getReplicas());
-        options.addHashPartitions(new ArrayList<>(kuduSinkConfig.getColumns()), kuduSinkConfig.getBuckets(), kuduSinkConfig.getSeed());
-
-        try {
-          KuduTable table =
-            localClient.createTable(kuduSinkConfig.getTableName(), kuduSchema, options);
-          LOG.info("Successfully create Kudu table '%s', Table ID '%s'", kuduSinkConfig.getTableName(), table.getTableId());
-        } catch (KuduException e) {
-          throw new RuntimeException(
-            String.format("Unable to create table '%s'. Reason : %s", kuduSinkConfig.getTableName(), e.getMessage())
-          );
-        }
-      } else {
-        // If the table exists in Kudu, compare the schema and make sure they are the same.
-        // If they are not the same then throw an exception.
-        KuduTable table = localClient.openTable(kuduSinkConfig.getTableName());
-        org.apache.kudu.Schema kuduSchema = table.getSchema();
-        checkSchemaCompatibility(kuduSchema, writeSchema);
-      }
+      KuduStagingTable.swap(client, kuduSinkConfig.getMasterAddress(), table, staging,
+                            kuduSinkConfig.isKeepPrevious());
     } catch (KuduException e) {
-      String msg = String.format("Unable to check if the table '%s' exists in kudu. Reason : %s",
-                                 kuduSinkConfig.getTableName(), e.getMessage());
-      LOG.warn(msg);
-      throw new RuntimeException(e);
-    } catch (TypeConversionException e) {
-      throw new RuntimeException(e.getMessage());
-    } finally {
-      if (localClient != null) {
-        try {
-          localClient.close();
-        } catch (KuduException e) {
-          LOG.warn("Failed to close kudu client connection. {}", e.getMessage());
-        }
-      }
-    }
-  }
-
-  /**
-   * Adds a field to the row from the {@link StructuredRecord}.
-   *
-   * @param row Kudu Row.
-   * @param name of the field.
-   * @param schema of the field.
-   * @param val to be added to the field.
-   */
-  private void createKuduRow(PartialRow row, String name, Schema schema, Object val) {
-    switch (schema.getType()) {
-      case BOOLEAN:
-        row.addBoolean(name, (Boolean) val);
-        break;
-      case INT:
-        row.addInt(name, (Integer) val);
-        break;
-      case LONG:
-        row.addLong(name, (Long) val);
-        break;
-      case FLOAT:
-        row.addFloat(name, (Float) val);
-        break;
-      case DOUBLE:
-        row.addDouble(name, (Double) val);
-        break;
-      case BYTES:
-        if (val instanceof ByteBuffer) {
-          row.addBinary(name, (ByteBuffer) val);
-        } else {
-          row.addBinary(name, (byte[]) val);
-        }
-        break;
-      case STRING:
-        row.addString(name, (String) val);
-        break;
-      case UNION: // Recursively drill down to find the type.
-        createKuduRow(row, name, schema.getNonNullable(), val);
-        break;
-      default:
-        throw new IllegalArgumentException(
-          "Field '" + name + "' is of unsupported type '" + schema.getType() + "' by Kudu."
-        );
+      throw new RuntimeException(
+        String.format("Unable to swap staging table '%s' in place of table '%s'. Reason : %s",
+                      staging, table, e.getMessage()), e
+      );
     }
   }
 
   /**
-   * Checks if Kudu Schema for an existing table is same as the write schema specified by the pipeline.
-   *
-   * @param kuduSchema field of Kudu schema.
-   * @param writeSchema fields of pipeline schema.
+   * Deletes the spill files of task attempts that died before committing them, whose rows were written again
+   * by another attempt or are lost with the failed run.
    */
-  private void checkSchemaCompatibility(org.apache.kudu.Schema kuduSchema, Schema writeSchema) {
-    if (kuduSchema.getColumns().size() != writeSchema.getFields().size()) {
-      throw new RuntimeException(
-        String.format("Kudu table schema and write schema do not have same number of columns. " +
-                        "Please fix schema and re-submit.")
-      );
-    }
-
-    // Iterate through all the field in the Kudu table.
-    for (org.apache.kudu.ColumnSchema kschema : kuduSchema.getColumns()) {
-      String kName = kschema.getName();
-      org.apache.kudu.Type kType = kschema.getType();
-
-      // Check if field name matches.
-      if (writeSchema.getField(kName) == null) {
-        throw new RuntimeException(
-          String.format("Kudu table '%s' has a field '%s' that does not exist in your write schema. Please" +
-                          "make the appropriate change and re-submit the pipeline.", kuduSinkConfig.optTableName,
-                        kName)
-        );
-      } else {
-        // If it matches, check if the type matches.
-        try {
-          if (!toKuduType(kName, writeSchema.getField(kName).getSchema()).equals(kType)) {
-            throw new RuntimeException(
-              String.format("Kudu table '%s' has a field '%s' that does not match the type in your write schema. " +
-                              "Please change the type of field '%s' and re-submit",
-                            kuduSinkConfig.getTableName(), kName, kName)
-            );
-          }
-        } catch (TypeConversionException e) {
-          throw new RuntimeException(
-            String.format("Kudu table '%s' has a field '%s' that has type that is not supported by kudu. Please" +
-                            "change the type of field '%s' to one supported by Kudu and re-submit",
-                          kuduSinkConfig.getTableName(), kName, kName)
-          );
-        }
-      }
+  private void cleanupSpill() {
+    Path dir = new Path(kuduSinkConfig.optSpillDir.trim(), kuduSinkConfig.getTableName());
+    try {
+      KuduSpillFile.cleanupAttempts(dir.getFileSystem(new Configuration()), dir);
+    } catch (IOException e) {
+      LOG.warn("Failed to delete uncommitted spill files in '{}'. Reason : {}", dir, e.getMessage());
     }
   }
 
   /**
-   * Convert from {@link co.cask.cdap.api.data.schema.Schema.Type} to {@link Type}.
+   * Passes the {@link StructuredRecord} on to the Kudu output format, which converts it into a Kudu operation.
    *
-   * @param schema {@link StructuredRecord} field schema.
-   * @return {@link Type} Kudu type.
-   * @throws TypeConversionException thrown when can't be converted.
+   * @param input A single {@link StructuredRecord} instance
+   * @param emitter for emitting records to Kudu Output format.
    */
-  private Type toKuduType(String name, Schema schema) throws TypeConversionException {
-    Schema.Type type = schema.getType();
-    if (type == Schema.Type.STRING) {
-      return Type.STRING;
-    } else if (type == Schema.Type.INT) {
-      return Type.INT32;
-    } else if (type == Schema.Type.LONG) {
-      return Type.INT64;
-    } else if (type == Schema.Type.BYTES) {
-      return Type.BINARY;
-    } else if (type == Schema.Type.DOUBLE) {
-      return Type.DOUBLE;
-    } else if (type == Schema.Type.FLOAT) {
-      return Type.FLOAT;
-    } else if (type == Schema.Type.BOOLEAN) {
-      return Type.BOOL;
-    } else if (type == Schema.Type.UNION) { // Recursively drill down into the non-nullable type.
-      return toKuduType(name, schema.getNonNullable());
-    } else {
-      throw new TypeConversionException(
-        String.format("Field '%s' is having a type '%s' that is not supported by Kudu. Please change the type.",
-                      name, type.toString())
-      );
-    }
+  @Override
+  public void transform(StructuredRecord input,
+                        Emitter<KeyValue<NullWritable, StructuredRecord>> emitter) throws Exception {
+    emitter.emit(new KeyValue<>(NullWritable.get(), input));
   }
 
   /**
-   * Converts from CDAP field types to Kudu types.
-   *
-   * @param schema CDAP Schema
-   * @param columns List of columns that are considered as keys
-   * @param algorithm Compression algorithm to be used for the column.
-   * @param encoding Encoding type
-   * @return List of {@link ColumnSchema}
-   * @throws TypeConversionException thrown when CDAP schema cannot be converted to Kudu Schema.
+   * Creates a Kudu table if it doesn't exist.
    */
-  private List<ColumnSchema> toKuduSchema(Schema schema, Set<String> columns,
-                                          ColumnSchema.CompressionAlgorithm algorithm,
-                                          ColumnSchema.Encoding encoding)
-    throws TypeConversionException {
-    List<ColumnSchema> columnSchemas = new ArrayList<>();
-    for (Schema.Field field : schema.getFields()) {
-      String name = field.getName();
-      Type kuduType = toKuduType(name, field.getSchema());
-      ColumnSchema.ColumnSchemaBuilder builder = new ColumnSchema.ColumnSchemaBuilder(name, kuduType);
-      if (field.getSchema().isNullable()) {
-        builder.nullable(true);
-      }
-      builder.encoding(encoding);
-      builder.compressionAlgorithm(algorithm);
-      if (columns.contains(name)) {
-        builder.key(true);
-      }
-      columnSchemas.add(builder.build());
+  private void createKuduTable() {
+    // The table metadata cache keeps repeated deploys of pipelines writing to the same table from going
+    // to the masters every time.
+    KuduClient client = KuduClients.newClient(kuduSinkConfig);
+    try {
+      KuduUtils.createKuduTable(client, kuduSinkConfig);
+    } finally {
+      KuduClients.close(client);
     }
-    return columnSchemas;
   }
 
   /**
@@ -412,17 +224,40 @@ public class KuduSink extends ReferenceBatchSink<StructuredRecord, NullWritable,
 
     private final Map<String, String> conf;
 
-    KuduOutputFormatProvider(KuduSinkConfig kuduSinkConfig) throws IOException {
+    KuduOutputFormatProvider(KuduSinkConfig kuduSinkConfig, String table) throws IOException {
       this.conf = new HashMap<>();
-      this.conf.put("kudu.mapreduce.master.addresses", kuduSinkConfig.getMasterAddress());
-      this.conf.put("kudu.mapreduce.output.table", kuduSinkConfig.getTableName());
-      this.conf.put("kudu.mapreduce.operation.timeout.ms", String.valueOf(kuduSinkConfig.getOperationTimeout()));
-      this.conf.put("kudu.mapreduce.buffer.row.count", kuduSinkConfig.optFlushRows);
+      this.conf.put(KuduOutputFormat.MASTER_ADDRESSES, kuduSinkConfig.getMasterAddress());
+      this.conf.put(KuduOutputFormat.OUTPUT_TABLE, table);
+      this.conf.put(KuduOutputFormat.OPERATION_TIMEOUT_MS, String.valueOf(kuduSinkConfig.getOperationTimeout()));
+      this.conf.put(KuduOutputFormat.ADMIN_TIMEOUT_MS, String.valueOf(kuduSinkConfig.getAdministrationTimeout()));
+      this.conf.put(KuduOutputFormat.BOSS_THREADS, String.valueOf(kuduSinkConfig.getThreads()));
+      this.conf.put(KuduOutputFormat.BUFFER_ROW_COUNT, String.valueOf(kuduSinkConfig.getWriteBufferRows()));
+      this.conf.put(KuduOutputFormat.WRITE_BUDGET_BYTES, String.valueOf(kuduSinkConfig.getWriteBudgetBytes()));
+      if (kuduSinkConfig.hasSchema()) {
+        this.conf.put(KuduOutputFormat.OUTPUT_SCHEMA, kuduSinkConfig.getSchema().toString());
+      }
+      this.conf.put(KuduOutputFormat.DYNAMIC_SCHEMA, String.valueOf(kuduSinkConfig.isDynamicSchema()));
+      this.conf.put(KuduOutputFormat.ADD_COLUMNS, String.valueOf(kuduSinkConfig.isAddColumns()));
+      // Staging tables start empty, so plain inserts are enough.
+      this.conf.put(KuduOutputFormat.OUTPUT_OPERATION, kuduSinkConfig.isFullRefresh() ? "insert" : "upsert");
+      this.conf.put(KuduOutputFormat.SKEW_THRESHOLD, String.valueOf(kuduSinkConfig.getSkewThreshold()));
+      this.conf.put(KuduOutputFormat.SKEW_FAIL, String.valueOf(kuduSinkConfig.isFailOnSkew()));
+      if (kuduSinkConfig.getSaltBuckets() > 0) {
+        this.conf.put(KuduOutputFormat.SALT_BUCKETS, String.valueOf(kuduSinkConfig.getSaltBuckets()));
+      }
+
+      // Spilling is enabled only when a spill directory is specified.
+      if (!Strings.isNullOrEmpty(kuduSinkConfig.optSpillDir)) {
+        this.conf.put(KuduOutputFormat.SPILL_DIR, kuduSinkConfig.optSpillDir.trim());
+        this.conf.put(KuduOutputFormat.SPILL_THRESHOLD, String.valueOf(kuduSinkConfig.getSpillThreshold()));
+        this.conf.put(KuduOutputFormat.SPILL_MAX_BYTES, String.valueOf(kuduSinkConfig.getSpillMaxBytes()));
+        this.conf.put(KuduOutputFormat.SPILL_MAX_MS, String.valueOf(kuduSinkConfig.getSpillMaxTimeMs()));
+      }
     }
 
     @Override
     public String getOutputFormatClassName() {
-      return KuduTableOutputFormat.class.getName();
+      return KuduOutputFormat.class.getName();
     }
 
     @Override
@@ -25,6 +25,9 @@ import org.apache.kudu.ColumnSchema;
 
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nullable;
 
@@ -46,7 +49,8 @@ public class KuduSinkConfig extends ReferencePluginConfig {
   public String optMasterAddresses;
 
   @Name("schema")
-  @Description("Output schema for the kudu table.")
+  @Description("Output schema for the kudu table. Optional in dynamic schema mode when the table exists.")
+  @Nullable
   @Macro
   public String optSchema;
 
@@ -103,6 +107,104 @@ public class KuduSinkConfig extends ReferencePluginConfig {
   @Nullable
   private String optBossThreads;
 
+  @Name("spill-dir")
+  @Description("Local or HDFS directory where rows are spilled while Kudu is unavailable. " +
+    "Spilling is disabled when not specified.")
+  @Nullable
+  @Macro
+  public String optSpillDir;
+
+  @Name("spill-threshold")
+  @Description("Number of consecutive failed flushes before the rows are spilled. Default is 1.")
+  @Nullable
+  public String optSpillThreshold;
+
+  @Name("spill-max-size")
+  @Description("Maximum size in megabytes of rows spilled by a task before it fails. Default is 1024 MB.")
+  @Nullable
+  public String optSpillMaxSizeMb;
+
+  @Name("spill-max-time")
+  @Description("Maximum time in seconds a task keeps spilling rows before it fails. Default is 1800 seconds.")
+  @Nullable
+  public String optSpillMaxTimeSecs;
+
+  @Name("bulk-load")
+  @Description("Set to 'true' for initial loads. A new table is created pre-split into range partitions computed " +
+    "from the key histogram and rows are written with a larger buffer. Default is 'false'.")
+  @Nullable
+  public String optBulkLoad;
+
+  @Name("range-column")
+  @Description("Key column used for range partitioning the table created in bulk-load mode.")
+  @Nullable
+  public String optRangeColumn;
+
+  @Name("key-histogram")
+  @Description("Comma separated sample of range column values, each optionally followed by ':<count>', " +
+    "used to compute the range split points in bulk-load mode.")
+  @Nullable
+  @Macro
+  public String optKeyHistogram;
+
+  @Name("range-partitions")
+  @Description("Number of range partitions to create in bulk-load mode. Default is 8.")
+  @Nullable
+  public String optRangePartitions;
+
+  @Name("bulk-row-flush")
+  @Description("Number of rows that are buffered before flushing in bulk-load mode. Default is 10000.")
+  @Nullable
+  public String optBulkFlushRows;
+
+  @Name("salt-buckets")
+  @Description("Number of salt values. When greater than 0, the table is created with an additional salt key column " +
+    "that is part of the hash partitioning and is computed from a hash of the key fields of every row, so that " +
+    "writing a key again replaces the same row. Default is 0.")
+  @Nullable
+  public String optSaltBuckets;
+
+  @Name("skew-threshold")
+  @Description("Ratio of the writes to the busiest tablet to the average writes per tablet, above which " +
+    "the writes are considered skewed. 0 disables the check. Default is 4.")
+  @Nullable
+  public String optSkewThreshold;
+
+  @Name("skew-action")
+  @Description("Action to take when the writes are skewed, either 'warn' or 'fail'. Default is 'warn'.")
+  @Nullable
+  public String optSkewAction;
+
+  @Name("dynamic-schema")
+  @Description("Set to 'true' to write every record with its own schema, mapping its fields to the columns of " +
+    "the table by name. Columns missing from a record are left unset. Default is 'false'.")
+  @Nullable
+  public String optDynamicSchema;
+
+  @Name("add-columns")
+  @Description("Set to 'true' to add the fields of records that are not columns of the table as nullable " +
+    "columns in dynamic schema mode, else they are not written. Default is 'false'.")
+  @Nullable
+  public String optAddColumns;
+
+  @Name("write-budget")
+  @Description("Size in megabytes of the rows buffered by all the Kudu sink tasks running in the same JVM, " +
+    "beyond which they flush early or wait. 0 disables the budget. Defaults to a quarter of the heap.")
+  @Nullable
+  public String optWriteBudgetMb;
+
+  @Name("full-refresh")
+  @Description("Set to 'true' to load the rows into a new staging table, which replaces the table once the " +
+    "run succeeds. Default is 'false'.")
+  @Nullable
+  public String optFullRefresh;
+
+  @Name("keep-previous")
+  @Description("Set to 'true' to keep the table replaced by a full refresh as '<name>__previous', for rollback. " +
+    "Default is 'false'.")
+  @Nullable
+  public String optKeepPrevious;
+
   public KuduSinkConfig(ColumnSchema.CompressionAlgorithm compression) {
     this("kudu");
   }
@@ -212,6 +314,25 @@ public class KuduSinkConfig extends ReferencePluginConfig {
     }
   }
 
+  /**
+   * @return Schema of the Kudu table, which is the write schema with the salt column when salting is enabled.
+   */
+  public Schema getTableSchema() {
+    Schema schema = getSchema();
+    return (getSaltBuckets() > 0) ? KuduUtils.withSaltColumn(schema) : schema;
+  }
+
+  /**
+   * @return Key columns of the Kudu table, including the salt column when salting is enabled.
+   */
+  public Set<String> getKeyColumns() {
+    Set<String> columns = getColumns();
+    if (getSaltBuckets() > 0) {
+      columns.add(KuduUtils.SALT_COLUMN);
+    }
+    return columns;
+  }
+
   /**
    * @return Number of replicas of a table on tablet servers.
    */
@@ -260,4 +381,149 @@ public class KuduSinkConfig extends ReferencePluginConfig {
   public int getThreads() {
     return (optBossThreads != null) ? Integer.parseInt(optBossThreads) : 1;
   }
+
+  /**
+   * @return Number of consecutive failed flushes before the rows are spilled.
+   */
+  public int getSpillThreshold() {
+    return (optSpillThreshold != null) ? Integer.parseInt(optSpillThreshold) : 1;
+  }
+
+  /**
+   * @return Maximum number of bytes spilled by a task.
+   */
+  public long getSpillMaxBytes() {
+    return ((optSpillMaxSizeMb != null) ? Long.parseLong(optSpillMaxSizeMb) : 1024) * 1024 * 1024;
+  }
+
+  /**
+   * @return Maximum time in milliseconds a task keeps spilling.
+   */
+  public long getSpillMaxTimeMs() {
+    return ((optSpillMaxTimeSecs != null) ? Long.parseLong(optSpillMaxTimeSecs) : 1800) * 1000;
+  }
+
+  /**
+   * @return true if the sink is used for an initial bulk load.
+   */
+  public boolean isBulkLoad() {
+    return Boolean.parseBoolean(optBulkLoad);
+  }
+
+  /**
+   * @return Column used for range partitioning, null if not specified.
+   */
+  @Nullable
+  public String getRangeColumn() {
+    return (optRangeColumn == null || optRangeColumn.trim().isEmpty()) ? null : optRangeColumn.trim();
+  }
+
+  /**
+   * @return Key values of the histogram mapped to their counts, in the order specified.
+   */
+  public Map<String, Long> getKeyHistogram() {
+    Map<String, Long> histogram = new LinkedHashMap<>();
+    if (optKeyHistogram == null) {
+      return histogram;
+    }
+    for (String entry : optKeyHistogram.split(",")) {
+      if (entry.trim().isEmpty()) {
+        continue;
+      }
+      String value = entry;
+      long count = 1;
+      int idx = entry.lastIndexOf(':');
+      if (idx > 0) {
+        try {
+          count = Long.parseLong(entry.substring(idx + 1).trim());
+          value = entry.substring(0, idx);
+        } catch (NumberFormatException e) {
+          // The colon is part of the value.
+        }
+      }
+      Long existing = histogram.get(value);
+      histogram.put(value, existing == null ? count : existing + count);
+    }
+    return histogram;
+  }
+
+  /**
+   * @return Number of range partitions to be created in bulk-load mode.
+   */
+  public int getRangePartitions() {
+    return (optRangePartitions != null) ? Integer.parseInt(optRangePartitions) : 8;
+  }
+
+  /**
+   * @return Number of rows to be buffered before being flushed, depending on the mode.
+   */
+  public int getWriteBufferRows() {
+    if (isBulkLoad() || isFullRefresh()) {
+      return (optBulkFlushRows != null) ? Integer.parseInt(optBulkFlushRows) : 10000;
+    }
+    return getCacheRowCount();
+  }
+
+  /**
+   * @return Number of salt values, 0 when salting is disabled.
+   */
+  public int getSaltBuckets() {
+    return (optSaltBuckets != null) ? Integer.parseInt(optSaltBuckets) : 0;
+  }
+
+  /**
+   * @return Skew ratio above which the writes are considered skewed, 0 when disabled.
+   */
+  public double getSkewThreshold() {
+    return (optSkewThreshold != null) ? Double.parseDouble(optSkewThreshold) : 4.0;
+  }
+
+  /**
+   * @return true if the write should fail when the writes are skewed.
+   */
+  public boolean isFailOnSkew() {
+    return "fail".equalsIgnoreCase(optSkewAction);
+  }
+
+  /**
+   * @return true if records are written with their own schema rather than the configured one.
+   */
+  public boolean isDynamicSchema() {
+    return Boolean.parseBoolean(optDynamicSchema);
+  }
+
+  /**
+   * @return true if fields of records that are not columns of the table are added to it.
+   */
+  public boolean isAddColumns() {
+    return Boolean.parseBoolean(optAddColumns);
+  }
+
+  /**
+   * @return true if the write schema is specified.
+   */
+  public boolean hasSchema() {
+    return optSchema != null && !optSchema.trim().isEmpty();
+  }
+
+  /**
+   * @return true if the rows are loaded into a staging table that replaces the table on success.
+   */
+  public boolean isFullRefresh() {
+    return Boolean.parseBoolean(optFullRefresh);
+  }
+
+  /**
+   * @return true if the table replaced by a full refresh is kept for rollback.
+   */
+  public boolean isKeepPrevious() {
+    return Boolean.parseBoolean(optKeepPrevious);
+  }
+
+  /**
+   * @return Size in bytes of the write budget of the JVM, 0 when disabled, -1 to size it from the heap.
+   */
+  public long getWriteBudgetBytes() {
+    return (optWriteBudgetMb != null) ? Long.parseLong(optWriteBudgetMb) * 1024 * 1024 : -1;
+  }
 }
@@ -29,13 +29,10 @@ import co.cask.cdap.etl.api.batch.BatchSource;
 import co.cask.cdap.etl.api.batch.BatchSourceContext;
 import co.cask.hydrator.common.ReferenceBatchSource;
 import co.cask.hydrator.common.ReferencePluginConfig;
-import org.apache.hadoop.io.NullWritable;
-import org.apache.kudu.ColumnSchema;
-import org.apache.kudu.Type;
+import com.google.common.base.Joiner;
+import org.apache.hadoop.io.Text;
 import org.apache.kudu.client.KuduClient;
 import org.apache.kudu.client.KuduException;
-import org.apache.kudu.client.KuduTable;
-import org.apache.kudu.client.RowResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,11 +48,11 @@ import javax.ws.rs.Path;
 @Plugin(type = BatchSource.PLUGIN_TYPE)
 @Name("Kudu")
 @Description("Plugin for reading data from Apache KuduSource.")
-public class KuduSource extends ReferenceBatchSource<NullWritable, RowResult, StructuredRecord> {
+public class KuduSource extends ReferenceBatchSource<Text, StructuredRecord, StructuredRecord> {
   private static final Logger LOG = LoggerFactory.getLogger(KuduSource.class);
+  // Runtime argument set to the primary key columns ordering the rows of every split in ordered mode, by stage name.
+  static final String ORDERING_ARGUMENT = "kudu.source.%s.ordering";
   private final KuduSourceConfig kuduSourceConfig;
-  private Schema schema;
-  private final static int MASK = 0xff;
 
   public KuduSource(KuduSourceConfig kuduSourceConfig) {
     super(new ReferencePluginConfig(kuduSourceConfig.referenceName));
@@ -70,58 +67,26 @@ public class KuduSource extends ReferenceBatchSource<NullWritable, RowResult, St
 
   @Override
   public void prepareRun(BatchSourceContext context) throws Exception {
-    context.setInput(Input.of(kuduSourceConfig.referenceName, new KuduInputFormatProvider(kuduSourceConfig)));
+    KuduInputFormatProvider provider = new KuduInputFormatProvider(kuduSourceConfig);
+    if (kuduSourceConfig.isOrdered()) {
+      // Published as a runtime argument of the run, which the stages that follow can read or use as a macro.
+      String ordering = Joiner.on(',').join(KuduInputFormat.getOrdering(provider.getInputFormatConfiguration()));
+      context.setRuntimeArgument(String.format(ORDERING_ARGUMENT, context.getStageName()), ordering, true);
+      LOG.info("Kudu source '{}' reads every tablet in its own split, with the rows of each split ordered by {}.",
+               kuduSourceConfig.referenceName, ordering);
+    }
+    context.setInput(Input.of(kuduSourceConfig.referenceName, provider));
   }
 
   /**
-   * Convert the row type from {@link RowResult} to {@link StructuredRecord}.
+   * Emits the record decoded by the record reader.
    *
-   * @param input record read from the Kudu source.
+   * @param input record read from the Kudu source, keyed by the name of its table.
    * @param emitter to emit the structured record.
    */
   @Override
-  public void transform(KeyValue<NullWritable, RowResult> input, Emitter<StructuredRecord> emitter) throws Exception {
-    RowResult result = input.getValue();
-
-    // Extract the schema from the result.
-    org.apache.kudu.Schema kSchema = result.getSchema();
-    StructuredRecord.Builder record = StructuredRecord.builder(kuduSourceConfig.getSchema());
-
-    // Iterate through each column in the result and convert it to CDAP type.
-    for (ColumnSchema column : kSchema.getColumns()) {
-      Type type = column.getType();
-      String name = column.getName();
-      if (result.isNull(name)) {
-        record.set(name, null);
-      } else {
-        if (type == Type.BINARY) {
-          record.set(name, result.getBinaryCopy(name));
-        } else if (type == Type.BOOL) {
-          record.set(name, result.getBoolean(name));
-        } else if (type == Type.DOUBLE) {
-          record.set(name, result.getDouble(name));
-        } else if (type == Type.FLOAT) {
-          record.set(name, result.getFloat(name));
-        } else if (type == Type.INT32) {
-          record.set(name, result.getInt(name));
-        } else if (type == Type.INT64) {
-          record.set(name, result.getLong(name));
-        } else if (type == Type.INT16) {
-          record.set(name, (int) result.getShort(name));
-        } else if (type == Type.INT8) {
-          record.set(name, (int) (result.getByte(name) & MASK));
-        } else if (type == Type.STRING) {
-          record.set(name, result.getString(name));
-        } else {
-          throw new Exception(
-            String.format("Unsupported type '%s', field '%s'", type.toString(), name)
-          );
-        }
-      }
-    }
-
-    // Emit the structured record.
-    emitter.emit(record.build());
+  public void transform(KeyValue<Text, StructuredRecord> input, Emitter<StructuredRecord> emitter) throws Exception {
+    emitter.emit(input.getValue());
   }
 
   /**
@@ -138,6 +103,52 @@ public class KuduSource extends ReferenceBatchSource<NullWritable, RowResult, St
     public String columns;
   }
 
+  /**
+   * Request object for profiling the Kudu table.
+   */
+  class ProfileRequest {
+    // Specifies the master list of servers.
+    public String master;
+
+    // Name of the table.
+    public String name;
+
+    // Maximum number of rows sampled from each tablet for the column statistics.
+    public Integer sampleRows;
+
+    // Maximum number of rows counted in each tablet.
+    public Long maxCountRows;
+  }
+
+  /**
+   * Returns the partitioning of the Kudu table, the size and replicas of its tablets and estimates of
+   * the values of its columns, based on the configuration specified in {@link ProfileRequest}.
+   *
+   * @param request containing information to connect to Kudu and the bounds of the scans.
+   * @return {@link KuduTableProfile} of the table.
+   */
+  @Path("getTableProfile")
+  public KuduTableProfile getTableProfile(ProfileRequest request) throws Exception {
+    // Endpoints run in the CDAP master, whose JVM outlives the plugin, so the client is not shared.
+    KuduClient client = KuduClients.newClient(request.master, 10000, 10000, 1);
+    try {
+      if (!client.tableExists(request.name)) {
+        throw new IllegalArgumentException(
+          String.format("Table '%s' specified in the configuration does not exist.", request.name)
+        );
+      }
+      return KuduTableProfile.profile(client, client.openTable(request.name),
+                                      request.sampleRows == null ? 1000 : request.sampleRows,
+                                      request.maxCountRows == null ? 1000000L : request.maxCountRows, 60000);
+    } catch (KuduException e) {
+      throw new Exception(
+        String.format("Unable to connect to Kudu to profile table '%s'. %s", request.name, e.getMessage())
+      );
+    } finally {
+      KuduClients.close(client);
+    }
+  }
+
   /**
    * Returns the Kudu table schema based on the configuration specified in {@link Request}
    *
@@ -161,71 +172,42 @@ public class KuduSource extends ReferenceBatchSource<NullWritable, RowResult, St
       }
     }
 
-    // Configure the connection to client.
-    KuduClient client = new KuduClient.KuduClientBuilder(request.master)
-      .defaultAdminOperationTimeoutMs(10000)
-      .disableStatistics()
-      .build();
+    // When several tables are read, the schema is the one of the first table.
+    String table = request.name.split(",")[0].trim();
 
+    // Served from the metadata cache, which is shared with the validation of the pipelines and only goes to the
+    // masters once an entry expires or a schema mismatch invalidates it.
     try {
+      KuduMetadataCache.TableMetadata metadata = KuduMetadataCache.getIfPresent(request.master, table);
+      if (metadata == null) {
+        // Endpoints run in the CDAP master, whose JVM outlives the plugin, so the client is not shared.
+        KuduClient client = KuduClients.newClient(request.master, 10000, 10000, 1);
+        try {
+          metadata = KuduMetadataCache.get(client, request.master, table);
+        } finally {
+          KuduClients.close(client);
+        }
+      }
       // Check if the table doesn't exist. If the table doesn't exit, then there is nothing
       // much we can do.
-      if (!client.tableExists(request.name)) {
+      if (metadata == null) {
         throw new IllegalArgumentException(
-          String.format("Table '%s' specified in the configuration does not exist.", request.name)
+          String.format("Table '%s' specified in the configuration does not exist.", table)
         );
       } else {
-        // Open the table, extract schema and map it to CDAP schema.
-        KuduTable table = client.openTable(request.name);
-        org.apache.kudu.Schema schema = table.getSchema();
-        List<ColumnSchema> columns = schema.getColumns();
+        // Use the CDAP schema of the table precomputed by the cache.
         List<Schema.Field> fields = new ArrayList<>();
 
         // Iterate through each column coming from the Kudu table.
         // Check if it's available in the projection list, iff it's not '*'.
-        for (ColumnSchema column : columns) {
-          String kName = column.getName();
-
+        for (Schema.Field field : metadata.getCdapSchema().getFields()) {
           // If projection is not for all fields, then filter out the fields
           // in the list.
           if (!isStar) {
-            if (!columnFilter.contains(kName.toLowerCase().trim())) {
+            if (!columnFilter.contains(field.getName().toLowerCase().trim())) {
               continue;
             }
           }
-
-          Type kType = column.getType();
-          boolean kNullable = column.isNullable();
-
-          // Convert the types to CDAP schema.
-          Schema.Type type = Schema.Type.STRING;
-          if (kType == Type.STRING) {
-            type = Schema.Type.STRING;
-          } else if (kType == Type.DOUBLE) {
-            type = Schema.Type.DOUBLE;
-          } else if (kType == Type.FLOAT) {
-            type = Schema.Type.FLOAT;
-          } else if (kType == Type.BINARY) {
-            type = Schema.Type.BYTES;
-          } else if (kType == Type.BOOL) {
-            type = Schema.Type.BOOLEAN;
-          } else if (kType == Type.INT32) {
-            type = Schema.Type.INT;
-          } else if (kType == Type.INT64) {
-            type = Schema.Type.LONG;
-          } else if (kType == Type.INT16) {
-            type = Schema.Type.INT;
-          } else if (kType == Type.INT8) {
-            type = Schema.Type.INT;
-          }
-          // Make sure we set the field to nullable or not.
-          Schema fieldType = null;
-          if (kNullable) {
-            fieldType = Schema.nullableOf(Schema.of(type));
-          } else {
-            fieldType = Schema.of(type);
-          }
-          Schema.Field field = Schema.Field.of(kName, fieldType);
           fields.add(field);
         }
         return Schema.recordOf("output", fields);
@@ -233,17 +215,13 @@ public class KuduSource extends ReferenceBatchSource<NullWritable, RowResult, St
     } catch (KuduException e) {
       throw new Exception(
         String.format("Unable to connect to Kudu to extract information for table '%s'. %s",
-                      request.name, e.getMessage())
+                      table, e.getMessage())
       );
     } catch (Exception e) {
       throw new Exception(
         String.format("Something unexpected happened while getting table '%s' schema. %s",
-                      request.name, e.getMessage())
+                      table, e.getMessage())
       );
-    } finally {
-      if (client != null) {
-        client.close();
-      }
     }
   }
 }
@@ -25,6 +25,8 @@ import com.google.common.base.Strings;
 import org.apache.kudu.client.shaded.com.google.common.base.Preconditions;
 
 import java.io.IOException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.annotation.Nullable;
 
 /**
@@ -43,7 +45,8 @@ public final class KuduSourceConfig extends PluginConfig {
   public String optMasterAddresses;
 
   @Name("name")
-  @Description("Name of the Kudu table.")
+  @Description("Comma separated list of the Kudu tables to be read. Optional when a table pattern is specified.")
+  @Nullable
   @Macro
   public String optTableName;
 
@@ -53,6 +56,26 @@ public final class KuduSourceConfig extends PluginConfig {
 
   // Optional Fields
 
+  @Name("table-pattern")
+  @Description("Regular expression of the names of the Kudu tables to be read, in addition to the listed ones. " +
+    "All the tables must have the projected columns, with the same types and nullability.")
+  @Nullable
+  @Macro
+  public String optTablePattern;
+
+  @Name("table-name-field")
+  @Description("Field of the output schema to be set to the name of the table each record was read from. " +
+    "The field must be a nullable string.")
+  @Nullable
+  public String optTableNameField;
+
+  @Name("max-splits")
+  @Description("Maximum number of splits, across which the tablets of all the tables are packed. Defaults to 0, " +
+    "which reads every tablet in its own split.")
+  @Nullable
+  @Macro
+  public String optMaxSplits;
+
   @Name("columns")
   @Description("Columns to be projected from the table")
   @Nullable
@@ -63,6 +86,78 @@ public final class KuduSourceConfig extends PluginConfig {
   @Nullable
   public String optOperationTimeout;
 
+  @Name("count-rows")
+  @Description("Average number of rows counted per tablet to estimate the size of the splits, which are then " +
+    "read largest first. Small tablets are counted exactly and the rest goes to the large ones. Defaults to 0, " +
+    "which doesn't count the rows.")
+  @Nullable
+  @Macro
+  public String optCountRows;
+
+  @Name("ordered")
+  @Description("Set to 'true' to read every tablet in its own split and return its rows in primary key order. The " +
+    "key columns are published as the runtime argument 'kudu.source.<stage>.ordering'. Defaults to 'false'.")
+  @Nullable
+  public String optOrdered;
+
+  @Name("ordered-max-rows")
+  @Description("Maximum number of rows of a tablet sorted in memory in ordered mode, beyond which sorted runs are " +
+    "spilled to local disk and merged. Defaults to 1000000.")
+  @Nullable
+  @Macro
+  public String optOrderedMaxRows;
+
+  @Name("limit")
+  @Description("Approximate maximum number of rows to be read, shared by the tablets. Fewer rows are returned " +
+    "when the tablets read by a task hold fewer rows than its share. Defaults to 0, which reads all the rows.")
+  @Nullable
+  @Macro
+  public String optLimit;
+
+  @Name("sample-rows")
+  @Description("Number of rows to be read from each tablet, for a sample stratified by tablet. " +
+    "Defaults to 0, which reads all the rows of each tablet.")
+  @Nullable
+  @Macro
+  public String optSampleRows;
+
+  @Name("sample-fraction")
+  @Description("Fraction of the rows of each tablet, between 0 and 1, to be read. Tablets are counted first, and " +
+    "each of them is read up to its share of the rows. Defaults to 1, which reads all the rows.")
+  @Nullable
+  @Macro
+  public String optSampleFraction;
+
+  @Name("zero-copy-binary")
+  @Description("Set to 'true' to read binary columns as read-only byte buffers over the rows returned by Kudu, " +
+    "rather than copying every value. Defaults to 'false'.")
+  @Nullable
+  public String optZeroCopyBinary;
+
+  @Name("hedged-scans")
+  @Description("Set to 'true' to request the batches of rows that the leader of a tablet is slow to return from " +
+    "a follower too, and to read a scan failing mid-scan again from the other replica. Both replicas read the same " +
+    "snapshot of the table. Needs the primary key to be projected. Defaults to 'false'.")
+  @Nullable
+  public String optHedgedScans;
+
+  @Name("hedge-delay")
+  @Description("Time in milliseconds after which a batch is hedged. Defaults to 0, which uses a percentile of the " +
+    "latencies of the batches.")
+  @Nullable
+  public String optHedgeDelayMs;
+
+  @Name("hedge-percentile")
+  @Description("Percentile of the latencies of the batches after which a batch is hedged, when no delay is " +
+    "specified. Defaults to 95.")
+  @Nullable
+  public String optHedgePercentile;
+
+  @Name("hedge-max-fraction")
+  @Description("Maximum fraction of the batches that are hedged, which bounds the extra load. Defaults to 0.05.")
+  @Nullable
+  public String optHedgeMaxFraction;
+
   /**
    * Validates the configuration fields.
    *
@@ -74,10 +169,164 @@ public final class KuduSourceConfig extends PluginConfig {
                                   "Kudu Master Server address list is empty.");
     }
 
-    if (! containsMacro("table")) {
-      Preconditions.checkArgument(!Strings.isNullOrEmpty(optTableName),
+    if (!containsMacro("name") && !containsMacro("table-pattern")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optTableName) || !Strings.isNullOrEmpty(optTablePattern),
                                   "Kudu Table is not specified.");
     }
+
+    if (!containsMacro("table-pattern") && !Strings.isNullOrEmpty(optTablePattern)) {
+      try {
+        Pattern.compile(optTablePattern.trim());
+      } catch (PatternSyntaxException e) {
+        throw new IllegalArgumentException(
+          String.format("Invalid table pattern '%s'. Reason : %s", optTablePattern, e.getMessage())
+        );
+      }
+    }
+
+    if (getTableNameField() != null) {
+      Schema.Field field = getSchema().getField(getTableNameField());
+      Preconditions.checkArgument(field != null, "Table name field '%s' is not in the output schema.",
+                                  getTableNameField());
+      Schema fieldSchema = field.getSchema().isNullable() ? field.getSchema().getNonNullable() : field.getSchema();
+      Preconditions.checkArgument(fieldSchema.getType() == Schema.Type.STRING,
+                                  "Table name field '%s' must be a string.", getTableNameField());
+    }
+
+    if (!containsMacro("max-splits")) {
+      Preconditions.checkArgument(getMaxSplits() >= 0, "Maximum number of splits must not be negative.");
+    }
+
+    if (isOrdered()) {
+      Preconditions.checkArgument(containsMacro("max-splits") || getMaxSplits() == 0,
+                                  "Tablets cannot be packed into splits when rows are read in key order.");
+      if (!containsMacro("ordered-max-rows")) {
+        Preconditions.checkArgument(getOrderedMaxRows() > 0, "Maximum number of rows sorted must be positive.");
+      }
+    }
+
+    if (!containsMacro("count-rows")) {
+      Preconditions.checkArgument(getCountRows() >= 0, "Rows counted per tablet must not be negative.");
+    }
+
+    if (!containsMacro("limit")) {
+      Preconditions.checkArgument(getLimit() >= 0, "Limit must not be negative.");
+    }
+
+    if (!containsMacro("sample-rows")) {
+      Preconditions.checkArgument(getSampleRows() >= 0, "Sample rows per tablet must not be negative.");
+    }
+
+    if (!containsMacro("sample-fraction")) {
+      double fraction = getSampleFraction();
+      Preconditions.checkArgument(fraction > 0 && fraction <= 1,
+                                  "Sample fraction must be greater than 0 and at most 1.");
+    }
+
+    Preconditions.checkArgument(getHedgeDelayMs() >= 0, "Hedge delay must not be negative.");
+    Preconditions.checkArgument(getHedgePercentile() > 0 && getHedgePercentile() < 100,
+                                "Hedge percentile must be between 0 and 100.");
+    Preconditions.checkArgument(getHedgeMaxFraction() >= 0 && getHedgeMaxFraction() <= 1,
+                                "Hedge fraction must be between 0 and 1.");
+  }
+
+  /**
+   * @return Operation timeout in milliseconds.
+   */
+  public int getOperationTimeout() {
+    return Strings.isNullOrEmpty(optOperationTimeout) ? 10000 : Integer.parseInt(optOperationTimeout);
+  }
+
+  /**
+   * @return Field set to the name of the table of each record, null if there is none.
+   */
+  @Nullable
+  public String getTableNameField() {
+    return Strings.isNullOrEmpty(optTableNameField) ? null : optTableNameField.trim();
+  }
+
+  /**
+   * @return Maximum number of splits, 0 for one split per tablet.
+   */
+  public int getMaxSplits() {
+    return Strings.isNullOrEmpty(optMaxSplits) ? 0 : Integer.parseInt(optMaxSplits);
+  }
+
+  /**
+   * @return Average number of rows counted per tablet to estimate split sizes, 0 when sizes are not estimated.
+   */
+  public long getCountRows() {
+    return Strings.isNullOrEmpty(optCountRows) ? 0 : Long.parseLong(optCountRows);
+  }
+
+  /**
+   * @return true if every tablet is read in its own split, in primary key order.
+   */
+  public boolean isOrdered() {
+    return Boolean.parseBoolean(optOrdered);
+  }
+
+  /**
+   * @return Maximum number of rows of a tablet sorted in memory in ordered mode, before spilling to local disk.
+   */
+  public long getOrderedMaxRows() {
+    return Strings.isNullOrEmpty(optOrderedMaxRows) ? 1000000 : Long.parseLong(optOrderedMaxRows);
+  }
+
+  /**
+   * @return Maximum number of rows to be read, 0 when there is no limit.
+   */
+  public long getLimit() {
+    return Strings.isNullOrEmpty(optLimit) ? 0 : Long.parseLong(optLimit);
+  }
+
+  /**
+   * @return Number of rows to be read from each tablet, 0 when all the rows are read.
+   */
+  public long getSampleRows() {
+    return Strings.isNullOrEmpty(optSampleRows) ? 0 : Long.parseLong(optSampleRows);
+  }
+
+  /**
+   * @return Fraction of the rows to be sampled.
+   */
+  public double getSampleFraction() {
+    return Strings.isNullOrEmpty(optSampleFraction) ? 1.0 : Double.parseDouble(optSampleFraction);
+  }
+
+  /**
+   * @return true if binary values are read-only views over the rows returned by Kudu.
+   */
+  public boolean isZeroCopyBinary() {
+    return Boolean.parseBoolean(optZeroCopyBinary);
+  }
+
+  /**
+   * @return true if slow batches are hedged on a follower.
+   */
+  public boolean isHedgedScans() {
+    return Boolean.parseBoolean(optHedgedScans);
+  }
+
+  /**
+   * @return Time in milliseconds after which a batch is hedged, 0 to use the percentile of the latencies.
+   */
+  public long getHedgeDelayMs() {
+    return Strings.isNullOrEmpty(optHedgeDelayMs) ? 0 : Long.parseLong(optHedgeDelayMs);
+  }
+
+  /**
+   * @return Percentile of the batch latencies after which a batch is hedged.
+   */
+  public int getHedgePercentile() {
+    return Strings.isNullOrEmpty(optHedgePercentile) ? 95 : Integer.parseInt(optHedgePercentile);
+  }
+
+  /**
+   * @return Maximum fraction of the batches that are hedged.
+   */
+  public double getHedgeMaxFraction() {
+    return Strings.isNullOrEmpty(optHedgeMaxFraction) ? 0.05 : Double.parseDouble(optHedgeMaxFraction);
   }
 
   /**
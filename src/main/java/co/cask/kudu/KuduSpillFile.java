@@ -0,0 +1,394 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.OperationResponse;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowError;
+import org.apache.kudu.client.SessionConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Length-prefixed binary file holding the rows that could not be written to Kudu.
+ *
+ * <p>
+ *   The file starts with a header containing the operation type and the write schema, followed by
+ *   one length-prefixed entry per row. Each field of the write schema is encoded as a null marker
+ *   followed by the value in its fixed width or length-prefixed form. Rows are replayed in the order
+ *   they were appended. An entry cut short by a crash while it was being written ends the file.
+ * </p>
+ */
+final class KuduSpillFile {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduSpillFile.class);
+
+  static final String EXTENSION = ".spill";
+
+  private static final int MAGIC = 0x4b535031;
+
+  // Directory of the spill directory of a table holding the files of the running task attempts.
+  static final String ATTEMPTS_DIR = "_attempts";
+
+  private KuduSpillFile() {
+  }
+
+  /**
+   * @return Directory of the spill files of a task attempt, which are not replayed until committed.
+   */
+  static Path getAttemptDir(Path spillDir, String attempt) {
+    return new Path(new Path(spillDir, ATTEMPTS_DIR), attempt);
+  }
+
+  /**
+   * Moves the spill files of a completed attempt into the spill directory of the table, in their order,
+   * and removes the directory of the attempt.
+   */
+  static void commit(FileSystem fs, Path attemptDir, Path spillDir, String attempt) throws IOException {
+    for (Path path : list(fs, attemptDir)) {
+      Path target = new Path(spillDir, attempt + "-" + path.getName());
+      if (!fs.rename(path, target)) {
+        throw new IOException(String.format("Unable to commit spill file '%s' to '%s'.", path, target));
+      }
+    }
+    fs.delete(attemptDir, true);
+  }
+
+  /**
+   * Deletes the spill files left by attempts that never completed, once all the tasks of the run are done.
+   */
+  static void cleanupAttempts(FileSystem fs, Path spillDir) throws IOException {
+    Path attempts = new Path(spillDir, ATTEMPTS_DIR);
+    if (fs.exists(attempts)) {
+      fs.delete(attempts, true);
+    }
+  }
+
+  /**
+   * Lists the spill files in the directory, in the order they should be replayed.
+   */
+  static List<Path> list(FileSystem fs, Path dir) throws IOException {
+    List<Path> paths = new ArrayList<>();
+    if (!fs.exists(dir)) {
+      return paths;
+    }
+    FileStatus[] statuses = fs.listStatus(dir);
+    Arrays.sort(statuses);
+    for (FileStatus status : statuses) {
+      if (status.isFile() && status.getPath().getName().endsWith(EXTENSION)) {
+        paths.add(status.getPath());
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Replays all the rows of a spill file into the table, in the order they were spilled.
+   *
+   * @param client Kudu client to write with.
+   * @param table to replay the rows into.
+   * @param fs file system holding the spill file.
+   * @param path of the spill file.
+   * @param bufferRows number of rows to be buffered before being flushed.
+   * @return true if all the rows were written, false if Kudu is still unavailable.
+   * @throws IOException thrown when Kudu rejects the rows for reasons other than availability.
+   */
+  static boolean replay(KuduClient client, KuduTable table, FileSystem fs, Path path,
+                        int bufferRows) throws IOException {
+    KuduSession session = client.newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+    session.setMutationBufferSpace(bufferRows);
+    long rows = 0;
+    try (Reader reader = new Reader(fs, path)) {
+      while (true) {
+        Operation operation = KuduUtils.newOperation(table, reader.getOperation());
+        if (!reader.next(operation.getRow())) {
+          break;
+        }
+        session.apply(operation);
+        if (++rows % bufferRows == 0 && !flush(session, table.getName())) {
+          return false;
+        }
+      }
+      if (!flush(session, table.getName())) {
+        return false;
+      }
+    } catch (KuduException e) {
+      LOG.debug("Unable to replay spill file '{}'. Reason : {}", path, e.getMessage());
+      return false;
+    } finally {
+      try {
+        session.close();
+      } catch (KuduException e) {
+        LOG.debug("Failed to close the replay session. {}", e.getMessage());
+      }
+    }
+    LOG.info("Replayed {} rows from spill file '{}' into Kudu table '{}'.", rows, path, table.getName());
+    return true;
+  }
+
+  private static boolean flush(KuduSession session, String table) throws IOException {
+    for (OperationResponse response : session.flush()) {
+      if (!response.hasRowError()) {
+        continue;
+      }
+      RowError error = response.getRowError();
+      if (KuduUtils.isUnavailable(error.getErrorStatus())) {
+        return false;
+      }
+      // Rows written by an earlier, partially successful replay are already present.
+      if (!error.getErrorStatus().isAlreadyPresent()) {
+        throw new IOException(
+          String.format("Kudu table '%s' rejected a spilled row. Reason : %s", table, error.toString())
+        );
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Appends rows to a new spill file.
+   */
+  static final class Writer implements Closeable {
+    private final Path path;
+    private final FSDataOutputStream out;
+    private final Schema schema;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream entry = new DataOutputStream(buffer);
+    private long rows;
+
+    Writer(FileSystem fs, Path path, String operation, Schema schema) throws IOException {
+      this.path = path;
+      this.schema = schema;
+      this.out = fs.create(path, false);
+      out.writeInt(MAGIC);
+      writeBytes(out, operation.getBytes(StandardCharsets.UTF_8));
+      writeBytes(out, schema.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return Number of bytes the entry occupies in the file.
+     */
+    int append(StructuredRecord record) throws IOException {
+      buffer.reset();
+      for (Schema.Field field : schema.getFields()) {
+        Object val = record.get(field.getName());
+        if (val == null) {
+          entry.writeBoolean(false);
+        } else {
+          entry.writeBoolean(true);
+          encode(entry, field.getName(), field.getSchema(), val);
+        }
+      }
+      entry.flush();
+      out.writeInt(buffer.size());
+      buffer.writeTo(out);
+      rows++;
+      return buffer.size() + 4;
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    long getRows() {
+      return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads back the rows of a spill file directly into Kudu rows.
+   */
+  static final class Reader implements Closeable {
+    private final FSDataInputStream in;
+    private final String operation;
+    private final Schema schema;
+    private byte[] entry = new byte[1024];
+
+    Reader(FileSystem fs, Path path) throws IOException {
+      this.in = fs.open(path);
+      if (in.readInt() != MAGIC) {
+        in.close();
+        throw new IOException(String.format("File '%s' is not a Kudu spill file.", path));
+      }
+      this.operation = new String(readBytes(in), StandardCharsets.UTF_8);
+      this.schema = Schema.parseJson(new String(readBytes(in), StandardCharsets.UTF_8));
+    }
+
+    String getOperation() {
+      return operation;
+    }
+
+    Schema getSchema() {
+      return schema;
+    }
+
+    /**
+     * Reads the next row into the given Kudu row.
+     *
+     * @return false if there are no more rows.
+     */
+    boolean next(PartialRow row) throws IOException {
+      int length;
+      try {
+        length = in.readInt();
+      } catch (EOFException e) {
+        return false;
+      }
+      if (entry.length < length) {
+        entry = new byte[length];
+      }
+      try {
+        in.readFully(entry, 0, length);
+      } catch (EOFException e) {
+        // The writer died while appending the last entry, which was never acknowledged to Kudu either.
+        LOG.warn("Spill file ends with a truncated entry of {} bytes, which is skipped.", length);
+        return false;
+      }
+      ByteBuffer buf = ByteBuffer.wrap(entry, 0, length);
+      for (Schema.Field field : schema.getFields()) {
+        if (buf.get() != 0) {
+          decode(buf, row, field.getName(), field.getSchema());
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private static void encode(DataOutputStream out, String name, Schema schema, Object val) throws IOException {
+    switch (schema.getType()) {
+      case BOOLEAN:
+        out.writeBoolean((Boolean) val);
+        break;
+      case INT:
+        out.writeInt((Integer) val);
+        break;
+      case LONG:
+        out.writeLong((Long) val);
+        break;
+      case FLOAT:
+        out.writeFloat((Float) val);
+        break;
+      case DOUBLE:
+        out.writeDouble((Double) val);
+        break;
+      case BYTES:
+        if (val instanceof ByteBuffer) {
+          ByteBuffer bb = ((ByteBuffer) val).duplicate();
+          byte[] bytes = new byte[bb.remaining()];
+          bb.get(bytes);
+          writeBytes(out, bytes);
+        } else {
+          writeBytes(out, (byte[]) val);
+        }
+        break;
+      case STRING:
+        writeBytes(out, ((String) val).getBytes(StandardCharsets.UTF_8));
+        break;
+      case UNION:
+        encode(out, name, schema.getNonNullable(), val);
+        break;
+      default:
+        throw new IllegalArgumentException(
+          "Field '" + name + "' is of unsupported type '" + schema.getType() + "' by Kudu."
+        );
+    }
+  }
+
+  private static void decode(ByteBuffer buf, PartialRow row, String name, Schema schema) {
+    switch (schema.getType()) {
+      case BOOLEAN:
+        row.addBoolean(name, buf.get() != 0);
+        break;
+      case INT:
+        row.addInt(name, buf.getInt());
+        break;
+      case LONG:
+        row.addLong(name, buf.getLong());
+        break;
+      case FLOAT:
+        row.addFloat(name, buf.getFloat());
+        break;
+      case DOUBLE:
+        row.addDouble(name, buf.getDouble());
+        break;
+      case BYTES: {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        row.addBinary(name, bytes);
+        break;
+      }
+      case STRING: {
+        int length = buf.getInt();
+        row.addString(name, new String(buf.array(), buf.arrayOffset() + buf.position(), length,
+                                       StandardCharsets.UTF_8));
+        buf.position(buf.position() + length);
+        break;
+      }
+      case UNION:
+        decode(buf, row, name, schema.getNonNullable());
+        break;
+      default:
+        throw new IllegalArgumentException(
+          "Field '" + name + "' is of unsupported type '" + schema.getType() + "' by Kudu."
+        );
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(FSDataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
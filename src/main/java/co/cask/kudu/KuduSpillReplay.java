@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.etl.api.PipelineConfigurer;
+import co.cask.cdap.etl.api.action.Action;
+import co.cask.cdap.etl.api.action.ActionContext;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * {@link Action} that replays the rows spilled by the Kudu sink while Kudu was unavailable.
+ */
+@Plugin(type = Action.PLUGIN_TYPE)
+@Name("KuduSpillReplay")
+@Description("Replays rows spilled by the Kudu sink into the Apache Kudu table.")
+public class KuduSpillReplay extends Action {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduSpillReplay.class);
+
+  private final KuduSpillReplayConfig config;
+
+  public KuduSpillReplay(KuduSpillReplayConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer configurer) {
+    config.validate();
+  }
+
+  @Override
+  public void run(ActionContext context) throws Exception {
+    String tableName = config.optTableName.trim();
+    Path dir = new Path(config.optSpillDir.trim(), tableName);
+    FileSystem fs = dir.getFileSystem(new Configuration());
+
+    List<Path> paths = KuduSpillFile.list(fs, dir);
+    if (paths.isEmpty()) {
+      LOG.info("No spilled rows found for Kudu table '{}' in '{}'.", tableName, dir);
+      return;
+    }
+
+    KuduClient client = new KuduClient.KuduClientBuilder(config.optMasterAddresses.trim())
+      .defaultOperationTimeoutMs(config.getOperationTimeout())
+      .disableStatistics()
+      .build();
+    try {
+      KuduTable table = client.openTable(tableName);
+      for (Path path : paths) {
+        if (!KuduSpillFile.replay(client, table, fs, path, config.getFlushRows())) {
+          throw new IOException(
+            String.format("Kudu table '%s' is unavailable, %d spill files are yet to be replayed.",
+                          tableName, paths.size() - paths.indexOf(path))
+          );
+        }
+        fs.delete(path, false);
+      }
+    } finally {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Macro;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.plugin.PluginConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import javax.annotation.Nullable;
+
+/**
+ * Configuration for the {@link KuduSpillReplay} action.
+ */
+public final class KuduSpillReplayConfig extends PluginConfig {
+
+  @Name("master")
+  @Description("Comma separated list of <hostname>:<port>[,<hostanme>:<port>]* of Apache Kudu Masters.")
+  @Macro
+  public String optMasterAddresses;
+
+  @Name("name")
+  @Description("Name of the Kudu table the rows were spilled for.")
+  @Macro
+  public String optTableName;
+
+  @Name("spill-dir")
+  @Description("Spill directory configured on the Kudu sink.")
+  @Macro
+  public String optSpillDir;
+
+  @Name("opt-timeout")
+  @Description("Timeout for Kudu operations in milliseconds. Defaults is '30000 ms'.")
+  @Nullable
+  public String optOperationTimeoutMs;
+
+  @Name("row-flush")
+  @Description("Number of rows that are buffered before flushing to the tablet server")
+  @Nullable
+  public String optFlushRows;
+
+  /**
+   * Validates the configuration fields.
+   *
+   * @throws IllegalArgumentException throw when there is issue with the configuration.
+   */
+  public void validate() throws IllegalArgumentException {
+    if (!containsMacro("master")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optMasterAddresses),
+                                  "Kudu Master Server address list is empty.");
+    }
+    if (!containsMacro("name")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optTableName), "Kudu Table is not specified.");
+    }
+    if (!containsMacro("spill-dir")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optSpillDir), "Spill directory is not specified.");
+    }
+  }
+
+  /**
+   * @return Timeout for user operations.
+   */
+  public int getOperationTimeout() {
+    return (optOperationTimeoutMs != null) ? Integer.parseInt(optOperationTimeoutMs) : 30000;
+  }
+
+  /**
+   * @return Number of rows to be buffered before being flushed.
+   */
+  public int getFlushRows() {
+    return (optFlushRows != null) ? Integer.parseInt(optFlushRows) : 1000;
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.AlterTableOptions;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.PartitionSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Staging table of a full refresh, which is loaded on the side and swapped in place of the live table once
+ * the load succeeds.
+ *
+ * <p>
+ *   The staging table is created with the columns and partitioning of the live table, or from the write schema
+ *   if there is no live table yet. The swap renames the live table out of the way, renames the staging table
+ *   to the live name, and then drops the previous table unless it is kept for rollback. Kudu has no atomic
+ *   rename of two tables, so the live name doesn't resolve for the short time between the two renames.
+ * </p>
+ */
+final class KuduStagingTable {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduStagingTable.class);
+
+  private static final String STAGING_SUFFIX = "__staging_";
+  private static final String PREVIOUS_SUFFIX = "__previous";
+
+  private KuduStagingTable() {
+  }
+
+  /**
+   * @return Name of the staging table of the run started at the given logical time.
+   */
+  static String getName(String table, long logicalStartTime) {
+    return table + STAGING_SUFFIX + logicalStartTime;
+  }
+
+  /**
+   * @return Name the previous live table is renamed to during the swap, and kept under for rollback.
+   */
+  static String getPreviousName(String table) {
+    return table + PREVIOUS_SUFFIX;
+  }
+
+  /**
+   * Creates the staging table with the columns and partitioning of the live table. If the live table doesn't
+   * exist, the staging table is left to be created from the write schema of the sink. An existing staging
+   * table, left by an earlier attempt of the same run, is dropped first.
+   */
+  static void create(KuduClient client, KuduSinkConfig config, String staging) throws KuduException {
+    if (client.tableExists(staging)) {
+      client.deleteTable(staging);
+      KuduClients.invalidateTable(client, staging);
+      KuduMetadataCache.invalidate(config.getMasterAddress(), staging);
+    }
+    String table = config.getTableName();
+    if (!client.tableExists(table)) {
+      return;
+    }
+
+    KuduTable live = client.openTable(table);
+    Schema schema = new Schema(live.getSchema().getColumns());
+    CreateTableOptions options = new CreateTableOptions();
+    options.setNumReplicas(config.getReplicas());
+    for (PartitionSchema.HashBucketSchema hash : live.getPartitionSchema().getHashBucketSchemas()) {
+      options.addHashPartitions(toNames(live.getSchema(), hash.getColumnIds()), hash.getNumBuckets(),
+                                hash.getSeed());
+    }
+    addRangePartitions(live, schema, options, config.getAdministrationTimeout());
+    client.createTable(staging, schema, options);
+    LOG.info("Created staging table '{}' with the partitioning of Kudu table '{}'.", staging, table);
+  }
+
+  /**
+   * Swaps the staging table in place of the live table.
+   *
+   * @param keepPrevious true to keep the previous live table for rollback, under {@link #getPreviousName}.
+   */
+  static void swap(KuduClient client, String master, String table, String staging,
+                   boolean keepPrevious) throws KuduException {
+    String previous = null;
+    if (client.tableExists(table)) {
+      previous = getPreviousName(table);
+      if (client.tableExists(previous)) {
+        client.deleteTable(previous);
+      }
+      client.alterTable(table, new AlterTableOptions().renameTable(previous));
+    }
+    try {
+      client.alterTable(staging, new AlterTableOptions().renameTable(table));
+    } catch (KuduException e) {
+      if (previous != null) {
+        // Puts the live table back, so that readers are not left without a table.
+        client.alterTable(previous, new AlterTableOptions().renameTable(table));
+      }
+      throw e;
+    } finally {
+      // Writers caching any of the renamed tables open them again by name.
+      KuduClients.invalidateTable(client, table);
+      KuduClients.invalidateTable(client, staging);
+      KuduMetadataCache.invalidate(master, table);
+      KuduMetadataCache.invalidate(master, staging);
+      if (previous != null) {
+        KuduClients.invalidateTable(client, previous);
+        KuduMetadataCache.invalidate(master, previous);
+      }
+    }
+    LOG.info("Swapped staging table '{}' in place of Kudu table '{}'.", staging, table);
+
+    if (previous != null && !keepPrevious) {
+      client.deleteTable(previous);
+    } else if (previous != null) {
+      LOG.info("Previous Kudu table '{}' is kept as '{}'.", table, previous);
+    }
+  }
+
+  /**
+   * Drops the staging table of a failed run, if it was created.
+   */
+  static void drop(KuduClient client, String staging) {
+    try {
+      if (client.tableExists(staging)) {
+        client.deleteTable(staging);
+        LOG.info("Dropped staging table '{}' of the failed refresh.", staging);
+      }
+      KuduClients.invalidateTable(client, staging);
+    } catch (KuduException e) {
+      LOG.warn("Failed to drop staging table '{}'. Reason : {}", staging, e.getMessage());
+    }
+  }
+
+  private static List<String> toNames(Schema schema, List<Integer> columnIds) {
+    List<String> names = new ArrayList<>();
+    for (Integer id : columnIds) {
+      names.add(schema.getColumnByIndex(schema.getColumnIndex(id)).getName());
+    }
+    return names;
+  }
+
+  /**
+   * Adds the range partitions of the live table. The bounds are decoded from the partition keys of its tablets
+   * when it is range partitioned on a single column, else a single unbounded range is created.
+   */
+  private static void addRangePartitions(KuduTable live, Schema schema, CreateTableOptions options,
+                                         long timeout) throws KuduException {
+    List<String> columns = toNames(live.getSchema(), live.getPartitionSchema().getRangeSchema().getColumns());
+    options.setRangePartitionColumns(columns);
+    if (columns.size() != 1) {
+      if (columns.size() > 1) {
+        LOG.warn("Range partitions of Kudu table '{}' on multiple columns are not copied to the staging table.",
+                 live.getName());
+      }
+      return;
+    }
+
+    ColumnSchema column = schema.getColumn(columns.get(0));
+    Map<ByteBuffer, byte[]> ranges = new LinkedHashMap<>();
+    try {
+      for (LocatedTablet tablet : live.getTabletsLocations(timeout)) {
+        ranges.put(ByteBuffer.wrap(tablet.getPartition().getRangeKeyStart()),
+                   tablet.getPartition().getRangeKeyEnd());
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(
+        String.format("Unable to list the range partitions of Kudu table '%s'. Reason : %s",
+                      live.getName(), e.getMessage()), e
+      );
+    }
+    for (Map.Entry<ByteBuffer, byte[]> range : ranges.entrySet()) {
+      PartialRow lower = schema.newPartialRow();
+      PartialRow upper = schema.newPartialRow();
+      byte[] lowerKey = range.getKey().array();
+      byte[] upperKey = range.getValue();
+      if (lowerKey.length > 0) {
+        KuduRangeSplits.addBound(lower, column, KuduRangeSplits.decodeBound(lowerKey, column.getType()));
+      }
+      if (upperKey.length > 0) {
+        KuduRangeSplits.addBound(upper, column, KuduRangeSplits.decodeBound(upperKey, column.getType()));
+      }
+      options.addRangePartition(lower, upper);
+    }
+  }
+}
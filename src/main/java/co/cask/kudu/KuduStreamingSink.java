@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.PipelineConfigurer;
+import co.cask.cdap.etl.api.batch.SparkExecutionPluginContext;
+import co.cask.cdap.etl.api.batch.SparkPluginContext;
+import co.cask.cdap.etl.api.batch.SparkSink;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.RowError;
+import org.apache.kudu.client.SessionConfiguration;
+import org.apache.kudu.client.Upsert;
+import org.apache.spark.Accumulator;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.VoidFunction;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link SparkSink} to write micro-batches of a streaming pipeline to Apache Kudu.
+ *
+ * <p>
+ *   Uses the same type mapping and table creation as {@link KuduSink}. Kudu clients are kept per executor
+ *   across micro-batches, while every partition writes through its own session, which is flushed and closed
+ *   at the end of the partition, so that the data is visible in Kudu once the batch completes.
+ * </p>
+ *
+ * <p>
+ *   Spilling, write budgets, dynamic schemas, full refreshes and skew checks of the batch sink are not supported,
+ *   and setting them fails the deployment rather than being silently ignored.
+ * </p>
+ */
+@Plugin(type = SparkSink.PLUGIN_TYPE)
+@Name("Kudu")
+@Description("Writes micro-batches of streaming pipelines to Apache Kudu tables.")
+public class KuduStreamingSink extends SparkSink<StructuredRecord> {
+  // Tables that have already been created or validated by this JVM.
+  private static final Set<String> VALIDATED =
+    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final KuduSinkConfig kuduSinkConfig;
+
+  public KuduStreamingSink(KuduSinkConfig kuduSinkConfig) {
+    this.kuduSinkConfig = kuduSinkConfig;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer configurer) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(kuduSinkConfig.optSchema), "Write schema is not specified. " +
+      "Please add the write schema.");
+    configurer.getStageConfigurer().setOutputSchema(kuduSinkConfig.getSchema());
+    checkUnsupported(kuduSinkConfig);
+
+    // If there is macro specified for 'master' address or table name, then
+    // we defer the creation of table to the first batch.
+    if (kuduSinkConfig.containsMacro("master") || kuduSinkConfig.containsMacro("name")) {
+      return;
+    }
+    createKuduTable(kuduSinkConfig);
+  }
+
+  /**
+   * Rejects the options of the batch sink that are not supported by micro-batch writes.
+   *
+   * @throws IllegalArgumentException thrown when an unsupported option is set.
+   */
+  static void checkUnsupported(KuduSinkConfig config) {
+    Preconditions.checkArgument(Strings.isNullOrEmpty(config.optSpillDir),
+                                "Spilling rows is not supported by the Kudu streaming sink.");
+    Preconditions.checkArgument(Strings.isNullOrEmpty(config.optWriteBudgetMb),
+                                "Write budget is not supported by the Kudu streaming sink.");
+    Preconditions.checkArgument(!config.isDynamicSchema() && !config.isAddColumns(),
+                                "Dynamic schema is not supported by the Kudu streaming sink.");
+    Preconditions.checkArgument(!config.isFullRefresh(),
+                                "Full refresh is not supported by the Kudu streaming sink.");
+    Preconditions.checkArgument(Strings.isNullOrEmpty(config.optSkewThreshold)
+                                  && Strings.isNullOrEmpty(config.optSkewAction),
+                                "Skew checks are not supported by the Kudu streaming sink.");
+  }
+
+  /**
+   * Creates or validates the table once per driver, as this is invoked for every micro-batch.
+   */
+  @Override
+  public void prepareRun(SparkPluginContext context) throws Exception {
+    String key = kuduSinkConfig.getMasterAddress() + "/" + kuduSinkConfig.getTableName();
+    if (!VALIDATED.contains(key)) {
+      createKuduTable(kuduSinkConfig);
+      VALIDATED.add(key);
+    }
+  }
+
+  /**
+   * Creates or validates the table through a client of its own, as this runs in the CDAP master or the driver,
+   * which don't share the clients of the executors.
+   */
+  private static void createKuduTable(KuduSinkConfig config) {
+    KuduClient client = KuduClients.newClient(config);
+    try {
+      KuduUtils.createKuduTable(client, config);
+    } finally {
+      KuduClients.close(client);
+    }
+  }
+
+  @Override
+  public void run(SparkExecutionPluginContext context, JavaRDD<StructuredRecord> input) throws Exception {
+    Accumulator<Integer> written = context.getSparkContext().accumulator(0);
+    input.foreachPartition(new PartitionWriter(kuduSinkConfig, written));
+
+    // Logical start time of a micro-batch is the batch time, so this is the end-to-end latency
+    // from the batch being scheduled till all of its rows are durable in Kudu.
+    context.getMetrics().count("kudu.rows.written", written.value());
+    context.getMetrics().gauge("kudu.write.latency.ms", System.currentTimeMillis() - context.getLogicalStartTime());
+  }
+
+  /**
+   * Writes a partition of the batch through the executor wide client and a session of its own.
+   */
+  private static final class PartitionWriter implements VoidFunction<Iterator<StructuredRecord>> {
+    private final KuduSinkConfig config;
+    private final Accumulator<Integer> written;
+
+    PartitionWriter(KuduSinkConfig config, Accumulator<Integer> written) {
+      this.config = config;
+      this.written = written;
+    }
+
+    @Override
+    public void call(Iterator<StructuredRecord> records) throws Exception {
+      KuduClient client = KuduClients.getClient(config);
+      KuduTable table = KuduClients.getTable(client, config.getTableName());
+      Schema schema = config.getSchema();
+      KuduUtils.Salter salter =
+        config.getSaltBuckets() > 0 ? new KuduUtils.Salter(config.getSaltBuckets(), table.getSchema()) : null;
+
+      // Sessions are cheap compared to the client. One per partition is closed with it, so that no buffered
+      // operation outlives the task when the executor is reused.
+      KuduSession session = client.newSession();
+      session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+      session.setMutationBufferSpace(config.getCacheRowCount());
+      session.setTimeoutMillis(config.getOperationTimeout());
+      int count = 0;
+      try {
+        while (records.hasNext()) {
+          StructuredRecord record = records.next();
+          Upsert upsert = table.newUpsert();
+          KuduUtils.addToRow(upsert.getRow(), schema, record);
+          if (salter != null) {
+            upsert.getRow().addInt(KuduUtils.SALT_COLUMN, salter.salt(record));
+          }
+          session.apply(upsert);
+          count++;
+        }
+
+        // Flush on batch boundary, so that the batch is complete once the task completes.
+        session.flush();
+        if (session.countPendingErrors() > 0) {
+          RowError[] errors = session.getPendingErrors().getRowErrors();
+          throw new IOException(
+            String.format("Failed to write %d rows to Kudu table '%s'. First error : %s",
+                          errors.length, config.getTableName(), errors[0].toString())
+          );
+        }
+      } finally {
+        session.close();
+      }
+      written.add(count);
+    }
+  }
+}
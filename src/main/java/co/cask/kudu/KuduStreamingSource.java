@@ -0,0 +1,217 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.PipelineConfigurer;
+import co.cask.cdap.etl.api.streaming.StreamingContext;
+import co.cask.cdap.etl.api.streaming.StreamingSource;
+import com.google.common.collect.AbstractIterator;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResultIterator;
+import org.apache.spark.SparkContext;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.streaming.Time;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.apache.spark.streaming.dstream.InputDStream;
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+import scala.reflect.ClassTag;
+import scala.reflect.ClassTag$;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link StreamingSource} reading Apache Kudu tables through Spark directly, without going through a Hadoop
+ * input format.
+ *
+ * <p>
+ *   Every micro-batch plans the scan tokens of the table on the driver, with the projection and the predicates
+ *   pushed down to the tablet servers, and turns them into an RDD with one partition per tablet, preferably
+ *   placed on the hosts of the replicas of the tablet. Executors deserialize their token into a scanner and
+ *   convert the rows as they are scanned, with one decoder per partition.
+ * </p>
+ */
+@Plugin(type = StreamingSource.PLUGIN_TYPE)
+@Name("Kudu")
+@Description("Reads Apache Kudu tables in every micro-batch of streaming pipelines.")
+public class KuduStreamingSource extends StreamingSource<StructuredRecord> {
+  private final KuduStreamingSourceConfig config;
+
+  public KuduStreamingSource(KuduStreamingSourceConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer configurer) {
+    config.validate();
+    configurer.getStageConfigurer().setOutputSchema(config.getSchema());
+  }
+
+  @Override
+  public JavaDStream<StructuredRecord> getStream(StreamingContext context) throws Exception {
+    config.validate();
+    ClassTag<StructuredRecord> tag = ClassTag$.MODULE$.apply(StructuredRecord.class);
+    return new JavaDStream<>(new KuduInputDStream(context.getSparkStreamingContext().ssc(), config, tag), tag);
+  }
+
+  /**
+   * Plans the scan tokens of the table and turns them into an RDD of the scanned rows.
+   */
+  static JavaRDD<StructuredRecord> newRDD(SparkContext sc, KuduStreamingSourceConfig config) throws IOException {
+    KuduClient client = KuduClients.getClient(config.getMasterAddress(), config.getOperationTimeout(),
+                                              config.getOperationTimeout(), 1);
+    KuduTable table = client.openTable(config.getTableName());
+    KuduScanToken.KuduScanTokenBuilder builder = client.newScanTokenBuilder(table)
+      .setProjectedColumnNames(config.getColumns())
+      .setTimeout(config.getOperationTimeout());
+    for (KuduPredicate predicate : KuduPredicates.parse(table.getSchema(), config.getPredicate())) {
+      builder.addPredicate(predicate);
+    }
+
+    List<Tuple2<byte[], Seq<String>>> scans = new ArrayList<>();
+    for (KuduScanToken token : builder.build()) {
+      List<String> hosts = new ArrayList<>();
+      for (LocatedTablet.Replica replica : token.getTablet().getReplicas()) {
+        hosts.add(replica.getRpcHost());
+      }
+      scans.add(new Tuple2<byte[], Seq<String>>(token.serialize(), JavaConversions.asScalaBuffer(hosts).toSeq()));
+    }
+
+    // One partition per token, placed on the hosts of the replicas of its tablet.
+    ClassTag<byte[]> tag = ClassTag$.MODULE$.apply(byte[].class);
+    RDD<byte[]> tokens = sc.makeRDD(JavaConversions.asScalaBuffer(scans).toSeq(), tag);
+    return new JavaRDD<>(tokens, tag).flatMap(
+      new TabletScan(config.getMasterAddress(), config.getOperationTimeout(), config.optSchema));
+  }
+
+  /**
+   * Input stream producing the rows of the table in every micro-batch.
+   */
+  private static final class KuduInputDStream extends InputDStream<StructuredRecord> {
+    private final KuduStreamingSourceConfig config;
+
+    KuduInputDStream(org.apache.spark.streaming.StreamingContext ssc, KuduStreamingSourceConfig config,
+                     ClassTag<StructuredRecord> tag) {
+      super(ssc, tag);
+      this.config = config;
+    }
+
+    @Override
+    public void start() {
+      // Nothing to start, tokens are planned for every batch.
+    }
+
+    @Override
+    public void stop() {
+      // Nothing to stop, clients are shared by the JVM.
+    }
+
+    @Override
+    public Option<RDD<StructuredRecord>> compute(Time validTime) {
+      // Tokens are planned for every batch, so that they follow the tablets added or moved since the last one.
+      try {
+        return Option.apply(newRDD(context().sparkContext(), config).rdd());
+      } catch (IOException e) {
+        throw new RuntimeException(
+          String.format("Unable to plan the scan of Kudu table '%s'. Reason : %s",
+                        config.getTableName(), e.getMessage()), e
+        );
+      }
+    }
+  }
+
+  /**
+   * Scans the tablet of a serialized token on the executor, converting the rows as they are read.
+   */
+  private static final class TabletScan implements FlatMapFunction<byte[], StructuredRecord> {
+    private final String master;
+    private final int timeout;
+    private final String schema;
+
+    TabletScan(String master, int timeout, String schema) {
+      this.master = master;
+      this.timeout = timeout;
+      this.schema = schema;
+    }
+
+    @Override
+    public Iterable<StructuredRecord> call(final byte[] token) throws Exception {
+      // Binary values are copied, as the records may outlive the batch they were read from.
+      final KuduRowDecoder decoder = new KuduRowDecoder(Schema.parseJson(schema), false);
+      return new Iterable<StructuredRecord>() {
+        @Override
+        public Iterator<StructuredRecord> iterator() {
+          return new RowIterator(token, decoder);
+        }
+      };
+    }
+
+    /**
+     * Pulls the batches of the scan lazily, so that a tablet is never held in memory as a whole.
+     */
+    private final class RowIterator extends AbstractIterator<StructuredRecord> {
+      private final byte[] token;
+      private final KuduRowDecoder decoder;
+      private KuduScanner scanner;
+      private RowResultIterator rows;
+
+      RowIterator(byte[] token, KuduRowDecoder decoder) {
+        this.token = token;
+        this.decoder = decoder;
+      }
+
+      @Override
+      protected StructuredRecord computeNext() {
+        try {
+          if (scanner == null) {
+            KuduClient client = KuduClients.getClient(master, timeout, timeout, 1);
+            scanner = KuduScanToken.deserializeIntoScanner(token, client);
+          }
+          while (rows == null || !rows.hasNext()) {
+            if (!scanner.hasMoreRows()) {
+              scanner.close();
+              return endOfData();
+            }
+            rows = scanner.nextRows();
+          }
+          RowResult row = rows.next();
+          return decoder.decode(row);
+        } catch (IOException e) {
+          throw new RuntimeException(String.format("Failed to scan Kudu table. Reason : %s", e.getMessage()), e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Macro;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.plugin.PluginConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Configuration for the {@link KuduStreamingSource}.
+ */
+public final class KuduStreamingSourceConfig extends PluginConfig {
+
+  @Name("referenceName")
+  @Description("This will be used to uniquely identify this source/sink for lineage, annotating metadata, etc.")
+  public String referenceName;
+
+  @Name("master")
+  @Description("Comma separated list of <hostname>:<port>[,<hostanme>:<port>]* of Apache Kudu Masters.")
+  @Macro
+  public String optMasterAddresses;
+
+  @Name("name")
+  @Description("Name of the Kudu table.")
+  @Macro
+  public String optTableName;
+
+  @Name("schema")
+  @Description("Output schema from Kudu source")
+  public String optSchema;
+
+  @Name("columns")
+  @Description("Columns to be projected from the table. Defaults to the fields of the output schema.")
+  @Nullable
+  public String optColumnProjection;
+
+  @Name("predicate")
+  @Description("Only rows matching this predicate are read, for example \"region = 'eu' AND id < 1000\". " +
+    "The predicate is evaluated by the tablet servers.")
+  @Nullable
+  @Macro
+  public String optPredicate;
+
+  @Name("opt-timeout")
+  @Description("Timeout for Kudu operations in milliseconds. Default is 10000 ms.")
+  @Nullable
+  public String optOperationTimeout;
+
+  /**
+   * Validates the configuration fields.
+   *
+   * @throws IllegalArgumentException throw when there is issue with the configuration.
+   */
+  public void validate() throws IllegalArgumentException {
+    if (!containsMacro("master")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optMasterAddresses),
+                                  "Kudu Master Server address list is empty.");
+    }
+    if (!containsMacro("name")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optTableName), "Kudu Table is not specified.");
+    }
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(optSchema), "Output schema is not specified.");
+    getSchema();
+  }
+
+  public String getMasterAddress() {
+    return optMasterAddresses.trim();
+  }
+
+  public String getTableName() {
+    return optTableName.trim();
+  }
+
+  /**
+   * @return Columns to be projected, which are the fields of the output schema unless specified.
+   */
+  public List<String> getColumns() {
+    List<String> columns = new ArrayList<>();
+    if (Strings.isNullOrEmpty(optColumnProjection) || optColumnProjection.trim().equals("*")) {
+      for (Schema.Field field : getSchema().getFields()) {
+        columns.add(field.getName());
+      }
+      return columns;
+    }
+    for (String column : optColumnProjection.split(",")) {
+      if (!column.trim().isEmpty()) {
+        columns.add(column.trim());
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * @return Predicate of the rows to read, empty if not specified.
+   */
+  public String getPredicate() {
+    return optPredicate == null ? "" : optPredicate.trim();
+  }
+
+  /**
+   * @return Operation timeout in milliseconds.
+   */
+  public int getOperationTimeout() {
+    return Strings.isNullOrEmpty(optOperationTimeout) ? 10000 : Integer.parseInt(optOperationTimeout);
+  }
+
+  /**
+   * @return {@link Schema} object of the JSON.
+   */
+  public Schema getSchema() {
+    try {
+      return Schema.parseJson(optSchema);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(
+        String.format("Unable to parse schema '%s'. Reason: %s", optSchema, e.getMessage())
+      );
+    }
+  }
+}
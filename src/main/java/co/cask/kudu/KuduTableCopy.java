@@ -0,0 +1,336 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.etl.api.PipelineConfigurer;
+import co.cask.cdap.etl.api.action.Action;
+import co.cask.cdap.etl.api.action.ActionContext;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.AsyncKuduScanner;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.OperationResponse;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResultIterator;
+import org.apache.kudu.client.SessionConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Action} that copies a Kudu table into another one, usually to change its partitioning, encoding,
+ * compression or replication.
+ *
+ * <p>
+ *   The tablets of the source table are scanned in parallel at the same snapshot, with the predicates pushed
+ *   down to the tablet servers. The target table has the columns of the source table in the same order, so
+ *   that every column of a scanned row is written to the target row at the same index, without converting
+ *   rows to records.
+ * </p>
+ */
+@Plugin(type = Action.PLUGIN_TYPE)
+@Name("KuduTableCopy")
+@Description("Copies an Apache Kudu table into another table with different partitioning or storage options.")
+public class KuduTableCopy extends Action {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduTableCopy.class);
+
+  private final KuduTableCopyConfig config;
+
+  public KuduTableCopy(KuduTableCopyConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer configurer) {
+    config.validate();
+  }
+
+  @Override
+  public void run(ActionContext context) throws Exception {
+    config.validate();
+    KuduClient client = newClient(config.getMasterAddress());
+    KuduClient targetClient = config.getTargetMasterAddress().equals(config.getMasterAddress())
+      ? client : newClient(config.getTargetMasterAddress());
+    try {
+      KuduTable source = client.openTable(config.getSourceTable());
+      KuduTable target = getOrCreateTarget(targetClient, source.getSchema());
+      long rows = copy(client, source, targetClient, target);
+      LOG.info("Copied {} rows from Kudu table '{}' to '{}'.", rows, source.getName(), target.getName());
+    } finally {
+      if (targetClient != client) {
+        targetClient.close();
+      }
+      client.close();
+    }
+  }
+
+  private KuduClient newClient(String master) {
+    return new KuduClient.KuduClientBuilder(master)
+      .defaultOperationTimeoutMs(config.getOperationTimeout())
+      .disableStatistics()
+      .build();
+  }
+
+  /**
+   * Opens the target table, creating it with the columns of the source table if it doesn't exist.
+   */
+  private KuduTable getOrCreateTarget(KuduClient client, Schema schema) throws Exception {
+    String name = config.getTargetTable();
+    if (client.tableExists(name)) {
+      KuduTable table = client.openTable(name);
+      checkColumns(schema, table);
+      LOG.info("Kudu table '{}' already exists, rows are copied into it as is.", name);
+      return table;
+    }
+
+    List<ColumnSchema> columns = new ArrayList<>();
+    ColumnSchema.CompressionAlgorithm compression = config.getCompression();
+    ColumnSchema.Encoding encoding = config.getEncoding();
+    for (ColumnSchema column : schema.getColumns()) {
+      columns.add(new ColumnSchema.ColumnSchemaBuilder(column.getName(), column.getType())
+                    .key(column.isKey())
+                    .nullable(column.isNullable())
+                    .compressionAlgorithm(compression == null ? column.getCompressionAlgorithm() : compression)
+                    .encoding(encoding == null ? column.getEncoding() : encoding)
+                    .build());
+    }
+    Schema targetSchema = new Schema(columns);
+
+    List<String> hashColumns = config.getHashColumns();
+    if (hashColumns.isEmpty()) {
+      for (ColumnSchema column : schema.getPrimaryKeyColumns()) {
+        hashColumns.add(column.getName());
+      }
+    }
+    for (String column : hashColumns) {
+      if (!targetSchema.getColumn(column).isKey()) {
+        throw new IllegalArgumentException(
+          String.format("Hash partition column '%s' must be one of the key columns.", column)
+        );
+      }
+    }
+    CreateTableOptions options = new CreateTableOptions();
+    options.setNumReplicas(config.getReplicas());
+    options.addHashPartitions(hashColumns, config.getBuckets());
+
+    String rangeColumn = config.getRangeColumn();
+    if (rangeColumn != null) {
+      ColumnSchema column = targetSchema.getColumn(rangeColumn);
+      KuduRangeSplits.validate(column);
+      List<Object> splits = KuduRangeSplits.parse(config.getRangeSplits(), column.getType());
+      KuduRangeSplits.addSplits(options, targetSchema, rangeColumn, splits);
+    } else {
+      options.setRangePartitionColumns(new ArrayList<String>());
+    }
+
+    KuduTable table = client.createTable(name, targetSchema, options);
+    LOG.info("Created Kudu table '{}' with {} hash buckets on {}.", name, config.getBuckets(), hashColumns);
+    return table;
+  }
+
+  /**
+   * Checks that an existing target table has the columns of the source table, at the same indexes, and that every
+   * nullable source column is nullable in the target table.
+   */
+  private static void checkColumns(Schema source, KuduTable target) {
+    List<ColumnSchema> sourceColumns = source.getColumns();
+    List<ColumnSchema> targetColumns = target.getSchema().getColumns();
+    boolean matches = sourceColumns.size() == targetColumns.size();
+    for (int i = 0; matches && i < sourceColumns.size(); i++) {
+      ColumnSchema s = sourceColumns.get(i);
+      ColumnSchema t = targetColumns.get(i);
+      matches = s.getName().equals(t.getName()) && s.getType() == t.getType() && s.isKey() == t.isKey()
+        && (!s.isNullable() || t.isNullable());
+    }
+    if (!matches) {
+      throw new IllegalArgumentException(
+        String.format("Kudu table '%s' exists but its columns don't match the columns of the source table.",
+                      target.getName())
+      );
+    }
+  }
+
+  /**
+   * Copies the rows of the source table matching the predicate, one tablet per task. When a tablet fails, the
+   * other tasks are interrupted and waited for, and the target table is left with the rows copied so far.
+   *
+   * @return number of rows copied.
+   */
+  private long copy(final KuduClient client, KuduTable source, final KuduClient targetClient,
+                    final KuduTable target) throws Exception {
+    List<KuduPredicate> predicates = KuduPredicates.parse(source.getSchema(), config.getPredicate());
+    // All the tablets are read at the same point in time, so that the copy is consistent.
+    long snapshot = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    KuduScanToken.KuduScanTokenBuilder builder = client.newScanTokenBuilder(source)
+      .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+      .snapshotTimestampMicros(snapshot)
+      .setTimeout(config.getOperationTimeout());
+    for (KuduPredicate predicate : predicates) {
+      builder.addPredicate(predicate);
+    }
+
+    List<KuduScanToken> tokens = builder.build();
+    LOG.info("Copying {} tablets of Kudu table '{}' with {} threads.", tokens.size(), source.getName(),
+             config.getThreads());
+    ExecutorService executor = Executors.newFixedThreadPool(config.getThreads());
+    try {
+      List<Future<Long>> futures = new ArrayList<>();
+      for (final KuduScanToken token : tokens) {
+        futures.add(executor.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            return copy(token.intoScanner(client), targetClient, target);
+          }
+        }));
+      }
+      long rows = 0;
+      for (Future<Long> future : futures) {
+        try {
+          rows += future.get();
+        } catch (ExecutionException e) {
+          throw new IOException(
+            String.format("Failed to copy Kudu table '%s' to '%s'. Reason : %s",
+                          source.getName(), target.getName(), e.getCause().getMessage()), e.getCause()
+          );
+        }
+      }
+      return rows;
+    } finally {
+      // Interrupted tasks close their scanners and sessions before ending, nothing writes to the target after this.
+      executor.shutdownNow();
+      try {
+        if (!executor.awaitTermination(config.getOperationTimeout(), TimeUnit.MILLISECONDS)) {
+          LOG.warn("Copies of tablets of Kudu table '{}' are still running after being interrupted.",
+                   source.getName());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private long copy(KuduScanner scanner, KuduClient client, KuduTable target) throws Exception {
+    int flushRows = config.getFlushRows();
+    String operation = config.getOperation();
+    List<ColumnSchema> columns = target.getSchema().getColumns();
+    Type[] types = new Type[columns.size()];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = columns.get(i).getType();
+    }
+
+    KuduSession session = client.newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+    session.setMutationBufferSpace(flushRows);
+    long rows = 0;
+    try {
+      while (scanner.hasMoreRows()) {
+        RowResultIterator results = scanner.nextRows();
+        while (results.hasNext()) {
+          RowResult result = results.next();
+          Operation op = KuduUtils.newOperation(target, operation);
+          PartialRow row = op.getRow();
+          for (int i = 0; i < types.length; i++) {
+            copyColumn(result, row, i, types[i]);
+          }
+          session.apply(op);
+          if (++rows % flushRows == 0) {
+            flush(session, target.getName());
+          }
+        }
+      }
+      flush(session, target.getName());
+    } finally {
+      scanner.close();
+      session.close();
+    }
+    return rows;
+  }
+
+  private static void flush(KuduSession session, String table) throws IOException {
+    for (OperationResponse response : session.flush()) {
+      if (response.hasRowError()) {
+        throw new IOException(
+          String.format("Kudu table '%s' rejected a row. Reason : %s", table, response.getRowError().toString())
+        );
+      }
+    }
+  }
+
+  private static void copyColumn(RowResult result, PartialRow row, int index, Type type) {
+    if (result.isNull(index)) {
+      // Set explicitly, so that an upsert clears the value of an existing row.
+      row.setNull(index);
+      return;
+    }
+    switch (type) {
+      case INT8:
+        row.addByte(index, result.getByte(index));
+        break;
+      case INT16:
+        row.addShort(index, result.getShort(index));
+        break;
+      case INT32:
+        row.addInt(index, result.getInt(index));
+        break;
+      case INT64:
+      case UNIXTIME_MICROS:
+        row.addLong(index, result.getLong(index));
+        break;
+      case BOOL:
+        row.addBoolean(index, result.getBoolean(index));
+        break;
+      case FLOAT:
+        row.addFloat(index, result.getFloat(index));
+        break;
+      case DOUBLE:
+        row.addDouble(index, result.getDouble(index));
+        break;
+      case STRING:
+        row.addString(index, result.getString(index));
+        break;
+      case BINARY:
+        // The row holds on to the buffer until it is flushed, so the bytes are copied out of the batch.
+        row.addBinary(index, result.getBinaryCopy(index));
+        break;
+      default:
+        throw new IllegalArgumentException(
+          String.format("Column at index %d is of unsupported type '%s'.", index, type)
+        );
+    }
+  }
+}
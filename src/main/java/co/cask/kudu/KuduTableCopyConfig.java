@@ -0,0 +1,302 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Macro;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.plugin.PluginConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.apache.kudu.ColumnSchema;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Configuration for the {@link KuduTableCopy} action.
+ */
+public final class KuduTableCopyConfig extends PluginConfig {
+  private static final String SAME_AS_SOURCE = "same as source";
+
+  @Name("master")
+  @Description("Comma separated list of <hostname>:<port>[,<hostanme>:<port>]* of Apache Kudu Masters.")
+  @Macro
+  public String optMasterAddresses;
+
+  @Name("source-table")
+  @Description("Name of the Kudu table to copy.")
+  @Macro
+  public String optSourceTable;
+
+  @Name("target-table")
+  @Description("Name of the Kudu table to copy to. It is created with the columns of the source table if it " +
+    "doesn't exist.")
+  @Macro
+  public String optTargetTable;
+
+  @Name("target-master")
+  @Description("Masters of the cluster of the target table. Defaults to the masters of the source table.")
+  @Nullable
+  @Macro
+  public String optTargetMasterAddresses;
+
+  @Name("hash-columns")
+  @Description("Comma separated key columns the target table is hash partitioned on. Defaults to all the key " +
+    "columns.")
+  @Nullable
+  public String optHashColumns;
+
+  @Name("buckets")
+  @Description("Number of hash buckets of the target table. Default is 16.")
+  @Nullable
+  public String optBuckets;
+
+  @Name("range-column")
+  @Description("Key column the target table is range partitioned on, in addition to the hash partitioning.")
+  @Nullable
+  public String optRangeColumn;
+
+  @Name("range-splits")
+  @Description("Comma separated values of the range column at which the range partitions of the target table " +
+    "are split.")
+  @Nullable
+  @Macro
+  public String optRangeSplits;
+
+  @Name("replicas")
+  @Description("Number of replicas of the tablets of the target table. Default is 3.")
+  @Nullable
+  public String optReplicas;
+
+  @Name("compression-algo")
+  @Description("Compression of the columns of the target table. Defaults to the compression of the source table.")
+  @Nullable
+  public String optCompressionAlgorithm;
+
+  @Name("encoding")
+  @Description("Encoding of the columns of the target table. Defaults to the encoding of the source table.")
+  @Nullable
+  public String optEncoding;
+
+  @Name("predicate")
+  @Description("Only rows matching this predicate are copied, for example \"region = 'eu' AND id < 1000\".")
+  @Nullable
+  @Macro
+  public String optPredicate;
+
+  @Name("operation")
+  @Description("Write operation, either 'upsert' or 'insert'. Default is 'upsert', so that copies can be re-run.")
+  @Nullable
+  public String optOperation;
+
+  @Name("opt-timeout")
+  @Description("Timeout for Kudu operations in milliseconds. Defaults is '30000 ms'.")
+  @Nullable
+  public String optOperationTimeoutMs;
+
+  @Name("row-flush")
+  @Description("Number of rows that are buffered before flushing to the tablet server")
+  @Nullable
+  public String optFlushRows;
+
+  @Name("threads")
+  @Description("Number of tablets copied in parallel. Default is 8.")
+  @Nullable
+  public String optThreads;
+
+  /**
+   * Validates the configuration fields.
+   *
+   * @throws IllegalArgumentException throw when there is issue with the configuration.
+   */
+  public void validate() throws IllegalArgumentException {
+    if (!containsMacro("master")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optMasterAddresses),
+                                  "Kudu Master Server address list is empty.");
+    }
+    if (!containsMacro("source-table")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optSourceTable), "Source table is not specified.");
+    }
+    if (!containsMacro("target-table")) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(optTargetTable), "Target table is not specified.");
+    }
+    if (!containsMacro("master") && !containsMacro("source-table") && !containsMacro("target-table")
+      && !containsMacro("target-master")) {
+      Preconditions.checkArgument(!getTargetMasterAddress().equals(getMasterAddress())
+                                    || !getTargetTable().equals(getSourceTable()),
+                                  "Source and target tables must be different.");
+    }
+    Preconditions.checkArgument(getBuckets() > 1, "Number of buckets must be at least 2.");
+    Preconditions.checkArgument(getThreads() > 0, "Number of threads must be positive.");
+    Preconditions.checkArgument(getOperation().equals("upsert") || getOperation().equals("insert"),
+                                "Operation must be either 'upsert' or 'insert'.");
+  }
+
+  public String getMasterAddress() {
+    return optMasterAddresses.trim();
+  }
+
+  public String getTargetMasterAddress() {
+    return Strings.isNullOrEmpty(optTargetMasterAddresses) ? getMasterAddress() : optTargetMasterAddresses.trim();
+  }
+
+  public String getSourceTable() {
+    return optSourceTable.trim();
+  }
+
+  public String getTargetTable() {
+    return optTargetTable.trim();
+  }
+
+  /**
+   * @return Columns the target table is hash partitioned on, empty to use all the key columns.
+   */
+  public List<String> getHashColumns() {
+    List<String> columns = new ArrayList<>();
+    if (optHashColumns != null) {
+      for (String column : optHashColumns.split(",")) {
+        if (!column.trim().isEmpty()) {
+          columns.add(column.trim());
+        }
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * @return Number of hash buckets of the target table.
+   */
+  public int getBuckets() {
+    return (optBuckets != null) ? Integer.parseInt(optBuckets) : 16;
+  }
+
+  /**
+   * @return Column the target table is range partitioned on, null if not specified.
+   */
+  @Nullable
+  public String getRangeColumn() {
+    return (optRangeColumn == null || optRangeColumn.trim().isEmpty()) ? null : optRangeColumn.trim();
+  }
+
+  /**
+   * @return Values at which the range partitions are split.
+   */
+  public List<String> getRangeSplits() {
+    List<String> splits = new ArrayList<>();
+    if (optRangeSplits != null) {
+      for (String split : optRangeSplits.split(",")) {
+        if (!split.trim().isEmpty()) {
+          splits.add(split.trim());
+        }
+      }
+    }
+    return splits;
+  }
+
+  /**
+   * @return Number of replicas of the tablets of the target table.
+   */
+  public int getReplicas() {
+    return (optReplicas != null) ? Integer.parseInt(optReplicas) : 3;
+  }
+
+  /**
+   * @return Compression of the target columns, null to keep the compression of the source columns.
+   */
+  @Nullable
+  public ColumnSchema.CompressionAlgorithm getCompression() {
+    if (Strings.isNullOrEmpty(optCompressionAlgorithm)
+      || optCompressionAlgorithm.trim().equalsIgnoreCase(SAME_AS_SOURCE)) {
+      return null;
+    }
+    switch (optCompressionAlgorithm.trim().toLowerCase()) {
+      case "snappy":
+        return ColumnSchema.CompressionAlgorithm.SNAPPY;
+      case "lz4":
+        return ColumnSchema.CompressionAlgorithm.LZ4;
+      case "zlib":
+        return ColumnSchema.CompressionAlgorithm.ZLIB;
+      case "no compression":
+        return ColumnSchema.CompressionAlgorithm.NO_COMPRESSION;
+      default:
+        return ColumnSchema.CompressionAlgorithm.DEFAULT_COMPRESSION;
+    }
+  }
+
+  /**
+   * @return Encoding of the target columns, null to keep the encoding of the source columns.
+   */
+  @Nullable
+  public ColumnSchema.Encoding getEncoding() {
+    if (Strings.isNullOrEmpty(optEncoding) || optEncoding.trim().equalsIgnoreCase(SAME_AS_SOURCE)) {
+      return null;
+    }
+    switch (optEncoding.trim().toLowerCase()) {
+      case "plain":
+        return ColumnSchema.Encoding.PLAIN_ENCODING;
+      case "prefix":
+        return ColumnSchema.Encoding.PREFIX_ENCODING;
+      case "group variant":
+        return ColumnSchema.Encoding.GROUP_VARINT;
+      case "rle":
+        return ColumnSchema.Encoding.RLE;
+      case "dictionary":
+        return ColumnSchema.Encoding.DICT_ENCODING;
+      case "bit shuffle":
+        return ColumnSchema.Encoding.BIT_SHUFFLE;
+      default:
+        return ColumnSchema.Encoding.AUTO_ENCODING;
+    }
+  }
+
+  /**
+   * @return Predicate of the rows to copy, empty if not specified.
+   */
+  public String getPredicate() {
+    return optPredicate == null ? "" : optPredicate.trim();
+  }
+
+  /**
+   * @return Write operation, either 'upsert' or 'insert'.
+   */
+  public String getOperation() {
+    return Strings.isNullOrEmpty(optOperation) ? "upsert" : optOperation.trim().toLowerCase();
+  }
+
+  /**
+   * @return Timeout for user operations.
+   */
+  public int getOperationTimeout() {
+    return (optOperationTimeoutMs != null) ? Integer.parseInt(optOperationTimeoutMs) : 30000;
+  }
+
+  /**
+   * @return Number of rows to be buffered before being flushed.
+   */
+  public int getFlushRows() {
+    return (optFlushRows != null) ? Integer.parseInt(optFlushRows) : 1000;
+  }
+
+  /**
+   * @return Number of tablets copied in parallel.
+   */
+  public int getThreads() {
+    return (optThreads != null) ? Integer.parseInt(optThreads) : 8;
+  }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.PartitionSchema;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResultIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Profile of a Kudu table, describing its partitioning, the size of its tablets and the values of its columns,
+ * returned by the {@code getTableProfile} endpoint of the Kudu source.
+ *
+ * <p>
+ *   The Kudu client doesn't expose the on-disk size of tablets. Rows are counted by scans projecting no columns,
+ *   which stop at a maximum number of rows per tablet, and sizes are estimated from the width of sampled rows,
+ *   before encoding and compression. Column statistics are estimated from a uniform sample of the rows counted
+ *   in each tablet. The rows read per tablet are also bounded by {@link #MAX_TABLE_ROWS} split across the
+ *   tablets, so that profiling a large table stays cheap enough for an endpoint.
+ * </p>
+ */
+final class KuduTableProfile {
+  // Targets used for the suggested settings.
+  private static final long TARGET_TABLET_BYTES = 1024L * 1024 * 1024;
+  private static final long TARGET_FLUSH_BYTES = 1024L * 1024;
+  private static final int MAX_THREADS = 8;
+
+  // Rows counted, and then read for the sample, across all the tablets of the table.
+  static final long MAX_TABLE_ROWS = 5000000;
+
+  // Fields are serialized as the response of the endpoint.
+  String table;
+  int tablets;
+  Partitioning partitioning;
+  List<Tablet> tabletProfiles;
+  List<Column> columns;
+  long estimatedRows;
+  long estimatedBytes;
+  boolean exact;
+  double skew;
+  Suggestions suggestions;
+
+  /**
+   * Profiles the table.
+   *
+   * @param client connected to the cluster.
+   * @param table to be profiled.
+   * @param sampleRows maximum number of rows sampled per tablet for the column statistics.
+   * @param maxCountRows maximum number of rows counted per tablet, lowered for tables with many tablets so that
+   *                     at most {@link #MAX_TABLE_ROWS} rows are counted overall.
+   * @param timeout of the scan requests in milliseconds.
+   * @return {@link KuduTableProfile} of the table.
+   */
+  static KuduTableProfile profile(final KuduClient client, KuduTable table, final int sampleRows,
+                                  final long maxCountRows, long timeout) throws IOException {
+    final Schema schema = table.getSchema();
+    List<KuduScanToken> counts = client.newScanTokenBuilder(table)
+      .setProjectedColumnIndexes(Collections.<Integer>emptyList())
+      .setTimeout(timeout)
+      .build();
+    List<KuduScanToken> samples = client.newScanTokenBuilder(table).setTimeout(timeout).build();
+
+    KuduTableProfile profile = new KuduTableProfile();
+    profile.table = table.getName();
+    profile.tablets = counts.size();
+    profile.partitioning = new Partitioning(table.getPartitionSchema(), schema);
+    final long maxRows = Math.max(1, Math.min(maxCountRows, MAX_TABLE_ROWS / Math.max(1, counts.size())));
+
+    // Tablets are scanned in parallel, each by a count scan and then a sample scan over the counted rows.
+    // Both lists of tokens are ordered by the partitions of the tablets.
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(MAX_THREADS, counts.size())));
+    List<Future<Tablet>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < counts.size(); i++) {
+        final KuduScanToken count = counts.get(i);
+        final KuduScanToken sample = samples.get(i);
+        futures.add(executor.submit(new Callable<Tablet>() {
+          @Override
+          public Tablet call() throws Exception {
+            Tablet tablet = new Tablet(count.getTablet());
+            tablet.count(count.intoScanner(client), maxRows);
+            tablet.sample(sample.intoScanner(client), schema, sampleRows, tablet.estimatedRows);
+            return tablet;
+          }
+        }));
+      }
+      profile.tabletProfiles = new ArrayList<>();
+      for (Future<Tablet> future : futures) {
+        profile.tabletProfiles.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while profiling table " + table.getName(), e);
+    } catch (ExecutionException e) {
+      throw new IOException(
+        String.format("Failed to profile table '%s'. %s", table.getName(), e.getCause().getMessage()), e.getCause()
+      );
+    } finally {
+      executor.shutdownNow();
+    }
+
+    profile.summarize(schema);
+    return profile;
+  }
+
+  private void summarize(Schema schema) {
+    exact = true;
+    long sampled = 0;
+    long sampledBytes = 0;
+    long maxRows = 0;
+    Set<String> servers = new HashSet<>();
+    for (Tablet tablet : tabletProfiles) {
+      estimatedRows += tablet.estimatedRows;
+      exact &= tablet.exact;
+      sampled += tablet.sampledRows;
+      sampledBytes += tablet.sampledBytes;
+      maxRows = Math.max(maxRows, tablet.estimatedRows);
+      for (Replica replica : tablet.replicas) {
+        servers.add(replica.host + ":" + replica.port);
+      }
+    }
+    double rowBytes = sampled == 0 ? 0 : (double) sampledBytes / sampled;
+    estimatedBytes = (long) (estimatedRows * rowBytes);
+    for (Tablet tablet : tabletProfiles) {
+      tablet.estimatedBytes = (long) (tablet.estimatedRows * rowBytes);
+    }
+    skew = estimatedRows == 0 ? 1.0 : (double) maxRows * tablets / estimatedRows;
+
+    columns = new ArrayList<>();
+    for (int i = 0; i < schema.getColumnCount(); i++) {
+      columns.add(new Column(schema.getColumnByIndex(i), tabletProfiles, i, sampled, estimatedRows));
+    }
+    suggestions = new Suggestions(this, servers.size(), rowBytes);
+  }
+
+  /**
+   * Hash and range partitioning of the table.
+   */
+  static final class Partitioning {
+    List<HashBuckets> hash = new ArrayList<>();
+    List<String> rangeColumns;
+
+    Partitioning(PartitionSchema partitionSchema, Schema schema) {
+      for (PartitionSchema.HashBucketSchema bucketSchema : partitionSchema.getHashBucketSchemas()) {
+        hash.add(new HashBuckets(names(bucketSchema.getColumnIds(), schema), bucketSchema.getNumBuckets()));
+      }
+      rangeColumns = names(partitionSchema.getRangeSchema().getColumns(), schema);
+    }
+
+    private static List<String> names(List<Integer> ids, Schema schema) {
+      List<String> names = new ArrayList<>();
+      for (int id : ids) {
+        names.add(schema.getColumnByIndex(schema.getColumnIndex(id)).getName());
+      }
+      return names;
+    }
+  }
+
+  /**
+   * Hash partitioning on a set of columns.
+   */
+  static final class HashBuckets {
+    List<String> columns;
+    int buckets;
+
+    HashBuckets(List<String> columns, int buckets) {
+      this.columns = columns;
+      this.buckets = buckets;
+    }
+  }
+
+  /**
+   * Replica of a tablet.
+   */
+  static final class Replica {
+    String host;
+    int port;
+    String role;
+
+    Replica(LocatedTablet.Replica replica) {
+      this.host = replica.getRpcHost();
+      this.port = replica.getRpcPort();
+      this.role = replica.getRole();
+    }
+  }
+
+  /**
+   * Profile of a tablet.
+   */
+  static final class Tablet {
+    String tabletId;
+    String partition;
+    List<Replica> replicas = new ArrayList<>();
+    long estimatedRows;
+    boolean exact;
+    long estimatedBytes;
+    transient long sampledRows;
+    transient long sampledBytes;
+    transient long[] nulls;
+    transient List<Map<Object, Integer>> frequencies;
+
+    Tablet(LocatedTablet tablet) {
+      this.tabletId = new String(tablet.getTabletId(), StandardCharsets.UTF_8);
+      this.partition = tablet.getPartition().toString();
+      for (LocatedTablet.Replica replica : tablet.getReplicas()) {
+        replicas.add(new Replica(replica));
+      }
+    }
+
+    void count(KuduScanner scanner, long maxRows) throws IOException {
+      try {
+        while (scanner.hasMoreRows() && estimatedRows < maxRows) {
+          estimatedRows += scanner.nextRows().getNumRows();
+        }
+        exact = !scanner.hasMoreRows();
+      } finally {
+        scanner.close();
+      }
+    }
+
+    /**
+     * Samples rows uniformly among the first rows of the tablet, which are all of its rows when the count is exact.
+     * Values are only read for the rows kept in the reservoir.
+     */
+    void sample(KuduScanner scanner, Schema schema, int maxRows, long scanRows) throws IOException {
+      int columns = schema.getColumnCount();
+      // Seeded by the tablet, so that profiling the same table twice gives the same statistics.
+      Random random = new Random(tabletId.hashCode());
+      List<Object[]> reservoir = new ArrayList<>();
+      long seen = 0;
+      try {
+        while (scanner.hasMoreRows() && seen < scanRows) {
+          RowResultIterator rows = scanner.nextRows();
+          while (rows.hasNext() && seen < scanRows) {
+            RowResult row = rows.next();
+            seen++;
+            if (reservoir.size() < maxRows) {
+              reservoir.add(values(row, schema));
+              continue;
+            }
+            long index = (long) (random.nextDouble() * seen);
+            if (index < maxRows) {
+              reservoir.set((int) index, values(row, schema));
+            }
+          }
+        }
+      } finally {
+        scanner.close();
+      }
+
+      nulls = new long[columns];
+      frequencies = new ArrayList<>();
+      for (int i = 0; i < columns; i++) {
+        frequencies.add(new HashMap<Object, Integer>());
+      }
+      for (Object[] values : reservoir) {
+        add(values, schema);
+      }
+    }
+
+    private void add(Object[] values, Schema schema) {
+      sampledRows++;
+      for (int i = 0; i < values.length; i++) {
+        Object value = values[i];
+        if (value == null) {
+          nulls[i]++;
+          continue;
+        }
+        if (value instanceof String) {
+          sampledBytes += ((String) value).getBytes(StandardCharsets.UTF_8).length;
+        } else if (value instanceof ByteBuffer) {
+          sampledBytes += ((ByteBuffer) value).remaining();
+        } else {
+          sampledBytes += schema.getColumnByIndex(i).getType().getSize();
+        }
+        Map<Object, Integer> frequency = frequencies.get(i);
+        Integer count = frequency.get(value);
+        frequency.put(value, count == null ? 1 : count + 1);
+      }
+    }
+
+    /**
+     * @return Values of the row, copied out of the batch, null for null values.
+     */
+    private static Object[] values(RowResult row, Schema schema) {
+      Object[] values = new Object[schema.getColumnCount()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = KuduUtils.getValue(row, i);
+      }
+      return values;
+    }
+  }
+
+  /**
+   * Statistics of a column, estimated from the sample.
+   */
+  static final class Column {
+    String name;
+    String type;
+    boolean key;
+    double nullFraction;
+    long sampledDistinct;
+    long estimatedDistinct;
+
+    Column(ColumnSchema column, List<Tablet> tablets, int index, long sampled, long rows) {
+      this.name = column.getName();
+      this.type = column.getType().getName();
+      this.key = column.isKey();
+
+      long nulls = 0;
+      Map<Object, Integer> frequency = new HashMap<>();
+      for (Tablet tablet : tablets) {
+        nulls += tablet.nulls[index];
+        for (Map.Entry<Object, Integer> entry : tablet.frequencies.get(index).entrySet()) {
+          Integer count = frequency.get(entry.getKey());
+          frequency.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+        }
+      }
+      this.nullFraction = sampled == 0 ? 0 : (double) nulls / sampled;
+      this.sampledDistinct = frequency.size();
+
+      // Guaranteed-error estimator: values seen once in the sample are scaled by the square root of the
+      // sampling ratio, values seen more often are assumed to have been all seen.
+      long once = 0;
+      for (int count : frequency.values()) {
+        if (count == 1) {
+          once++;
+        }
+      }
+      long nonNull = sampled - nulls;
+      double ratio = nonNull == 0 ? 1 : Math.max(1.0, rows * (1 - nullFraction) / nonNull);
+      this.estimatedDistinct = Math.round(Math.sqrt(ratio) * once + (sampledDistinct - once));
+    }
+  }
+
+  /**
+   * Settings suggested by the profile for the source and the sink.
+   */
+  static final class Suggestions {
+    // Number of splits read in parallel by the Kudu source, one per non empty tablet.
+    int sourceSplits;
+    // Number of hash buckets for a table of this size created by the Kudu sink.
+    int sinkBuckets;
+    // Number of rows buffered by the Kudu sink before flushing.
+    int sinkFlushRows;
+
+    Suggestions(KuduTableProfile profile, int servers, double rowBytes) {
+      for (Tablet tablet : profile.tabletProfiles) {
+        if (tablet.estimatedRows > 0) {
+          sourceSplits++;
+        }
+      }
+      long buckets = (profile.estimatedBytes + TARGET_TABLET_BYTES - 1) / TARGET_TABLET_BYTES;
+      sinkBuckets = (int) Math.min(Math.max(Math.max(buckets, servers), 2), 1024);
+      sinkFlushRows = rowBytes == 0 ? 1000 : (int) Math.min(Math.max(TARGET_FLUSH_BYTES / rowBytes, 100), 10000);
+    }
+  }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Type mapping and table management shared by the Kudu plugins.
+ */
+public final class KuduUtils {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduUtils.class);
+
+  /**
+   * Name of the key column added to salted tables.
+   */
+  public static final String SALT_COLUMN = "__salt";
+
+  private KuduUtils() {
+  }
+
+  /**
+   * Creates a Kudu table if it doesn't exist, else checks that the existing table matches the write schema.
+   *
+   * @param client Kudu client to be used for the admin operations.
+   * @param config of the sink.
+   */
+  public static void createKuduTable(KuduClient client, KuduSinkConfig config) {
+    createKuduTable(client, config, config.getTableName());
+  }
+
+  /**
+   * Creates the Kudu table with the given name from the sink configuration, if it doesn't exist.
+   *
+   * @param client Kudu client to be used for the admin operations.
+   * @param config of the sink.
+   * @param tableName name of the table, which differs from the configured one for staging tables.
+   */
+  public static void createKuduTable(KuduClient client, KuduSinkConfig config, String tableName) {
+    // Check if the table exists, if table does not exist, then create one
+    // with schema defined in the write schema.
+    try {
+      KuduMetadataCache.TableMetadata metadata =
+        KuduMetadataCache.get(client, config.getMasterAddress(), tableName);
+      if (metadata == null && !config.hasSchema()) {
+        throw new RuntimeException(
+          String.format("Table '%s' does not exist and no write schema is specified to create it.", tableName)
+        );
+      }
+      // In dynamic schema mode, records are checked against the table when they are written.
+      if (metadata != null && config.isDynamicSchema()) {
+        return;
+      }
+      Schema writeSchema = config.getTableSchema();
+      if (metadata == null) {
+        // Convert the writeSchema into Kudu schema.
+        List<ColumnSchema> columnSchemas = toKuduSchema(writeSchema, config.getKeyColumns(),
+                                                        config.getCompression(), config.getEncoding());
+        org.apache.kudu.Schema kuduSchema = new org.apache.kudu.Schema(columnSchemas);
+        CreateTableOptions options = new CreateTableOptions();
+        options.setNumReplicas(config.getReplicas());
+        options.addHashPartitions(new ArrayList<>(config.getKeyColumns()), config.getBuckets(), config.getSeed());
+
+        // For bulk loads, the table is pre-split into evenly loaded ranges so that
+        // the initial writes are spread across all the tablets.
+        String rangeColumn = config.getRangeColumn();
+        if (config.isBulkLoad() && rangeColumn != null) {
+          ColumnSchema column = kuduSchema.getColumn(rangeColumn);
+          KuduRangeSplits.validate(column);
+          List<Object> splits = KuduRangeSplits.compute(config.getKeyHistogram(), column.getType(),
+                                                        config.getRangePartitions());
+          KuduRangeSplits.addSplits(options, kuduSchema, rangeColumn, splits);
+          LOG.info("Pre-splitting Kudu table '{}' into {} ranges on column '{}'.",
+                   tableName, splits.size() + 1, rangeColumn);
+        }
+
+        try {
+          KuduTable table = client.createTable(tableName, kuduSchema, options);
+          LOG.info("Successfully create Kudu table '{}', Table ID '{}'", tableName, table.getTableId());
+        } catch (KuduException e) {
+          throw new RuntimeException(
+            String.format("Unable to create table '%s'. Reason : %s", tableName, e.getMessage())
+          );
+        }
+      } else {
+        // If the table exists in Kudu, compare the schema and make sure they are the same.
+        // If they are not the same then throw an exception.
+        try {
+          metadata.checkCompatibility(tableName, writeSchema);
+        } catch (RuntimeException e) {
+          // The cached schema may be stale, so check once more against the current table.
+          KuduMetadataCache.invalidate(config.getMasterAddress(), tableName);
+          metadata = KuduMetadataCache.get(client, config.getMasterAddress(), tableName);
+          if (metadata == null) {
+            throw e;
+          }
+          try {
+            metadata.checkCompatibility(tableName, writeSchema);
+          } catch (RuntimeException retry) {
+            KuduMetadataCache.invalidate(config.getMasterAddress(), tableName);
+            throw retry;
+          }
+        }
+      }
+    } catch (KuduException e) {
+      String msg = String.format("Unable to check if the table '%s' exists in kudu. Reason : %s",
+                                 tableName, e.getMessage());
+      LOG.warn(msg);
+      throw new RuntimeException(e);
+    } catch (TypeConversionException e) {
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  /**
+   * Creates a new write operation on the table.
+   *
+   * @param table to be written to.
+   * @param type of the operation, either 'upsert' or 'insert'.
+   * @return {@link Operation} with an empty row.
+   */
+  public static Operation newOperation(KuduTable table, String type) {
+    switch (type) {
+      case "upsert":
+        return table.newUpsert();
+      case "insert":
+        return table.newInsert();
+      default:
+        throw new IllegalArgumentException(String.format("Unsupported Kudu write operation '%s'.", type));
+    }
+  }
+
+  /**
+   * @return true if the status indicates that Kudu is temporarily unavailable and the write could succeed later.
+   */
+  public static boolean isUnavailable(Status status) {
+    return status.isTimedOut() || status.isServiceUnavailable() || status.isNetworkError() || status.isAborted();
+  }
+
+  /**
+   * Returns a value of the row a {@link RowResult} is positioned on, copied out of its batch so that it can be held
+   * after the iterator of the batch has moved on.
+   *
+   * @return the value, as a {@link ByteBuffer} for binaries, null for a null value.
+   */
+  public static Object getValue(RowResult row, int index) {
+    if (row.isNull(index)) {
+      return null;
+    }
+    switch (row.getColumnType(index)) {
+      case STRING:
+        return row.getString(index);
+      case BINARY:
+        return ByteBuffer.wrap(row.getBinaryCopy(index));
+      case BOOL:
+        return row.getBoolean(index);
+      case FLOAT:
+        return row.getFloat(index);
+      case DOUBLE:
+        return row.getDouble(index);
+      case INT8:
+        return row.getByte(index);
+      case INT16:
+        return row.getShort(index);
+      case INT32:
+        return row.getInt(index);
+      default:
+        return row.getLong(index);
+    }
+  }
+
+  /**
+   * @return Schema with the salt column added as the first field.
+   */
+  public static Schema withSaltColumn(Schema schema) {
+    List<Schema.Field> fields = new ArrayList<>();
+    fields.add(Schema.Field.of(SALT_COLUMN, Schema.of(Schema.Type.INT)));
+    fields.addAll(schema.getFields());
+    return Schema.recordOf(schema.getRecordName(), fields);
+  }
+
+  /**
+   * @return Copy of the record with the salt, in the schema returned by {@link #withSaltColumn(Schema)}.
+   */
+  public static StructuredRecord withSalt(StructuredRecord record, Schema saltedSchema, int salt) {
+    StructuredRecord.Builder builder = StructuredRecord.builder(saltedSchema).set(SALT_COLUMN, salt);
+    for (Schema.Field field : record.getSchema().getFields()) {
+      builder.set(field.getName(), record.get(field.getName()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Computes the salt of a row from a hash of the values of its primary key, so that a key always gets the same
+   * salt. Writing a key again, from an upsert, a retried task or a replayed batch, then replaces the same row
+   * rather than adding a row with another salt.
+   */
+  public static final class Salter {
+    private final int buckets;
+    private final List<String> keyFields = new ArrayList<>();
+
+    /**
+     * @param buckets number of salt values.
+     * @param table schema of the salted table, whose key columns other than the salt column are hashed.
+     */
+    public Salter(int buckets, org.apache.kudu.Schema table) {
+      this.buckets = buckets;
+      for (ColumnSchema column : table.getPrimaryKeyColumns()) {
+        if (!SALT_COLUMN.equals(column.getName())) {
+          keyFields.add(column.getName());
+        }
+      }
+    }
+
+    /**
+     * @return salt of the record, between 0 and {@code buckets - 1}.
+     */
+    public int salt(StructuredRecord record) {
+      // Murmur3 is stable across JVMs and runs, unlike the hash codes of the values.
+      Hasher hasher = Hashing.murmur3_32().newHasher();
+      for (String field : keyFields) {
+        Object value = record.get(field);
+        if (value == null) {
+          hasher.putByte((byte) 0);
+        } else if (value instanceof String) {
+          byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+          hasher.putByte((byte) 1).putInt(bytes.length).putBytes(bytes);
+        } else if (value instanceof byte[]) {
+          byte[] bytes = (byte[]) value;
+          hasher.putByte((byte) 1).putInt(bytes.length).putBytes(bytes);
+        } else if (value instanceof ByteBuffer) {
+          ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+          byte[] bytes = new byte[buffer.remaining()];
+          buffer.get(bytes);
+          hasher.putByte((byte) 1).putInt(bytes.length).putBytes(bytes);
+        } else if (value instanceof Double || value instanceof Float) {
+          hasher.putByte((byte) 1).putDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+          hasher.putByte((byte) 1).putBoolean((Boolean) value);
+        } else {
+          hasher.putByte((byte) 1).putLong(((Number) value).longValue());
+        }
+      }
+      return (hasher.hash().asInt() & Integer.MAX_VALUE) % buckets;
+    }
+  }
+
+  /**
+   * Adds all the fields of the write schema from the {@link StructuredRecord} to the row.
+   *
+   * @param row Kudu Row.
+   * @param schema write schema.
+   * @param input record to be written.
+   */
+  public static void addToRow(PartialRow row, Schema schema, StructuredRecord input) {
+    for (Schema.Field field : schema.getFields()) {
+      Object val = input.get(field.getName());
+      if (val != null) {
+        addToRow(row, field.getName(), field.getSchema(), val);
+      }
+    }
+  }
+
+  /**
+   * Adds a field to the row from the {@link StructuredRecord}.
+   *
+   * @param row Kudu Row.
+   * @param name of the field.
+   * @param schema of the field.
+   * @param val to be added to the field.
+   */
+  public static void addToRow(PartialRow row, String name, Schema schema, Object val) {
+    switch (schema.getType()) {
+      case BOOLEAN:
+        row.addBoolean(name, (Boolean) val);
+        break;
+      case INT:
+        row.addInt(name, (Integer) val);
+        break;
+      case LONG:
+        row.addLong(name, (Long) val);
+        break;
+      case FLOAT:
+        row.addFloat(name, (Float) val);
+        break;
+      case DOUBLE:
+        row.addDouble(name, (Double) val);
+        break;
+      case BYTES:
+        if (val instanceof ByteBuffer) {
+          row.addBinary(name, (ByteBuffer) val);
+        } else {
+          row.addBinary(name, (byte[]) val);
+        }
+        break;
+      case STRING:
+        row.addString(name, (String) val);
+        break;
+      case UNION: // Recursively drill down to find the type.
+        addToRow(row, name, schema.getNonNullable(), val);
+        break;
+      default:
+        throw new IllegalArgumentException(
+          "Field '" + name + "' is of unsupported type '" + schema.getType() + "' by Kudu."
+        );
+    }
+  }
+
+  /**
+   * Checks if Kudu Schema for an existing table is same as the write schema specified by the pipeline.
+   *
+   * @param tableName name of the Kudu table.
+   * @param kuduSchema field of Kudu schema.
+   * @param writeSchema fields of pipeline schema.
+   */
+  public static void checkSchemaCompatibility(String tableName, org.apache.kudu.Schema kuduSchema,
+                                              Schema writeSchema) {
+    if (kuduSchema.getColumns().size() != writeSchema.getFields().size()) {
+      throw new RuntimeException(
+        String.format("Kudu table schema and write schema do not have same number of columns. " +
+                        "Please fix schema and re-submit.")
+      );
+    }
+
+    // Iterate through all the field in the Kudu table.
+    for (ColumnSchema kschema : kuduSchema.getColumns()) {
+      String kName = kschema.getName();
+      Type kType = kschema.getType();
+
+      // Check if field name matches.
+      if (writeSchema.getField(kName) == null) {
+        throw new RuntimeException(
+          String.format("Kudu table '%s' has a field '%s' that does not exist in your write schema. Please" +
+                          "make the appropriate change and re-submit the pipeline.", tableName, kName)
+        );
+      } else {
+        // If it matches, check if the type matches.
+        try {
+          if (!toKuduType(kName, writeSchema.getField(kName).getSchema()).equals(kType)) {
+            throw new RuntimeException(
+              String.format("Kudu table '%s' has a field '%s' that does not match the type in your write schema. " +
+                              "Please change the type of field '%s' and re-submit", tableName, kName, kName)
+            );
+          }
+        } catch (TypeConversionException e) {
+          throw new RuntimeException(
+            String.format("Kudu table '%s' has a field '%s' that has type that is not supported by kudu. Please" +
+                            "change the type of field '%s' to one supported by Kudu and re-submit",
+                          tableName, kName, kName)
+          );
+        }
+      }
+    }
+  }
+
+  /**
+   * Convert from {@link co.cask.cdap.api.data.schema.Schema.Type} to {@link Type}.
+   *
+   * @param schema {@link StructuredRecord} field schema.
+   * @return {@link Type} Kudu type.
+   * @throws TypeConversionException thrown when can't be converted.
+   */
+  public static Type toKuduType(String name, Schema schema) throws TypeConversionException {
+    Schema.Type type = schema.getType();
+    if (type == Schema.Type.STRING) {
+      return Type.STRING;
+    } else if (type == Schema.Type.INT) {
+      return Type.INT32;
+    } else if (type == Schema.Type.LONG) {
+      return Type.INT64;
+    } else if (type == Schema.Type.BYTES) {
+      return Type.BINARY;
+    } else if (type == Schema.Type.DOUBLE) {
+      return Type.DOUBLE;
+    } else if (type == Schema.Type.FLOAT) {
+      return Type.FLOAT;
+    } else if (type == Schema.Type.BOOLEAN) {
+      return Type.BOOL;
+    } else if (type == Schema.Type.UNION) { // Recursively drill down into the non-nullable type.
+      return toKuduType(name, schema.getNonNullable());
+    } else {
+      throw new TypeConversionException(
+        String.format("Field '%s' is having a type '%s' that is not supported by Kudu. Please change the type.",
+                      name, type.toString())
+      );
+    }
+  }
+
+  /**
+   * Converts from CDAP field types to Kudu types.
+   *
+   * @param schema CDAP Schema
+   * @param columns List of columns that are considered as keys
+   * @param algorithm Compression algorithm to be used for the column.
+   * @param encoding Encoding type
+   * @return List of {@link ColumnSchema}
+   * @throws TypeConversionException thrown when CDAP schema cannot be converted to Kudu Schema.
+   */
+  public static List<ColumnSchema> toKuduSchema(Schema schema, Set<String> columns,
+                                                ColumnSchema.CompressionAlgorithm algorithm,
+                                                ColumnSchema.Encoding encoding)
+    throws TypeConversionException {
+    List<ColumnSchema> columnSchemas = new ArrayList<>();
+    for (Schema.Field field : schema.getFields()) {
+      String name = field.getName();
+      Type kuduType = toKuduType(name, field.getSchema());
+      ColumnSchema.ColumnSchemaBuilder builder = new ColumnSchema.ColumnSchemaBuilder(name, kuduType);
+      if (field.getSchema().isNullable()) {
+        builder.nullable(true);
+      }
+      builder.encoding(encoding);
+      builder.compressionAlgorithm(algorithm);
+      if (columns.contains(name)) {
+        builder.key(true);
+      }
+      columnSchemas.add(builder.build());
+    }
+    return columnSchemas;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide budget of the bytes buffered by the Kudu record writers running in the same JVM.
+ *
+ * <p>
+ *   Writers reserve the budget in chunks as rows are buffered, by their estimated encoded size, and release
+ *   their reservation when they flush. A writer that cannot reserve a chunk flushes its own rows first, and
+ *   then waits for the budget in arrival order, so that wide rows in one task don't take the memory of the
+ *   others. Waits are bounded, after which the writer buffers its rows over the budget rather than failing the
+ *   task, until its next flush. These bytes are accounted as overdrawn, so that the use of the budget includes them.
+ * </p>
+ */
+final class KuduWriteBudget {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduWriteBudget.class);
+
+  // The budget is reserved in kilobytes, so that budgets larger than 2 GB fit in a semaphore.
+  static final int UNIT_BYTES = 1024;
+  static final int CHUNK_UNITS = 64;
+
+  private static KuduWriteBudget instance;
+
+  private final Semaphore units;
+  private final int totalUnits;
+  private final AtomicLong used = new AtomicLong();
+  private final AtomicLong overdrawn = new AtomicLong();
+
+  private KuduWriteBudget(int totalUnits) {
+    this.totalUnits = totalUnits;
+    this.units = new Semaphore(totalUnits, true);
+  }
+
+  /**
+   * Returns the budget of the JVM, creating it with the given size on first use. Later sizes are ignored, as
+   * the budget is shared by all the writers of the JVM.
+   *
+   * @param maxBytes size of the budget in bytes.
+   */
+  static synchronized KuduWriteBudget get(long maxBytes) {
+    int requested = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / UNIT_BYTES));
+    if (instance == null) {
+      instance = new KuduWriteBudget(requested);
+      LOG.info("Kudu write buffers of this JVM are limited to {} MB.", maxBytes / (1024 * 1024));
+    } else if (instance.totalUnits != requested) {
+      LOG.debug("Kudu write budget of {} bytes is ignored, the budget of this JVM is already {} bytes.",
+                maxBytes, (long) instance.totalUnits * UNIT_BYTES);
+    }
+    return instance;
+  }
+
+  /**
+   * @return Number of units reserved at a time.
+   */
+  int getChunkUnits() {
+    return Math.min(CHUNK_UNITS, totalUnits);
+  }
+
+  /**
+   * Reserves units without waiting.
+   *
+   * @return true if the units were reserved.
+   */
+  boolean tryReserve(int count) {
+    if (!units.tryAcquire(count)) {
+      return false;
+    }
+    used.addAndGet(count);
+    return true;
+  }
+
+  /**
+   * Waits for units to be released, in arrival order.
+   *
+   * @return true if the units were reserved, false if the timeout elapsed.
+   */
+  boolean reserve(int count, long timeoutMs) throws InterruptedException {
+    if (!units.tryAcquire(count, timeoutMs, TimeUnit.MILLISECONDS)) {
+      return false;
+    }
+    used.addAndGet(count);
+    return true;
+  }
+
+  /**
+   * Releases units reserved with {@link #tryReserve} or {@link #reserve}.
+   */
+  void release(int count) {
+    if (count > 0) {
+      used.addAndGet(-count);
+      units.release(count);
+    }
+  }
+
+  /**
+   * Accounts bytes buffered over the budget, after waiting for it timed out.
+   */
+  void overdraw(long bytes) {
+    overdrawn.addAndGet(bytes);
+  }
+
+  /**
+   * Releases bytes accounted with {@link #overdraw}.
+   */
+  void repay(long bytes) {
+    if (bytes > 0) {
+      overdrawn.addAndGet(-bytes);
+    }
+  }
+
+  /**
+   * @return Bytes of the budget currently reserved by the writers of the JVM, including the bytes overdrawn.
+   */
+  long getUsedBytes() {
+    return used.get() * UNIT_BYTES + overdrawn.get();
+  }
+
+  /**
+   * Estimates the encoded size of a row, which is the fixed size of the columns of the table plus the UTF-8 length
+   * of the string values and the length of the binary values.
+   *
+   * @param rowSize fixed size of a row of the table, as returned by {@link org.apache.kudu.Schema#getRowSize()}.
+   */
+  static long estimateSize(int rowSize, StructuredRecord record) {
+    long size = rowSize;
+    for (Schema.Field field : record.getSchema().getFields()) {
+      Object val = record.get(field.getName());
+      if (val instanceof String) {
+        size += utf8Length((String) val);
+      } else if (val instanceof byte[]) {
+        size += ((byte[]) val).length;
+      } else if (val instanceof ByteBuffer) {
+        size += ((ByteBuffer) val).remaining();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return Length of the string encoded in UTF-8, counted without encoding it.
+   */
+  static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800 || Character.isSurrogate(c)) {
+        // Each half of a surrogate pair counts for half of the four bytes of the pair.
+        length += 2;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.AlterTableOptions;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write plans of the records written by the Kudu sink in dynamic schema mode, in which every record is
+ * written with its own schema.
+ *
+ * <p>
+ *   A plan maps the fields of a record schema to the columns of the table by name, once per distinct schema,
+ *   so that records are written by column index without resolving names or types per record. Plans are
+ *   looked up by identity first, as the records of a stage usually share the same schema instance, then by
+ *   the schema fingerprint, in a bounded least recently used cache. Fields that are not columns of the table
+ *   are either ignored or added to the table as nullable columns. Kudu alters tables asynchronously, so the
+ *   writer waits for the alteration to be done on all the tablets before writing to the new columns.
+ * </p>
+ */
+final class KuduWritePlans {
+  private static final Logger LOG = LoggerFactory.getLogger(KuduWritePlans.class);
+
+  static final int MAX_PLANS = 256;
+
+  // How often the masters are asked whether columns have been added to all the tablets.
+  private static final long ALTER_POLL_MS = 100;
+
+  private final KuduClient client;
+  private final String master;
+  private final boolean addColumns;
+  private final Map<Schema, WritePlan> plans = new LinkedHashMap<Schema, WritePlan>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Schema, WritePlan> eldest) {
+      return size() > MAX_PLANS;
+    }
+  };
+  private KuduTable table;
+  private Schema lastSchema;
+  private WritePlan lastPlan;
+
+  KuduWritePlans(KuduClient client, String master, KuduTable table, boolean addColumns) {
+    this.client = client;
+    this.master = master;
+    this.table = table;
+    this.addColumns = addColumns;
+  }
+
+  /**
+   * @return Table written to, which is re-opened when columns are added.
+   */
+  KuduTable getTable() {
+    return table;
+  }
+
+  /**
+   * Returns the plan for records of the given schema, compiling it when the schema is seen for the first time.
+   *
+   * @throws IOException thrown when columns cannot be added to the table.
+   * @throws IllegalArgumentException thrown when the schema cannot be written to the table.
+   */
+  WritePlan get(Schema schema) throws IOException {
+    if (schema == lastSchema) {
+      return lastPlan;
+    }
+    WritePlan plan = plans.get(schema);
+    if (plan == null) {
+      plan = compile(schema);
+      plans.put(schema, plan);
+    }
+    lastSchema = schema;
+    lastPlan = plan;
+    return plan;
+  }
+
+  private WritePlan compile(Schema schema) throws IOException {
+    List<Schema.Field> missing = new ArrayList<>();
+    for (Schema.Field field : schema.getFields()) {
+      if (!hasColumn(field.getName())) {
+        missing.add(field);
+      }
+    }
+    if (!missing.isEmpty() && addColumns) {
+      addColumns(missing);
+      missing.clear();
+    }
+    if (!missing.isEmpty()) {
+      List<String> names = new ArrayList<>();
+      for (Schema.Field field : missing) {
+        names.add(field.getName());
+      }
+      LOG.warn("Fields {} are not columns of Kudu table '{}' and are not written.", names, table.getName());
+    }
+
+    org.apache.kudu.Schema kuduSchema = table.getSchema();
+    for (ColumnSchema key : kuduSchema.getPrimaryKeyColumns()) {
+      if (schema.getField(key.getName()) == null) {
+        throw new IllegalArgumentException(
+          String.format("Records with schema '%s' are missing the key column '%s' of Kudu table '%s'.",
+                        schema, key.getName(), table.getName())
+        );
+      }
+    }
+
+    List<String> names = new ArrayList<>();
+    List<Integer> indexes = new ArrayList<>();
+    List<Type> types = new ArrayList<>();
+    for (Schema.Field field : schema.getFields()) {
+      if (!hasColumn(field.getName())) {
+        continue;
+      }
+      int index = kuduSchema.getColumnIndex(field.getName());
+      Type type = kuduSchema.getColumnByIndex(index).getType();
+      try {
+        if (KuduUtils.toKuduType(field.getName(), field.getSchema()) != type) {
+          throw new IllegalArgumentException(
+            String.format("Field '%s' does not match the type '%s' of the column in Kudu table '%s'.",
+                          field.getName(), type.getName(), table.getName())
+          );
+        }
+      } catch (TypeConversionException e) {
+        throw new IllegalArgumentException(e.getMessage(), e);
+      }
+      names.add(field.getName());
+      indexes.add(index);
+      types.add(type);
+    }
+    return new WritePlan(names, indexes, types);
+  }
+
+  private boolean hasColumn(String name) {
+    try {
+      table.getSchema().getColumnIndex(name);
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private void addColumns(List<Schema.Field> fields) throws IOException {
+    AlterTableOptions options = new AlterTableOptions();
+    List<String> names = new ArrayList<>();
+    try {
+      for (Schema.Field field : fields) {
+        // Columns added to a table with rows have to be nullable.
+        options.addNullableColumn(field.getName(), KuduUtils.toKuduType(field.getName(), field.getSchema()));
+        names.add(field.getName());
+      }
+    } catch (TypeConversionException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+
+    String name = table.getName();
+    try {
+      client.alterTable(name, options);
+      LOG.info("Added columns {} to Kudu table '{}'.", names, name);
+    } catch (KuduException e) {
+      // Another task may have added the same columns in the meantime.
+      if (!e.getStatus().isAlreadyPresent()) {
+        throw new IOException(
+          String.format("Unable to add columns %s to Kudu table '%s'. Reason : %s", names, name, e.getMessage()), e
+        );
+      }
+    }
+    awaitAlter(name, names);
+    table = client.openTable(name);
+    KuduClients.invalidateTable(client, name);
+    KuduMetadataCache.invalidate(master, name);
+    for (String column : names) {
+      if (!hasColumn(column)) {
+        throw new IOException(
+          String.format("Column '%s' added to Kudu table '%s' is missing from the table schema.", column, name)
+        );
+      }
+    }
+    // Existing plans stay valid, as added columns don't change the indexes of the existing ones.
+  }
+
+  /**
+   * Waits for the columns to be added to all the tablets, as the alteration returns before that is done.
+   */
+  private void awaitAlter(String name, List<String> columns) throws IOException {
+    long deadline = System.currentTimeMillis() + client.getDefaultAdminOperationTimeoutMs();
+    while (!client.isAlterTableDone(name)) {
+      if (System.currentTimeMillis() >= deadline) {
+        throw new IOException(
+          String.format("Timed out waiting for columns %s to be added to Kudu table '%s'.", columns, name)
+        );
+      }
+      try {
+        TimeUnit.MILLISECONDS.sleep(ALTER_POLL_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+          String.format("Interrupted while waiting for columns %s to be added to Kudu table '%s'.", columns, name)
+        );
+      }
+    }
+  }
+
+  /**
+   * Fields of a record schema written to the columns of the table, by column index.
+   */
+  static final class WritePlan {
+    private final String[] names;
+    private final int[] indexes;
+    private final Type[] types;
+
+    WritePlan(List<String> names, List<Integer> indexes, List<Type> types) {
+      this.names = names.toArray(new String[names.size()]);
+      this.indexes = new int[indexes.size()];
+      for (int i = 0; i < this.indexes.length; i++) {
+        this.indexes[i] = indexes.get(i);
+      }
+      this.types = types.toArray(new Type[types.size()]);
+    }
+
+    /**
+     * Adds the fields of the record to the row, leaving the columns that are not in the record unset.
+     */
+    void apply(PartialRow row, StructuredRecord record) {
+      for (int i = 0; i < names.length; i++) {
+        Object val = record.get(names[i]);
+        if (val == null) {
+          continue;
+        }
+        int index = indexes[i];
+        switch (types[i]) {
+          case BOOL:
+            row.addBoolean(index, (Boolean) val);
+            break;
+          case INT32:
+            row.addInt(index, (Integer) val);
+            break;
+          case INT64:
+            row.addLong(index, (Long) val);
+            break;
+          case FLOAT:
+            row.addFloat(index, (Float) val);
+            break;
+          case DOUBLE:
+            row.addDouble(index, (Double) val);
+            break;
+          case BINARY:
+            if (val instanceof ByteBuffer) {
+              row.addBinary(index, (ByteBuffer) val);
+            } else {
+              row.addBinary(index, (byte[]) val);
+            }
+            break;
+          default:
+            row.addString(index, (String) val);
+        }
+      }
+    }
+  }
+}
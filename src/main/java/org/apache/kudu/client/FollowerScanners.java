@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.apache.kudu.client;
+
+import java.io.IOException;
+
+/**
+ * Opens scan tokens on a follower of their tablet.
+ *
+ * <p>
+ *   Kudu 1.2 scans either read the leader of their tablet or the closest replica, which is a replica on the local
+ *   host if there is one, and any replica otherwise, the leader included. This lives in the Kudu client package so
+ *   that it can drop the leader from the tablet locations cached by the client before the scan is opened, which
+ *   leaves the closest replica to be one of the followers. The client must therefore only be used for such scans,
+ *   and the tokens must select the closest replica.
+ * </p>
+ */
+public final class FollowerScanners {
+
+  private FollowerScanners() {
+  }
+
+  /**
+   * Opens a scanner on a follower of the tablet of the token.
+   *
+   * @param client only used to read followers.
+   * @param token serialized scan token of a single tablet, selecting the closest replica.
+   * @param timeout to look the tablet up, in milliseconds.
+   * @return {@link KuduScanner} reading a follower, unless the tablet has no known leader, in which case the
+   *         closest replica is read.
+   */
+  public static KuduScanner open(KuduClient client, byte[] token, long timeout) throws IOException {
+    Client.ScanTokenPB message = Client.ScanTokenPB.parseFrom(token);
+    KuduTable table = client.openTable(message.getTableName());
+    byte[] partitionKey = message.getLowerBoundPartitionKey().toByteArray();
+    byte[] partitionKeyEnd = message.getUpperBoundPartitionKey().toByteArray();
+    try {
+      // Looking the tablet up caches its locations, which scanners opened through this client then pick from.
+      table.getTabletsLocations(partitionKey, partitionKeyEnd, timeout);
+    } catch (Exception e) {
+      throw new IOException(
+        String.format("Unable to look up the tablet of Kudu table '%s'. Reason : %s",
+                      table.getName(), e.getMessage()), e
+      );
+    }
+    dropLeader(table, partitionKey);
+    return KuduScanToken.deserializeIntoScanner(token, client);
+  }
+
+  /**
+   * Drops the leader of the tablet holding the partition key from the locations cached by the client of the table.
+   */
+  static void dropLeader(KuduTable table, byte[] partitionKey) {
+    TableLocationsCache.Entry entry = table.getAsyncClient().getTableLocationEntry(table.getTableId(), partitionKey);
+    if (entry == null || entry.isNonCoveredRange()) {
+      return;
+    }
+    RemoteTablet tablet = entry.getTablet();
+    String leader = tablet.getLeaderUUID();
+    if (leader != null) {
+      tablet.removeTabletClient(leader);
+    }
+  }
+}
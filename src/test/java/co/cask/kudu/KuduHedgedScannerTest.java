@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.counters.GenericCounter;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.StandInClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link KuduHedgedScanner}, reading the leader and the follower of a tablet served by {@link FakeScans}.
+ */
+public class KuduHedgedScannerTest {
+  private static final Schema SCHEMA = new Schema(Collections.singletonList(
+    new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build()));
+  private static final byte[] LEADER = { 0 };
+  private static final byte[] FOLLOWER = { 1 };
+
+  private final Counter hedges = new GenericCounter();
+  private final Counter wins = new GenericCounter();
+  private final Counter failovers = new GenericCounter();
+
+  @Test
+  public void testSlowBatchReadAgainOnFollower() throws Exception {
+    // The replicas return the rows in different orders, and the second batch of the leader is slow.
+    FakeScans scans = new FakeScans(Arrays.asList(rows(0, 1), rows(2, 3)), Arrays.asList(rows(3, 1), rows(0, 2)));
+    scans.slowBatch = 1;
+
+    Assert.assertEquals(Arrays.asList(0L, 1L, 3L, 2L), read(scans, 50));
+    Assert.assertEquals(1, hedges.getValue());
+    Assert.assertEquals(1, wins.getValue());
+    Assert.assertEquals(0, failovers.getValue());
+  }
+
+  @Test
+  public void testFailedBatchReadAgainOnFollower() throws Exception {
+    FakeScans scans = new FakeScans(Arrays.asList(rows(0, 1), rows(2, 3)), Arrays.asList(rows(3, 1), rows(0, 2)));
+    scans.failedBatch = 1;
+
+    Assert.assertEquals(Arrays.asList(0L, 1L, 3L, 2L), read(scans, 10000));
+    Assert.assertEquals(0, hedges.getValue());
+    Assert.assertEquals(1, failovers.getValue());
+  }
+
+  @Test
+  public void testFastScanNotHedged() throws Exception {
+    FakeScans scans = new FakeScans(Arrays.asList(rows(0, 1), rows(2, 3)), Arrays.asList(rows(3, 1), rows(0, 2)));
+
+    Assert.assertEquals(Arrays.asList(0L, 1L, 2L, 3L), read(scans, 10000));
+    Assert.assertEquals(0, hedges.getValue());
+    Assert.assertEquals(0, scans.followerOpens);
+  }
+
+  private List<Long> read(FakeScans scans, long delayMs) throws IOException {
+    KuduHedgedScanner scanner = new KuduHedgedScanner(scans, null, null, LEADER, FOLLOWER, delayMs, 95, 1.0,
+                                                      hedges, wins, failovers);
+    List<Long> ids = new ArrayList<>();
+    try {
+      while (scanner.hasMoreRows()) {
+        Iterator<RowResult> rows = scanner.nextRows();
+        while (rows.hasNext()) {
+          ids.add(rows.next().getLong(0));
+        }
+      }
+    } finally {
+      scanner.close();
+    }
+    return ids;
+  }
+
+  private static List<RowResult> rows(long... ids) {
+    List<RowResult> rows = new ArrayList<>();
+    for (long id : ids) {
+      rows.add(StandInClient.newRowResult(SCHEMA, new Object[] { id }));
+    }
+    return rows;
+  }
+
+  /**
+   * Scans of a single tablet, returning batches of rows from the leader and the follower.
+   */
+  private static final class FakeScans implements KuduScans {
+    private final List<List<RowResult>> leader;
+    private final List<List<RowResult>> follower;
+    // Batch of the leader that is slow or fails, -1 for none.
+    private int slowBatch = -1;
+    private int failedBatch = -1;
+    private volatile int followerOpens;
+
+    FakeScans(List<List<RowResult>> leader, List<List<RowResult>> follower) {
+      this.leader = leader;
+      this.follower = follower;
+    }
+
+    @Override
+    public List<Scan> plan(KuduClient client, KuduTable table, @Nullable List<String> columns, long timeout,
+                           boolean hedged) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<byte[]> countTokens(KuduClient client, KuduTable table, long timeout) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long count(KuduClient client, byte[] countToken, long maxRows) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Scanner open(KuduClient client, byte[] token) throws IOException {
+      Assert.assertArrayEquals(LEADER, token);
+      return new FakeScanner(leader, slowBatch, failedBatch);
+    }
+
+    @Override
+    public Scanner openFollower(KuduClient followerClient, byte[] token) throws IOException {
+      Assert.assertArrayEquals(FOLLOWER, token);
+      followerOpens++;
+      return new FakeScanner(follower, -1, -1);
+    }
+  }
+
+  private static final class FakeScanner implements KuduScans.Scanner {
+    private final List<List<RowResult>> batches;
+    private final int slowBatch;
+    private final int failedBatch;
+    private int next;
+
+    FakeScanner(List<List<RowResult>> batches, int slowBatch, int failedBatch) {
+      this.batches = batches;
+      this.slowBatch = slowBatch;
+      this.failedBatch = failedBatch;
+    }
+
+    @Override
+    public boolean hasMoreRows() {
+      return next < batches.size();
+    }
+
+    @Override
+    public Iterator<RowResult> nextRows() throws IOException {
+      int batch = next++;
+      if (batch == failedBatch) {
+        throw new IOException("Tablet server failed.");
+      }
+      if (batch == slowBatch) {
+        try {
+          Thread.sleep(2000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return batches.get(batch).iterator();
+    }
+
+    @Override
+    public void close() {
+      next = batches.size();
+    }
+  }
+}
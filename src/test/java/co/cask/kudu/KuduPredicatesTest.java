@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduPredicate;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link KuduPredicates}.
+ */
+public class KuduPredicatesTest {
+  private static final Schema SCHEMA = new Schema(Arrays.asList(
+    new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build(),
+    new ColumnSchema.ColumnSchemaBuilder("region", Type.STRING).build()));
+
+  @Test
+  public void testConjunction() {
+    List<KuduPredicate> predicates = KuduPredicates.parse(SCHEMA, "region = 'eu' AND id < 1000");
+    Assert.assertEquals(Arrays.asList(
+      KuduPredicate.newComparisonPredicate(SCHEMA.getColumn("region"), KuduPredicate.ComparisonOp.EQUAL, "eu"),
+      KuduPredicate.newComparisonPredicate(SCHEMA.getColumn("id"), KuduPredicate.ComparisonOp.LESS, 1000L)),
+      predicates);
+  }
+
+  @Test
+  public void testConjunctionWithinQuotes() {
+    List<KuduPredicate> predicates = KuduPredicates.parse(SCHEMA, "region = 'north and south' and id >= 5");
+    Assert.assertEquals(Arrays.asList(
+      KuduPredicate.newComparisonPredicate(SCHEMA.getColumn("region"), KuduPredicate.ComparisonOp.EQUAL,
+                                           "north and south"),
+      KuduPredicate.newComparisonPredicate(SCHEMA.getColumn("id"), KuduPredicate.ComparisonOp.GREATER_EQUAL, 5L)),
+      predicates);
+  }
+}
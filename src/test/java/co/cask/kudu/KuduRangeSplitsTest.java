@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.PartialRow;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link KuduRangeSplits}.
+ */
+public class KuduRangeSplitsTest {
+
+  @Test
+  public void testMergeEqualKeys() {
+    Map<String, Long> histogram = new LinkedHashMap<>();
+    histogram.put("1", 10L);
+    histogram.put("01", 10L);
+    histogram.put("2", 10L);
+    histogram.put("3", 10L);
+
+    List<Object> splits = KuduRangeSplits.compute(histogram, Type.INT32, 4);
+    Assert.assertEquals(Arrays.<Object>asList(2L, 3L), splits);
+    KuduRangeSplits.addSplits(new CreateTableOptions(), schema(Type.INT32), "k", splits);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectOutOfRange() {
+    KuduRangeSplits.addSplits(new CreateTableOptions(), schema(Type.INT8), "k",
+                              Collections.<Object>singletonList(300L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectDuplicates() {
+    KuduRangeSplits.addSplits(new CreateTableOptions(), schema(Type.INT64), "k", Arrays.<Object>asList(5L, 5L));
+  }
+
+  @Test
+  public void testRangeBoundsDecodePartitionKeys() {
+    byte[] key = ByteBuffer.allocate(4).putInt(-5 ^ Integer.MIN_VALUE).array();
+    Assert.assertEquals(-5L, KuduRangeSplits.decodeBound(key, Type.INT32));
+    byte[] stringKey = "eu".getBytes(StandardCharsets.UTF_8);
+    Assert.assertArrayEquals(stringKey, (byte[]) KuduRangeSplits.decodeBound(stringKey, Type.STRING));
+
+    org.apache.kudu.Schema schema = schema(Type.INT32);
+    PartialRow row = schema.newPartialRow();
+    KuduRangeSplits.addBound(row, schema.getColumn("k"), KuduRangeSplits.decodeBound(key, Type.INT32));
+    PartialRow expected = schema.newPartialRow();
+    expected.addInt("k", -5);
+    Assert.assertEquals(expected.stringifyRowKey(), row.stringifyRowKey());
+  }
+
+  private static org.apache.kudu.Schema schema(Type type) {
+    return new org.apache.kudu.Schema(Collections.singletonList(
+      new ColumnSchema.ColumnSchemaBuilder("k", type).key(true).build()));
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.RowResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link KuduRecordReader}, reading splits from tablets served by {@link FakeScans}.
+ */
+public class KuduRecordReaderTest {
+
+  @Test
+  public void testScanLimit() throws Exception {
+    FakeScans scans = new FakeScans(10, 10);
+    KuduInputSplit split = split(scans, 4, 4);
+
+    Assert.assertEquals(8, read(scans, split));
+    Assert.assertEquals(0, scans.open);
+  }
+
+  @Test
+  public void testQuotaCarriesOverEmptyTablets() throws Exception {
+    // The first tablets hold fewer rows than an even share of the quota, the last ones make up for them.
+    FakeScans scans = new FakeScans(0, 1, 2, 10, 10);
+    KuduInputSplit split = split(scans, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE,
+                                 Long.MAX_VALUE);
+    split.setQuota(12);
+
+    Assert.assertEquals(12, read(scans, split));
+    // The last tablet is never scanned, as the quota is reached within the previous one.
+    Assert.assertEquals(4, scans.opened);
+    Assert.assertEquals(0, scans.open);
+  }
+
+  @Test
+  public void testQuotaSurvivesSerialization() throws Exception {
+    FakeScans scans = new FakeScans(5, 5);
+    KuduInputSplit split = split(scans, Long.MAX_VALUE, Long.MAX_VALUE);
+    split.setQuota(7);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    split.write(new DataOutputStream(bytes));
+    KuduInputSplit copy = new KuduInputSplit();
+    copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    Assert.assertEquals(7, copy.getQuota());
+    Assert.assertEquals(2, copy.getScanCount());
+    Assert.assertEquals("table1", copy.getTable(1));
+    Assert.assertNull(copy.getHedgeToken(0));
+    Assert.assertEquals(1.0, copy.getFraction(0), 0.0);
+    Assert.assertEquals(7, read(scans, copy));
+  }
+
+  @Test
+  public void testFractionSamplesScan() throws Exception {
+    FakeScans scans = new FakeScans(1000, 10);
+    KuduInputSplit split = new KuduInputSplit(Arrays.asList(
+      new KuduInputSplit.Entry("table0", scans.token(0), Long.MAX_VALUE, 0.5, null, 0),
+      new KuduInputSplit.Entry("table1", scans.token(1), Long.MAX_VALUE, 1.0, null, 0)),
+                                              new String[0]);
+
+    int rows = read(scans, split);
+    // Only the first scan is sampled, the second one being bounded by the planner instead.
+    Assert.assertTrue(rows > 10 + 400 && rows < 10 + 600);
+  }
+
+  private static KuduInputSplit split(FakeScans scans, long... limits) {
+    List<KuduInputSplit.Entry> entries = new ArrayList<>();
+    for (int i = 0; i < limits.length; i++) {
+      entries.add(new KuduInputSplit.Entry("table" + i, scans.token(i), limits[i], 0));
+    }
+    return new KuduInputSplit(entries, new String[0]);
+  }
+
+  private static int read(FakeScans scans, KuduInputSplit split) throws Exception {
+    Configuration conf = new Configuration();
+    // The client is created but never connects, as the fake scans don't use it.
+    conf.set(KuduInputFormat.MASTER_ADDRESS, "localhost:7051");
+    conf.set(KuduInputFormat.OUTPUT_SCHEMA,
+             Schema.recordOf("row", Schema.Field.of("id", Schema.of(Schema.Type.LONG))).toString());
+    KuduRecordReader reader = new KuduRecordReader(scans);
+    reader.initialize(split, new TaskAttemptContextImpl(conf, new TaskAttemptID()));
+    int rows = 0;
+    try {
+      while (reader.nextKeyValue()) {
+        rows++;
+      }
+    } finally {
+      reader.close();
+    }
+    return rows;
+  }
+
+  /**
+   * Scans of tablets holding a given number of rows, returned in batches of two rows. The rows themselves are
+   * not materialized, as the reader only decodes them when their value is asked for.
+   */
+  private static final class FakeScans implements KuduScans {
+    private final int[] rows;
+    private int opened;
+    private int open;
+
+    FakeScans(int... rows) {
+      this.rows = rows;
+    }
+
+    byte[] token(int tablet) {
+      return new byte[] { (byte) tablet };
+    }
+
+    @Override
+    public List<Scan> plan(KuduClient client, KuduTable table, @Nullable List<String> columns, long timeout,
+                           boolean hedged) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<byte[]> countTokens(KuduClient client, KuduTable table, long timeout) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long count(KuduClient client, byte[] countToken, long maxRows) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Scanner open(KuduClient client, byte[] token) throws IOException {
+      final int[] remaining = { rows[token[0]] };
+      opened++;
+      open++;
+      return new Scanner() {
+        @Override
+        public boolean hasMoreRows() {
+          return remaining[0] > 0;
+        }
+
+        @Override
+        public Iterator<RowResult> nextRows() throws IOException {
+          int batch = Math.min(2, remaining[0]);
+          remaining[0] -= batch;
+          return Collections.nCopies(batch, (RowResult) null).iterator();
+        }
+
+        @Override
+        public void close() throws IOException {
+          open--;
+        }
+      };
+    }
+
+    @Override
+    public Scanner openFollower(KuduClient followerClient, byte[] token) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
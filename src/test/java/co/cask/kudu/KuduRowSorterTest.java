@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.StandInClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link KuduRowSorter}.
+ */
+public class KuduRowSorterTest {
+  private static final org.apache.kudu.Schema SCHEMA = new org.apache.kudu.Schema(Arrays.asList(
+    new ColumnSchema.ColumnSchemaBuilder("id", Type.INT32).key(true).build(),
+    new ColumnSchema.ColumnSchemaBuilder("name", Type.STRING).nullable(true).build(),
+    new ColumnSchema.ColumnSchemaBuilder("data", Type.BINARY).nullable(true).build()));
+  private static final Schema RECORD_SCHEMA = Schema.recordOf(
+    "row",
+    Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("data", Schema.nullableOf(Schema.of(Schema.Type.BYTES))));
+
+  @Test
+  public void testSortInMemory() throws Exception {
+    assertSorted(100, 1000);
+  }
+
+  @Test
+  public void testSortSpilledRuns() throws Exception {
+    assertSorted(100, 7);
+  }
+
+  @Test
+  public void testSortMergesRunsInPasses() throws Exception {
+    // More runs than are merged at a time.
+    assertSorted(KuduRowSorter.MERGE_FACTOR * 3 + 5, 1);
+  }
+
+  @Test
+  public void testSortDropsLeftRows() throws Exception {
+    KuduRowDecoder decoder = new KuduRowDecoder(RECORD_SCHEMA, false);
+    int runs = countRuns();
+    try (KuduRowSorter sorter = new KuduRowSorter(new String[] { "id" }, 2)) {
+      for (int id : Arrays.asList(3, 1, 2)) {
+        RowResult row = StandInClient.newRowResult(SCHEMA, new Object[] { id, null, null });
+        sorter.add(row, decoder.decode(row));
+      }
+      sorter.sort();
+      Assert.assertEquals(1, sorter.next().get("id"));
+
+      // The next scan doesn't return what is left of the previous one, whose runs are deleted.
+      sorter.close();
+      Assert.assertEquals(runs, countRuns());
+      RowResult row = StandInClient.newRowResult(SCHEMA, new Object[] { 5, null, null });
+      sorter.add(row, decoder.decode(row));
+      sorter.sort();
+      Assert.assertEquals(5, sorter.next().get("id"));
+      Assert.assertNull(sorter.next());
+    }
+  }
+
+  private void assertSorted(int rows, long maxRows) throws Exception {
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < rows; i++) {
+      ids.add(i - rows / 2);
+    }
+    Collections.shuffle(ids, new Random(rows));
+
+    int runs = countRuns();
+    // Zero-copy, so that binary values are read back as buffers.
+    KuduRowDecoder decoder = new KuduRowDecoder(RECORD_SCHEMA, true);
+    try (KuduRowSorter sorter = new KuduRowSorter(new String[] { "id" }, maxRows)) {
+      for (int id : ids) {
+        RowResult row = StandInClient.newRowResult(SCHEMA, new Object[] {
+          id, id % 3 == 0 ? null : "name " + id, id % 5 == 0 ? null : ("data " + id).getBytes(StandardCharsets.UTF_8)
+        });
+        sorter.add(row, decoder.decode(row));
+      }
+      sorter.sort();
+      for (int id = -rows / 2; id < rows - rows / 2; id++) {
+        StructuredRecord record = sorter.next();
+        Assert.assertNotNull(record);
+        Assert.assertEquals(id, record.get("id"));
+        Assert.assertEquals(id % 3 == 0 ? null : "name " + id, record.get("name"));
+        ByteBuffer data = record.get("data");
+        Assert.assertEquals(id % 5 == 0 ? null : ByteBuffer.wrap(("data " + id).getBytes(StandardCharsets.UTF_8)),
+                            data);
+      }
+      Assert.assertNull(sorter.next());
+    }
+    Assert.assertEquals(runs, countRuns());
+  }
+
+  private static int countRuns() {
+    String[] runs = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith("kudu-sort-");
+      }
+    });
+    return runs == null ? 0 : runs.length;
+  }
+}
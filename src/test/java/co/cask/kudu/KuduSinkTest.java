@@ -1,8 +0,0 @@
-package co.cask.kudu;
-
-/**
- * Created by nitin on 2/11/17.
- */
-public class KuduSinkTest {
-
-}
\ No newline at end of file
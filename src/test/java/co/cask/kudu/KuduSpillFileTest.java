@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.PartialRow;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link KuduSpillFile}.
+ */
+public class KuduSpillFileTest {
+  private static final Schema SCHEMA = Schema.recordOf(
+    "row",
+    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("name", Schema.of(Schema.Type.STRING)));
+
+  private static final org.apache.kudu.Schema KUDU_SCHEMA = new org.apache.kudu.Schema(Arrays.asList(
+    new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build(),
+    new ColumnSchema.ColumnSchemaBuilder("name", Type.STRING).key(true).build()));
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private FileSystem fs;
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    // Without checksums, so that a file can be truncated behind the back of the file system.
+    fs = FileSystem.getLocal(new Configuration()).getRawFileSystem();
+    dir = new Path(tmp.newFolder("spill").toURI());
+  }
+
+  @Test
+  public void testReadBack() throws IOException {
+    Path path = write(new Path(dir, "000000" + KuduSpillFile.EXTENSION), 3);
+    try (KuduSpillFile.Reader reader = new KuduSpillFile.Reader(fs, path)) {
+      Assert.assertEquals("upsert", reader.getOperation());
+      Assert.assertEquals(SCHEMA, reader.getSchema());
+      for (int i = 0; i < 3; i++) {
+        PartialRow row = KUDU_SCHEMA.newPartialRow();
+        Assert.assertTrue(reader.next(row));
+        Assert.assertEquals(expected(i).stringifyRowKey(), row.stringifyRowKey());
+      }
+      Assert.assertFalse(reader.next(KUDU_SCHEMA.newPartialRow()));
+    }
+  }
+
+  @Test
+  public void testTruncatedEntryEndsFile() throws IOException {
+    Path path = write(new Path(dir, "000000" + KuduSpillFile.EXTENSION), 3);
+    // Cut the last entry short, as a writer dying while appending it would.
+    File file = new File(path.toUri());
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(file.length() - 3);
+    }
+    try (KuduSpillFile.Reader reader = new KuduSpillFile.Reader(fs, path)) {
+      Assert.assertTrue(reader.next(KUDU_SCHEMA.newPartialRow()));
+      Assert.assertTrue(reader.next(KUDU_SCHEMA.newPartialRow()));
+      Assert.assertFalse(reader.next(KUDU_SCHEMA.newPartialRow()));
+      Assert.assertFalse(reader.next(KUDU_SCHEMA.newPartialRow()));
+    }
+  }
+
+  @Test
+  public void testCommittedAttemptFilesAreListed() throws IOException {
+    Path first = KuduSpillFile.getAttemptDir(dir, "attempt_1_m_000000_0");
+    Path second = KuduSpillFile.getAttemptDir(dir, "attempt_1_m_000001_0");
+    write(new Path(first, "000000" + KuduSpillFile.EXTENSION), 1);
+    write(new Path(first, "000001" + KuduSpillFile.EXTENSION), 1);
+    write(new Path(second, "000000" + KuduSpillFile.EXTENSION), 1);
+
+    // Files of running attempts are not replayed.
+    Assert.assertEquals(Collections.<Path>emptyList(), KuduSpillFile.list(fs, dir));
+
+    KuduSpillFile.commit(fs, first, dir, "attempt_1_m_000000_0");
+    List<Path> committed = KuduSpillFile.list(fs, dir);
+    Assert.assertEquals(2, committed.size());
+    Assert.assertEquals("attempt_1_m_000000_0-000000" + KuduSpillFile.EXTENSION, committed.get(0).getName());
+    Assert.assertEquals("attempt_1_m_000000_0-000001" + KuduSpillFile.EXTENSION, committed.get(1).getName());
+    Assert.assertFalse(fs.exists(first));
+
+    // The attempt that never committed is dropped once the run is done, leaving the committed files.
+    KuduSpillFile.cleanupAttempts(fs, dir);
+    Assert.assertFalse(fs.exists(second));
+    Assert.assertEquals(committed, KuduSpillFile.list(fs, dir));
+  }
+
+  private Path write(Path path, int rows) throws IOException {
+    try (KuduSpillFile.Writer writer = new KuduSpillFile.Writer(fs, path, "upsert", SCHEMA)) {
+      for (int i = 0; i < rows; i++) {
+        writer.append(StructuredRecord.builder(SCHEMA).set("id", (long) i).set("name", "row" + i).build());
+      }
+    }
+    return path;
+  }
+
+  private static PartialRow expected(int i) {
+    PartialRow row = KUDU_SCHEMA.newPartialRow();
+    row.addLong("id", i);
+    row.addString("name", "row" + i);
+    return row;
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.base.Splitter;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.Insert;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.StandInClient;
+import org.apache.kudu.client.Status;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * In-process Kudu stand-in used by the throughput harness, selected by master addresses of the form
+ * {@code standin:tablets=8,latency-ms=2,busy=0.05,rows=100000,columns=10}.
+ *
+ * <ul>
+ *   <li>Every table exists, with a long 'id' key and the given number of int, long, double and string columns.</li>
+ *   <li>Rows are hash partitioned across the tablets. Each flush and each scan batch waits for the RPC latency.</li>
+ *   <li>A tablet rejects a write batch as busy with the given probability. Like the Kudu client, the batch is
+ *   retried with a backoff, and only fails as unavailable after {@link #MAX_ATTEMPTS} attempts.</li>
+ *   <li>Scans return the given number of generated rows, in batches of {@link #SCAN_BATCH_ROWS}.</li>
+ * </ul>
+ */
+public class KuduStandIn extends StandInClient implements KuduScans, KuduStandInMBean {
+  static final int MAX_ATTEMPTS = 10;
+  static final int SCAN_BATCH_ROWS = 1000;
+
+  private final int tablets;
+  private final long latencyMs;
+  private final double busy;
+  private final long rows;
+  private final int columns;
+  private final org.apache.kudu.Schema schema;
+
+  private final Random random = new Random(0);
+  private final ConcurrentMap<String, Set<ByteBuffer>> keys = new ConcurrentHashMap<>();
+  private final AtomicLong rowsWritten = new AtomicLong();
+  private final AtomicLong rowsRead = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+  private final List<Long> flushLatencies = new ArrayList<>();
+  private final ObjectName mbeanName;
+
+  public KuduStandIn(String master) throws Exception {
+    Map<String, String> settings = Splitter.on(',').trimResults().omitEmptyStrings().withKeyValueSeparator("=")
+      .split(master.substring(KuduClients.STAND_IN_PREFIX.length()));
+    this.tablets = Integer.parseInt(get(settings, "tablets", "4"));
+    this.latencyMs = Long.parseLong(get(settings, "latency-ms", "0"));
+    this.busy = Double.parseDouble(get(settings, "busy", "0"));
+    this.rows = Long.parseLong(get(settings, "rows", "0"));
+    this.columns = Integer.parseInt(get(settings, "columns", "10"));
+    this.schema = tableSchema(columns);
+    this.mbeanName = new ObjectName("co.cask.kudu:type=KuduStandIn,id=" + System.identityHashCode(this));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, mbeanName);
+  }
+
+  @Override
+  public void close() throws KuduException {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+    } catch (JMException e) {
+      throw new IllegalStateException("Unable to unregister the Kudu stand-in " + mbeanName, e);
+    }
+    super.close();
+  }
+
+  /**
+   * @return Kudu schema of the tables served by the stand-in.
+   */
+  static org.apache.kudu.Schema tableSchema(int columns) {
+    Type[] types = { Type.INT32, Type.INT64, Type.DOUBLE, Type.STRING };
+    List<ColumnSchema> columnSchemas = new ArrayList<>();
+    columnSchemas.add(new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build());
+    for (int i = 0; i < columns; i++) {
+      columnSchemas.add(new ColumnSchema.ColumnSchemaBuilder("c" + i, types[i % types.length]).build());
+    }
+    return new org.apache.kudu.Schema(columnSchemas);
+  }
+
+  /**
+   * @return CDAP schema of the tables served by the stand-in.
+   */
+  static Schema recordSchema(int columns) {
+    return KuduMetadataCache.toCdapSchema(tableSchema(columns));
+  }
+
+  /**
+   * @return Generated record with the given id.
+   */
+  static StructuredRecord record(Schema schema, long id) {
+    StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+    Object[] values = values(tableSchema(schema.getFields().size() - 1), id);
+    for (int i = 0; i < values.length; i++) {
+      builder.set(schema.getFields().get(i).getName(), values[i]);
+    }
+    return builder.build();
+  }
+
+  private static Object[] values(org.apache.kudu.Schema schema, long id) {
+    Object[] values = new Object[schema.getColumnCount()];
+    values[0] = id;
+    for (int i = 1; i < values.length; i++) {
+      switch (schema.getColumnByIndex(i).getType()) {
+        case INT32:
+          values[i] = (int) (id * 31 + i);
+          break;
+        case INT64:
+          values[i] = id * i;
+          break;
+        case DOUBLE:
+          values[i] = id / (i + 1.0);
+          break;
+        default:
+          values[i] = "value-" + id + "-" + i;
+      }
+    }
+    return values;
+  }
+
+  @Override
+  protected org.apache.kudu.Schema getTableSchema(String name) {
+    return schema;
+  }
+
+  @Override
+  protected int getTablets() {
+    return tablets;
+  }
+
+  @Override
+  protected Status[] write(List<Operation> operations) throws KuduException {
+    long start = System.nanoTime();
+    Status[] statuses = new Status[operations.size()];
+    Map<Integer, List<Integer>> byTablet = new HashMap<>();
+    for (int i = 0; i < operations.size(); i++) {
+      int tablet = (Arrays.hashCode(primaryKey(operations.get(i))) & Integer.MAX_VALUE) % tablets;
+      List<Integer> indexes = byTablet.get(tablet);
+      if (indexes == null) {
+        indexes = new ArrayList<>();
+        byTablet.put(tablet, indexes);
+      }
+      indexes.add(i);
+    }
+
+    // Batches to the tablets are sent in parallel, so the round trip is paid once per attempt.
+    sleep(latencyMs);
+    for (List<Integer> indexes : byTablet.values()) {
+      int attempt = 1;
+      boolean rejected = isBusy();
+      while (rejected && attempt < MAX_ATTEMPTS) {
+        rejections.incrementAndGet();
+        sleep(latencyMs * attempt++);
+        rejected = isBusy();
+      }
+      for (int index : indexes) {
+        statuses[index] = rejected ? Status.ServiceUnavailable("Tablet is busy, rejected " + attempt + " times.")
+          : apply(operations.get(index));
+      }
+    }
+
+    synchronized (flushLatencies) {
+      flushLatencies.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+    return statuses;
+  }
+
+  @Nullable
+  private Status apply(Operation operation) {
+    String table = tableName(operation);
+    Set<ByteBuffer> tableKeys = keys.get(table);
+    if (tableKeys == null) {
+      keys.putIfAbsent(table, Collections.newSetFromMap(new ConcurrentHashMap<ByteBuffer, Boolean>()));
+      tableKeys = keys.get(table);
+    }
+    boolean added = tableKeys.add(ByteBuffer.wrap(primaryKey(operation)));
+    if (!added && operation instanceof Insert) {
+      return Status.AlreadyPresent("Key already present");
+    }
+    rowsWritten.incrementAndGet();
+    return null;
+  }
+
+  private boolean isBusy() {
+    synchronized (random) {
+      return busy > 0 && random.nextDouble() < busy;
+    }
+  }
+
+  @Override
+  public List<Scan> plan(KuduClient client, KuduTable table, @Nullable List<String> columns, long timeout,
+                         boolean hedged) {
+    List<Scan> scans = new ArrayList<>();
+    for (byte[] token : countTokens(client, table, timeout)) {
+      scans.add(new Scan(token, new String[] { "localhost" }));
+    }
+    return scans;
+  }
+
+  @Override
+  public List<byte[]> countTokens(KuduClient client, KuduTable table, long timeout) {
+    List<byte[]> tokens = new ArrayList<>();
+    for (int tablet = 0; tablet < tablets; tablet++) {
+      tokens.add(String.valueOf(tablet).getBytes(StandardCharsets.UTF_8));
+    }
+    return tokens;
+  }
+
+  @Override
+  public long count(KuduClient client, byte[] countToken, long maxRows) {
+    int tablet = Integer.parseInt(new String(countToken, StandardCharsets.UTF_8));
+    // Rows of a tablet are the ids equal to the tablet modulo the number of tablets.
+    return Math.min(Math.max(0, (rows - tablet + tablets - 1) / tablets), maxRows);
+  }
+
+  @Override
+  public Scanner open(KuduClient client, byte[] token) {
+    final int tablet = Integer.parseInt(new String(token, StandardCharsets.UTF_8));
+    return new Scanner() {
+      // Rows of a tablet are the ids equal to the tablet modulo the number of tablets.
+      private long next = tablet;
+
+      @Override
+      public boolean hasMoreRows() {
+        return next < rows;
+      }
+
+      @Override
+      public Iterator<RowResult> nextRows() {
+        sleep(latencyMs);
+        List<RowResult> batch = new ArrayList<>();
+        while (next < rows && batch.size() < SCAN_BATCH_ROWS) {
+          batch.add(newRowResult(schema, values(schema, next)));
+          next += tablets;
+        }
+        rowsRead.addAndGet(batch.size());
+        return batch.iterator();
+      }
+
+      @Override
+      public void close() {
+        next = rows;
+      }
+    };
+  }
+
+  @Override
+  public Scanner openFollower(KuduClient followerClient, byte[] token) {
+    // Tablets have a single replica, so scans are never hedged.
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long getRowsWritten() {
+    return rowsWritten.get();
+  }
+
+  @Override
+  public long getRowsRead() {
+    return rowsRead.get();
+  }
+
+  @Override
+  public long getRejections() {
+    return rejections.get();
+  }
+
+  @Override
+  public long[] getFlushLatenciesMicros() {
+    synchronized (flushLatencies) {
+      long[] latencies = new long[flushLatencies.size()];
+      for (int i = 0; i < latencies.length; i++) {
+        latencies[i] = flushLatencies.get(i);
+      }
+      return latencies;
+    }
+  }
+
+  @Override
+  public void reset() {
+    rowsWritten.set(0);
+    rowsRead.set(0);
+    rejections.set(0);
+    keys.clear();
+    synchronized (flushLatencies) {
+      flushLatencies.clear();
+    }
+  }
+
+  private static String get(Map<String, String> settings, String key, String defaultValue) {
+    return settings.containsKey(key) ? settings.get(key) : defaultValue;
+  }
+
+  private static void sleep(long ms) {
+    if (ms <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.MILLISECONDS.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+/**
+ * Statistics of a {@link KuduStandIn}, published through JMX as the stand-in runs in the plugin classloader.
+ */
+public interface KuduStandInMBean {
+  long getRowsWritten();
+
+  long getRowsRead();
+
+  long getRejections();
+
+  /**
+   * @return Duration of every flush since the last reset, in microseconds.
+   */
+  long[] getFlushLatenciesMicros();
+
+  void reset();
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.junit.Test;
+
+/**
+ * Tests for the option checks of {@link KuduStreamingSink}.
+ */
+public class KuduStreamingSinkTest {
+
+  @Test
+  public void testAcceptsPlainConfig() {
+    KuduStreamingSink.checkUnsupported(new KuduSinkConfig("kudu"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsSpilling() {
+    KuduSinkConfig config = new KuduSinkConfig("kudu");
+    config.optSpillDir = "/tmp/spill";
+    KuduStreamingSink.checkUnsupported(config);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsFullRefresh() {
+    KuduSinkConfig config = new KuduSinkConfig("kudu");
+    config.optFullRefresh = "true";
+    KuduStreamingSink.checkUnsupported(config);
+  }
+}
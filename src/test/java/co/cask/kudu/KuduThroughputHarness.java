@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.datapipeline.DataPipelineApp;
+import co.cask.cdap.datapipeline.SmartWorkflow;
+import co.cask.cdap.etl.api.PipelineConfigurable;
+import co.cask.cdap.etl.api.action.Action;
+import co.cask.cdap.etl.api.batch.BatchSink;
+import co.cask.cdap.etl.api.batch.BatchSource;
+import co.cask.cdap.etl.api.streaming.StreamingSource;
+import co.cask.cdap.etl.mock.batch.MockSource;
+import co.cask.cdap.etl.mock.test.HydratorTestBase;
+import co.cask.cdap.etl.proto.v2.ETLBatchConfig;
+import co.cask.cdap.etl.proto.v2.ETLPlugin;
+import co.cask.cdap.etl.proto.v2.ETLStage;
+import co.cask.cdap.proto.ProgramRunStatus;
+import co.cask.cdap.proto.artifact.AppRequest;
+import co.cask.cdap.proto.artifact.ArtifactSummary;
+import co.cask.cdap.proto.id.ApplicationId;
+import co.cask.cdap.proto.id.ArtifactId;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.test.ApplicationManager;
+import co.cask.cdap.test.DataSetManager;
+import co.cask.cdap.test.TestConfiguration;
+import co.cask.cdap.test.WorkflowManager;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Throughput harness running the Kudu sink and source in pipelines against the in-process {@link KuduStandIn}.
+ *
+ * <p>
+ *   Each scenario writes generated rows from a mock source to the Kudu sink, then copies a table from the Kudu
+ *   source to the Kudu sink, and reports rows per second, the 99th percentile flush latency and the peak heap.
+ *   The harness is skipped unless run with {@code -Dkudu.harness=true}.
+ * </p>
+ */
+@RunWith(Parameterized.class)
+public class KuduThroughputHarness extends HydratorTestBase {
+  @ClassRule
+  public static final TestConfiguration CONFIG = new TestConfiguration("explore.enabled", false);
+
+  private static final ArtifactId APP_ARTIFACT_ID = NamespaceId.DEFAULT.artifact("data-pipeline", "4.1.0");
+  private static final ArtifactSummary APP_ARTIFACT = new ArtifactSummary("data-pipeline", "4.1.0");
+  private static final List<String> RESULTS = new ArrayList<>();
+
+  private final int rows;
+  private final int columns;
+  private final int tablets;
+  private final int flushRows;
+  private final int latencyMs;
+  private final double busy;
+
+  public KuduThroughputHarness(int rows, int columns, int tablets, int flushRows, int latencyMs, double busy) {
+    this.rows = rows;
+    this.columns = columns;
+    this.tablets = tablets;
+    this.flushRows = flushRows;
+    this.latencyMs = latencyMs;
+    this.busy = busy;
+  }
+
+  /**
+   * Scenarios as rows, columns, tablets, flush size, RPC latency in milliseconds and busy rejection probability.
+   */
+  @Parameterized.Parameters(name = "rows={0},columns={1},tablets={2},flush={3},latency={4}ms,busy={5}")
+  public static Collection<Object[]> scenarios() {
+    return Arrays.asList(new Object[][] {
+      { 20000, 10, 4, 1000, 1, 0.0 },
+      { 20000, 10, 4, 100, 1, 0.0 },
+      { 20000, 100, 16, 1000, 1, 0.0 },
+      { 20000, 10, 16, 5000, 5, 0.0 },
+      { 20000, 10, 16, 1000, 5, 0.05 },
+    });
+  }
+
+  @BeforeClass
+  public static void setupHarness() throws Exception {
+    Assume.assumeTrue("Throughput harness is only run with -Dkudu.harness=true", Boolean.getBoolean("kudu.harness"));
+    // Same as the batch artifacts set up by HydratorTestBase, along with the Spark plugin APIs, as the streaming
+    // plugins are packaged with the batch ones.
+    addAppArtifact(APP_ARTIFACT_ID, DataPipelineApp.class,
+                   BatchSource.class.getPackage().getName(),
+                   Action.class.getPackage().getName(),
+                   PipelineConfigurable.class.getPackage().getName(),
+                   StreamingSource.class.getPackage().getName(),
+                   "org.apache.avro.mapred", "org.apache.avro", "org.apache.avro.generic", "org.apache.avro.io");
+    addPluginArtifact(NamespaceId.DEFAULT.artifact(APP_ARTIFACT_ID.getArtifact() + "-mocks", "1.0.0"),
+                      APP_ARTIFACT_ID, ImmutableSet.of(MockSource.PLUGIN_CLASS), MockSource.class);
+    // The stand-in is loaded by name from the plugin classloader, so it's packaged with the plugins.
+    addPluginArtifact(NamespaceId.DEFAULT.artifact("kudu-plugins", "1.0.3"), APP_ARTIFACT_ID,
+                      KuduSink.class, KuduSource.class, KuduStandIn.class);
+  }
+
+  @AfterClass
+  public static void report() {
+    if (RESULTS.isEmpty()) {
+      return;
+    }
+    StringBuilder report = new StringBuilder("\nKudu throughput harness\n");
+    report.append(String.format("%-66s %-8s %12s %12s %12s %10s%n",
+                                "scenario", "pipeline", "rows/sec", "p99 flush us", "peak heap MB", "rejections"));
+    for (String result : RESULTS) {
+      report.append(result).append('\n');
+    }
+    System.out.println(report);
+  }
+
+  @Test
+  public void testThroughput() throws Exception {
+    String master = String.format("%stablets=%d,latency-ms=%d,busy=%s,rows=%d,columns=%d",
+                                  KuduClients.STAND_IN_PREFIX, tablets, latencyMs, busy, rows, columns);
+    Schema schema = KuduStandIn.recordSchema(columns);
+    String scenario = String.format("rows=%d,columns=%d,tablets=%d,flush=%d,latency=%dms,busy=%s",
+                                    rows, columns, tablets, flushRows, latencyMs, busy);
+
+    // Write path, from records already in a dataset to Kudu. The dataset is created when the pipeline is deployed.
+    String input = "input" + Math.abs(scenario.hashCode());
+    ApplicationManager write = deploy(scenario, "write", new ETLStage("source", MockSource.getPlugin(input, schema)),
+                                      sink(master, schema));
+    DataSetManager<Table> inputManager = getDataset(input);
+    List<StructuredRecord> records = new ArrayList<>();
+    for (int i = 0; i < rows; i++) {
+      records.add(KuduStandIn.record(schema, i));
+    }
+    MockSource.writeInput(inputManager, records);
+    run(scenario, "write", write);
+
+    // Read path, copying a Kudu table to another one.
+    ETLStage source = new ETLStage("source", new ETLPlugin("Kudu", BatchSource.PLUGIN_TYPE, ImmutableMap.of(
+      "referenceName", "harness-source",
+      "master", master,
+      "name", "harness_source",
+      "schema", schema.toString(),
+      "columns", "*"), null));
+    run(scenario, "copy", deploy(scenario, "copy", source, sink(master, schema)));
+  }
+
+  private ETLStage sink(String master, Schema schema) {
+    return new ETLStage("sink", new ETLPlugin("Kudu", BatchSink.PLUGIN_TYPE, ImmutableMap.<String, String>builder()
+      .put("referenceName", "harness-sink")
+      .put("master", master)
+      .put("name", "harness_sink")
+      .put("schema", schema.toString())
+      .put("columns", "id")
+      .put("buckets", String.valueOf(tablets))
+      .put("row-flush", String.valueOf(flushRows))
+      .build(), null));
+  }
+
+  private ApplicationManager deploy(String scenario, String pipeline, ETLStage source, ETLStage sink)
+    throws Exception {
+    ETLBatchConfig config = ETLBatchConfig.builder("* * * * *")
+      .addStage(source)
+      .addStage(sink)
+      .addConnection(source.getName(), sink.getName())
+      .build();
+    ApplicationId appId = NamespaceId.DEFAULT.app("KuduHarness" + pipeline + Math.abs(scenario.hashCode()));
+    return deployApplication(appId, new AppRequest<>(APP_ARTIFACT, config));
+  }
+
+  private void run(String scenario, String pipeline, ApplicationManager appManager) throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName standIns = new ObjectName("co.cask.kudu:type=KuduStandIn,*");
+    for (ObjectName name : server.queryNames(standIns, null)) {
+      server.invoke(name, "reset", new Object[0], new String[0]);
+    }
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      pool.resetPeakUsage();
+    }
+
+    WorkflowManager workflowManager = appManager.getWorkflowManager(SmartWorkflow.NAME);
+    long start = System.nanoTime();
+    workflowManager.start();
+    workflowManager.waitForFinish(10, TimeUnit.MINUTES);
+    long elapsedNanos = System.nanoTime() - start;
+    // The run record can be updated shortly after the workflow is seen as finished.
+    workflowManager.waitForRun(ProgramRunStatus.COMPLETED, 1, TimeUnit.MINUTES);
+
+    long written = 0;
+    long rejections = 0;
+    List<Long> latencies = new ArrayList<>();
+    for (ObjectName name : server.queryNames(standIns, null)) {
+      written += (Long) server.getAttribute(name, "RowsWritten");
+      rejections += (Long) server.getAttribute(name, "Rejections");
+      for (long latency : (long[]) server.getAttribute(name, "FlushLatenciesMicros")) {
+        latencies.add(latency);
+      }
+    }
+    Assert.assertEquals(rows, written);
+
+    long peakHeap = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+    }
+
+    Collections.sort(latencies);
+    long p99 = latencies.isEmpty() ? 0 : latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1);
+    RESULTS.add(String.format("%-66s %-8s %12.0f %12d %12d %10d", scenario, pipeline,
+                              rows * 1e9 / elapsedNanos, p99, peakHeap / (1024 * 1024), rejections));
+  }
+}
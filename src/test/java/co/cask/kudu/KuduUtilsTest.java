@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests for {@link KuduUtils}.
+ */
+public class KuduUtilsTest {
+  private static final Schema SCHEMA = Schema.recordOf(
+    "row",
+    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("value", Schema.of(Schema.Type.INT)));
+
+  private static final org.apache.kudu.Schema KUDU_SCHEMA = new org.apache.kudu.Schema(Arrays.asList(
+    new ColumnSchema.ColumnSchemaBuilder(KuduUtils.SALT_COLUMN, Type.INT32).key(true).build(),
+    new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build(),
+    new ColumnSchema.ColumnSchemaBuilder("name", Type.STRING).key(true).build(),
+    new ColumnSchema.ColumnSchemaBuilder("value", Type.INT32).build()));
+
+  @Test
+  public void testSaltDependsOnlyOnKey() {
+    KuduUtils.Salter salter = new KuduUtils.Salter(8, KUDU_SCHEMA);
+    int salt = salter.salt(record(42, "a", 1));
+    // Another writer salts the key the same way, whatever the other columns.
+    Assert.assertEquals(salt, new KuduUtils.Salter(8, KUDU_SCHEMA).salt(record(42, "a", 2)));
+    Assert.assertEquals(salt, salter.salt(record(42, "a", 1)));
+  }
+
+  @Test
+  public void testSaltsSpreadKeys() {
+    KuduUtils.Salter salter = new KuduUtils.Salter(4, KUDU_SCHEMA);
+    Set<Integer> salts = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      int salt = salter.salt(record(i, "row" + i, 0));
+      Assert.assertTrue(salt >= 0 && salt < 4);
+      salts.add(salt);
+    }
+    Assert.assertEquals(4, salts.size());
+  }
+
+  private static StructuredRecord record(long id, String name, int value) {
+    return StructuredRecord.builder(SCHEMA).set("id", id).set("name", name).set("value", value).build();
+  }
+}
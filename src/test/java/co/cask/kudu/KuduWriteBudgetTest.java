@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.kudu;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link KuduWriteBudget}.
+ */
+public class KuduWriteBudgetTest {
+
+  @Test
+  public void testBudgetCountsUtf8Bytes() {
+    for (String value : Arrays.asList("", "plain", "caf\u00e9", "\u20ac100", "\ud83d\ude00 smile")) {
+      Assert.assertEquals(value.getBytes(StandardCharsets.UTF_8).length, KuduWriteBudget.utf8Length(value));
+    }
+  }
+
+  @Test
+  public void testOverdrawnBytesAreUsed() {
+    KuduWriteBudget budget = KuduWriteBudget.get(KuduWriteBudget.CHUNK_UNITS * KuduWriteBudget.UNIT_BYTES);
+    long used = budget.getUsedBytes();
+    int chunk = budget.getChunkUnits();
+
+    Assert.assertTrue(budget.tryReserve(chunk));
+    try {
+      budget.overdraw(100);
+      Assert.assertEquals(used + (long) chunk * KuduWriteBudget.UNIT_BYTES + 100, budget.getUsedBytes());
+      budget.repay(100);
+    } finally {
+      budget.release(chunk);
+    }
+    Assert.assertEquals(used, budget.getUsedBytes());
+  }
+}
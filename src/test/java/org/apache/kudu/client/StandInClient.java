@@ -0,0 +1,322 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.apache.kudu.client;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Common;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.shaded.com.google.protobuf.ByteString;
+import org.apache.kudu.consensus.Metadata;
+import org.apache.kudu.master.Master;
+import org.apache.kudu.util.Slices;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base of an in-process Kudu stand-in, which serves tables without a Kudu cluster.
+ *
+ * <p>
+ *   This lives in the Kudu client package, so that it can build the tables, sessions, responses and rows
+ *   returned by the client, whose constructors are package private. Subclasses decide which tables exist
+ *   and how writes are applied.
+ * </p>
+ */
+public abstract class StandInClient extends KuduClient {
+  private static final String TABLET_SERVER = "stand-in";
+
+  private final AsyncKuduClient asyncClient;
+
+  protected StandInClient() {
+    this(new AsyncKuduClient.AsyncKuduClientBuilder("localhost:7051").build());
+  }
+
+  private StandInClient(AsyncKuduClient asyncClient) {
+    super(asyncClient);
+    this.asyncClient = asyncClient;
+  }
+
+  /**
+   * @return Schema of the table, null if the table doesn't exist.
+   */
+  protected abstract Schema getTableSchema(String name);
+
+  /**
+   * @return Number of hash partitions of the tables.
+   */
+  protected abstract int getTablets();
+
+  /**
+   * Applies a batch of write operations.
+   *
+   * @return status of each operation, null for the ones that succeeded.
+   */
+  protected abstract Status[] write(List<Operation> operations) throws KuduException;
+
+  @Override
+  public boolean tableExists(String name) throws KuduException {
+    return getTableSchema(name) != null;
+  }
+
+  @Override
+  public KuduTable openTable(String name) throws KuduException {
+    Schema schema = getTableSchema(name);
+    if (schema == null) {
+      throw new NonRecoverableException(Status.NotFound("The table does not exist: " + name));
+    }
+    // Partitioning refers to the columns by id.
+    List<Integer> ids = new ArrayList<>();
+    List<Integer> keyIds = new ArrayList<>();
+    for (int i = 0; i < schema.getColumnCount(); i++) {
+      ids.add(i);
+      if (schema.getColumnByIndex(i).isKey()) {
+        keyIds.add(i);
+      }
+    }
+    Schema withIds = new Schema(schema.getColumns(), ids);
+    PartitionSchema partitions = new PartitionSchema(
+      new PartitionSchema.RangeSchema(Collections.<Integer>emptyList()),
+      Collections.singletonList(new PartitionSchema.HashBucketSchema(keyIds, getTablets(), 0)), withIds);
+    return new StandInTable(asyncClient, name, withIds, partitions, getTablets());
+  }
+
+  @Override
+  public KuduTable createTable(String name, Schema schema, CreateTableOptions options) throws KuduException {
+    return openTable(name);
+  }
+
+  @Override
+  public KuduSession newSession() {
+    return new Session(asyncClient);
+  }
+
+  /**
+   * @return Encoded primary key of the row written by the operation.
+   */
+  public static byte[] primaryKey(Operation operation) {
+    return operation.getRow().encodePrimaryKey();
+  }
+
+  /**
+   * @return Name of the table written by the operation.
+   */
+  public static String tableName(Operation operation) {
+    return operation.getTable().getName();
+  }
+
+  /**
+   * Creates a {@link RowResult} positioned on a single row, laid out the way it's returned by a scan:
+   * fixed size values little endian in column order, strings and binaries as an offset and a length into
+   * the indirect data, followed by the null bitmap when the schema has nullable columns.
+   *
+   * @param schema of the row.
+   * @param values of the columns, in column order, null for null values.
+   */
+  public static RowResult newRowResult(Schema schema, Object[] values) {
+    int columns = schema.getColumnCount();
+    ByteBuffer row = ByteBuffer.allocate(schema.getRowSize()).order(ByteOrder.LITTLE_ENDIAN);
+    ByteArrayOutputStream indirect = new ByteArrayOutputStream();
+    int offset = 0;
+    for (int i = 0; i < columns; i++) {
+      ColumnSchema column = schema.getColumnByIndex(i);
+      Object value = values[i];
+      row.position(offset);
+      offset += column.getType().getSize();
+      if (value == null) {
+        int bitmap = schema.getRowSize() - (columns + 7) / 8;
+        row.put(bitmap + i / 8, (byte) (row.get(bitmap + i / 8) | (1 << (i % 8))));
+        continue;
+      }
+      switch (column.getType()) {
+        case BOOL:
+          row.put((byte) ((Boolean) value ? 1 : 0));
+          break;
+        case INT8:
+          row.put(((Number) value).byteValue());
+          break;
+        case INT16:
+          row.putShort(((Number) value).shortValue());
+          break;
+        case INT32:
+          row.putInt(((Number) value).intValue());
+          break;
+        case INT64:
+        case UNIXTIME_MICROS:
+          row.putLong(((Number) value).longValue());
+          break;
+        case FLOAT:
+          row.putFloat((Float) value);
+          break;
+        case DOUBLE:
+          row.putDouble((Double) value);
+          break;
+        case STRING:
+        case BINARY:
+          byte[] bytes = value instanceof String ? ((String) value).getBytes(StandardCharsets.UTF_8) : (byte[]) value;
+          row.putLong(indirect.size());
+          row.putLong(bytes.length);
+          indirect.write(bytes, 0, bytes.length);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported type " + column.getType());
+      }
+    }
+    RowResult result = new RowResult(schema, Slices.wrappedBuffer(row.array()),
+                                     Slices.wrappedBuffer(indirect.toByteArray()));
+    result.advancePointer();
+    return result;
+  }
+
+  /**
+   * Table listing one tablet per hash bucket, instead of asking the master for their locations.
+   */
+  private static final class StandInTable extends KuduTable {
+    private static final ServerInfo SERVER = new ServerInfo(TABLET_SERVER, "localhost", 7050, true);
+    private static final Master.TabletLocationsPB.ReplicaPB LEADER = Master.TabletLocationsPB.ReplicaPB.newBuilder()
+      .setTsInfo(Master.TSInfoPB.newBuilder()
+                   .setPermanentUuid(ByteString.copyFromUtf8(SERVER.getUuid()))
+                   .addRpcAddresses(Common.HostPortPB.newBuilder().setHost(SERVER.getHostname()).setPort(SERVER.getPort())))
+      .setRole(Metadata.RaftPeerPB.Role.LEADER)
+      .build();
+
+    private final List<LocatedTablet> tablets = new ArrayList<>();
+
+    StandInTable(AsyncKuduClient client, String name, Schema schema, PartitionSchema partitions, int buckets) {
+      super(client, name, name, schema, partitions);
+      for (int i = 0; i < buckets; i++) {
+        // With hash partitioning only, the partition key of a row is its bucket as a big endian int.
+        Common.PartitionPB.Builder partition = Common.PartitionPB.newBuilder().addHashBuckets(i);
+        if (i > 0) {
+          partition.setPartitionKeyStart(ByteString.copyFrom(ByteBuffer.allocate(4).putInt(0, i)));
+        }
+        if (i < buckets - 1) {
+          partition.setPartitionKeyEnd(ByteString.copyFrom(ByteBuffer.allocate(4).putInt(0, i + 1)));
+        }
+        Master.TabletLocationsPB locations = Master.TabletLocationsPB.newBuilder()
+          .setTabletId(ByteString.copyFromUtf8(name + "-" + i))
+          .setPartition(partition)
+          .addReplicas(LEADER)
+          .build();
+        tablets.add(new LocatedTablet(new RemoteTablet(name, locations, Collections.singletonList(SERVER))));
+      }
+    }
+
+    @Override
+    public List<LocatedTablet> getTabletsLocations(long deadline) {
+      return tablets;
+    }
+
+    @Override
+    public List<LocatedTablet> getTabletsLocations(byte[] startKey, byte[] endKey, long deadline) {
+      return tablets;
+    }
+  }
+
+  /**
+   * Session buffering the operations and applying them through {@link #write} on flush.
+   */
+  private final class Session extends KuduSession {
+    private final List<Operation> buffer = new ArrayList<>();
+    private final List<RowError> errors = new ArrayList<>();
+    private FlushMode flushMode = FlushMode.AUTO_FLUSH_SYNC;
+    private int bufferSpace = 1000;
+
+    Session(AsyncKuduClient client) {
+      super(new AsyncKuduSession(client));
+    }
+
+    @Override
+    public FlushMode getFlushMode() {
+      return flushMode;
+    }
+
+    @Override
+    public void setFlushMode(FlushMode flushMode) {
+      this.flushMode = flushMode;
+    }
+
+    @Override
+    public void setMutationBufferSpace(int size) {
+      this.bufferSpace = size;
+    }
+
+    @Override
+    public void setTimeoutMillis(long timeout) {
+      // Timeouts are simulated by the stand-in itself.
+    }
+
+    @Override
+    public OperationResponse apply(Operation operation) throws KuduException {
+      buffer.add(operation);
+      if (flushMode == FlushMode.AUTO_FLUSH_SYNC) {
+        return flush().get(0);
+      }
+      if (flushMode == FlushMode.AUTO_FLUSH_BACKGROUND && buffer.size() >= bufferSpace) {
+        for (OperationResponse response : flush()) {
+          if (response.hasRowError()) {
+            errors.add(response.getRowError());
+          }
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public List<OperationResponse> flush() throws KuduException {
+      List<Operation> operations = new ArrayList<>(buffer);
+      buffer.clear();
+      List<OperationResponse> responses = new ArrayList<>();
+      if (operations.isEmpty()) {
+        return responses;
+      }
+      Status[] statuses = write(operations);
+      for (int i = 0; i < operations.size(); i++) {
+        Operation operation = operations.get(i);
+        RowError error = statuses[i] == null ? null : new RowError(statuses[i], operation, TABLET_SERVER);
+        responses.add(new OperationResponse(0, TABLET_SERVER, 0, operation, error));
+      }
+      return responses;
+    }
+
+    @Override
+    public List<OperationResponse> close() throws KuduException {
+      return flush();
+    }
+
+    @Override
+    public boolean hasPendingOperations() {
+      return !buffer.isEmpty();
+    }
+
+    @Override
+    public int countPendingErrors() {
+      return errors.size();
+    }
+
+    @Override
+    public RowErrorsAndOverflowStatus getPendingErrors() {
+      RowError[] pending = errors.toArray(new RowError[errors.size()]);
+      errors.clear();
+      return new RowErrorsAndOverflowStatus(pending, false);
+    }
+  }
+}